@@ -0,0 +1,327 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * The BitUnpacker class extracts sequences of fixed-width unsigned values from packed
+ * binary data, as found in the data sections of GRIB records.
+ * <p>
+ * Each value is extracted from a single 64-bit big-endian word loaded at the byte
+ * containing its first bit, rather than being assembled one byte at a time. Values of 8,
+ * 12, 16 or 24 bits starting on a byte boundary, which are the most common in practice,
+ * are read by specialised kernels instead (12-bit values are read in pairs from 3 bytes).
+ * All bit offsets are absolute, i.e. relative to index 0 of the buffer rather than to its
+ * position, and the position of the buffer is never modified.
+ */
+public class BitUnpacker
+{
+    /**
+     * Maximum number of bits per value supported by the bulk methods.
+     */
+    public static final int MAX_BITS = 32;
+
+    private BitUnpacker()
+    {
+    }
+
+    /**
+     * Unpacks a sequence of unsigned values into an integer array. Values of 32 bits of at
+     * least 2^31 are stored as negative numbers, i.e. they must be read as
+     * {@code dst[i] & 0xFFFFFFFFL}.
+     *
+     * @param buffer    buffer with packed data
+     * @param bitOffset absolute offset in bits of the first value
+     * @param nBits     number of bits per value (at most {@value #MAX_BITS})
+     * @param count     number of values to unpack
+     * @param dst       destination array
+     * @param dstOffset index in the destination array of the first value
+     */
+    public static void unpack(ByteBuffer buffer, long bitOffset, int nBits, int count, int[] dst, int dstOffset)
+    {
+        if (nBits == 0)
+        {
+            Arrays.fill(dst, dstOffset, dstOffset + count, 0);
+            return;
+        }
+        checkBits(nBits);
+
+        ByteBuffer buf = bigEndian(buffer);
+        if (isByteAligned(buf, bitOffset, nBits, count))
+        {
+            int index = (int) (bitOffset >>> 3);
+            switch (nBits)
+            {
+                case 8:
+                    unpack8(buf, index, count, dst, dstOffset);
+                    return;
+                case 12:
+                    unpack12(buf, index, count, dst, dstOffset);
+                    return;
+                case 16:
+                    unpack16(buf, index, count, dst, dstOffset);
+                    return;
+                case 24:
+                    unpack24(buf, index, count, dst, dstOffset);
+                    return;
+                default:
+                    break;
+            }
+        }
+        int lastWord = buf.limit() - 8;
+        int shift = 64 - nBits;
+        long bit = bitOffset;
+        int i = dstOffset;
+        int end = dstOffset + count;
+
+        // generic path: a whole word can be loaded
+        for (; i < end; i++, bit += nBits)
+        {
+            int index = (int) (bit >>> 3);
+            if (index > lastWord)
+            {
+                break;
+            }
+            dst[i] = (int) ((buf.getLong(index) << (bit & 7)) >>> shift);
+        }
+
+        // last few values: load the remaining bytes only
+        for (; i < end; i++, bit += nBits)
+        {
+            dst[i] = (int) ((loadWord(buf, (int) (bit >>> 3)) << (bit & 7)) >>> shift);
+        }
+    }
+
+    /**
+     * Unpacks a sequence of unsigned values X into a float array, storing {@code ref + scale * X}
+     * for each value.
+     *
+     * @param buffer    buffer with packed data
+     * @param bitOffset absolute offset in bits of the first value
+     * @param nBits     number of bits per value (at most {@value #MAX_BITS})
+     * @param count     number of values to unpack
+     * @param dst       destination array
+     * @param dstOffset index in the destination array of the first value
+     * @param ref       reference value added to each scaled value
+     * @param scale     scale factor applied to each value
+     */
+    public static void unpack(ByteBuffer buffer, long bitOffset, int nBits, int count, float[] dst, int dstOffset,
+                              float ref, float scale)
+    {
+        if (nBits == 0)
+        {
+            Arrays.fill(dst, dstOffset, dstOffset + count, ref);
+            return;
+        }
+        checkBits(nBits);
+
+        ByteBuffer buf = bigEndian(buffer);
+        if (isByteAligned(buf, bitOffset, nBits, count))
+        {
+            int index = (int) (bitOffset >>> 3);
+            if (VectorSupport.unpack(buf, index, nBits, count, dst, dstOffset, ref, scale))
+            {
+                return;
+            }
+            switch (nBits)
+            {
+                case 8:
+                    unpack8(buf, index, count, dst, dstOffset, ref, scale);
+                    return;
+                case 12:
+                    unpack12(buf, index, count, dst, dstOffset, ref, scale);
+                    return;
+                case 16:
+                    unpack16(buf, index, count, dst, dstOffset, ref, scale);
+                    return;
+                case 24:
+                    unpack24(buf, index, count, dst, dstOffset, ref, scale);
+                    return;
+                default:
+                    break;
+            }
+        }
+        int lastWord = buf.limit() - 8;
+        int shift = 64 - nBits;
+        long bit = bitOffset;
+        int i = dstOffset;
+        int end = dstOffset + count;
+
+        for (; i < end; i++, bit += nBits)
+        {
+            int index = (int) (bit >>> 3);
+            if (index > lastWord)
+            {
+                break;
+            }
+            dst[i] = ref + scale * ((buf.getLong(index) << (bit & 7)) >>> shift);
+        }
+
+        for (; i < end; i++, bit += nBits)
+        {
+            dst[i] = ref + scale * ((loadWord(buf, (int) (bit >>> 3)) << (bit & 7)) >>> shift);
+        }
+    }
+
+    /**
+     * Unpacks a single unsigned value, without unpacking the values which precede it.
+     *
+     * @param buffer    buffer with packed data
+     * @param bitOffset absolute offset in bits of the value
+     * @param nBits     number of bits of the value (at most {@value #MAX_BITS})
+     * @return the unsigned value
+     */
+    public static long get(ByteBuffer buffer, long bitOffset, int nBits)
+    {
+        if (nBits == 0)
+        {
+            return 0;
+        }
+        checkBits(nBits);
+
+        ByteBuffer buf = bigEndian(buffer);
+        int index = (int) (bitOffset >>> 3);
+        long word = index <= buf.limit() - 8 ? buf.getLong(index) : loadWord(buf, index);
+        return (word << (bitOffset & 7)) >>> (64 - nBits);
+    }
+
+    /**
+     * Returns whether the values start on a byte boundary, have one of the widths handled by
+     * a specialised kernel (8, 12, 16 or 24 bits) and lie entirely within the buffer.
+     */
+    private static boolean isByteAligned(ByteBuffer buf, long bitOffset, int nBits, int count)
+    {
+        return (bitOffset & 7) == 0 && (nBits == 8 || nBits == 12 || nBits == 16 || nBits == 24) &&
+                (bitOffset + (long) nBits * count + 7) >>> 3 <= buf.limit();
+    }
+
+    private static void unpack8(ByteBuffer buf, int index, int count, int[] dst, int dstOffset)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            dst[dstOffset + i] = buf.get(index + i) & 0xFF;
+        }
+    }
+
+    /**
+     * Unpacks pairs of 12-bit values from each group of 3 bytes.
+     */
+    private static void unpack12(ByteBuffer buf, int index, int count, int[] dst, int dstOffset)
+    {
+        int i = 0;
+        for (; i + 1 < count; i += 2, index += 3)
+        {
+            int b1 = buf.get(index + 1) & 0xFF;
+            dst[dstOffset + i] = ((buf.get(index) & 0xFF) << 4) | (b1 >>> 4);
+            dst[dstOffset + i + 1] = ((b1 & 0x0F) << 8) | (buf.get(index + 2) & 0xFF);
+        }
+        if (i < count)
+        {
+            dst[dstOffset + i] = ((buf.get(index) & 0xFF) << 4) | ((buf.get(index + 1) & 0xFF) >>> 4);
+        }
+    }
+
+    private static void unpack16(ByteBuffer buf, int index, int count, int[] dst, int dstOffset)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            dst[dstOffset + i] = buf.getShort(index + 2 * i) & 0xFFFF;
+        }
+    }
+
+    private static void unpack24(ByteBuffer buf, int index, int count, int[] dst, int dstOffset)
+    {
+        for (int i = 0; i < count; i++, index += 3)
+        {
+            dst[dstOffset + i] = ((buf.getShort(index) & 0xFFFF) << 8) | (buf.get(index + 2) & 0xFF);
+        }
+    }
+
+    private static void unpack8(ByteBuffer buf, int index, int count, float[] dst, int dstOffset,
+                                float ref, float scale)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            dst[dstOffset + i] = ref + scale * (buf.get(index + i) & 0xFF);
+        }
+    }
+
+    private static void unpack12(ByteBuffer buf, int index, int count, float[] dst, int dstOffset,
+                                 float ref, float scale)
+    {
+        int i = 0;
+        for (; i + 1 < count; i += 2, index += 3)
+        {
+            int b1 = buf.get(index + 1) & 0xFF;
+            dst[dstOffset + i] = ref + scale * (((buf.get(index) & 0xFF) << 4) | (b1 >>> 4));
+            dst[dstOffset + i + 1] = ref + scale * (((b1 & 0x0F) << 8) | (buf.get(index + 2) & 0xFF));
+        }
+        if (i < count)
+        {
+            dst[dstOffset + i] = ref + scale * (((buf.get(index) & 0xFF) << 4) | ((buf.get(index + 1) & 0xFF) >>> 4));
+        }
+    }
+
+    private static void unpack16(ByteBuffer buf, int index, int count, float[] dst, int dstOffset,
+                                 float ref, float scale)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            dst[dstOffset + i] = ref + scale * (buf.getShort(index + 2 * i) & 0xFFFF);
+        }
+    }
+
+    private static void unpack24(ByteBuffer buf, int index, int count, float[] dst, int dstOffset,
+                                 float ref, float scale)
+    {
+        for (int i = 0; i < count; i++, index += 3)
+        {
+            dst[dstOffset + i] = ref + scale * (((buf.getShort(index) & 0xFFFF) << 8) | (buf.get(index + 2) & 0xFF));
+        }
+    }
+
+    /**
+     * Loads up to 8 bytes as a big-endian word, padding with zero bytes beyond the limit of the buffer.
+     */
+    private static long loadWord(ByteBuffer buf, int index)
+    {
+        long word = 0;
+        for (int i = 0; i < 8; i++)
+        {
+            word <<= 8;
+            if (index + i < buf.limit())
+            {
+                word |= buf.get(index + i) & 0xFF;
+            }
+        }
+        return word;
+    }
+
+    private static ByteBuffer bigEndian(ByteBuffer buffer)
+    {
+        if (buffer.order() == ByteOrder.BIG_ENDIAN)
+        {
+            return buffer;
+        }
+        return buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    private static void checkBits(int nBits)
+    {
+        if (nBits < 0 || nBits > MAX_BITS)
+        {
+            throw new IllegalArgumentException("Cannot unpack values of " + nBits + " bits");
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A Bitmap holds the bit map section of a GRIB record, which indicates the grid points at
+ * which a value is defined, packed 64 points to a word.
+ * <p>
+ * In a GRIB message, grid point 0 is the most significant bit of the first octet. Here,
+ * point {@code i} is held by bit {@code i % 64} of word {@code i / 64}, so that the set
+ * points can be found a word at a time using {@link Long#numberOfTrailingZeros(long)} and
+ * counted using {@link Long#bitCount(long)}. Bits beyond {@link #size()} are always clear.
+ */
+public final class Bitmap
+{
+    private final long[] words;
+    private final int size;
+
+    /**
+     * Number of set bits, computed on first use.
+     */
+    private int cardinality = -1;
+
+    /**
+     * Number of set bits before each block of {@value #RANK_BLOCK_WORDS} words, computed on
+     * first use by {@link #rank(int)}.
+     */
+    private volatile int[] blockRanks;
+
+    private static final int RANK_BLOCK_WORDS = 8;
+
+    private Bitmap(long[] words, int size)
+    {
+        this.words = words;
+        this.size = size;
+    }
+
+    /**
+     * Reads a bit map from a stream.
+     *
+     * @param in     stream positioned at the first octet of the bit map
+     * @param nBytes number of octets to read
+     * @param nBits  number of bits in the bit map, at most {@code 8 * nBytes}
+     * @return the bit map
+     * @throws IOException if the stream cannot be read
+     */
+    public static Bitmap readFromStream(GribInputStream in, int nBytes, int nBits) throws IOException
+    {
+        return fromBytes(in.read(nBytes), 0, nBits);
+    }
+
+    /**
+     * Creates a bit map from octets, in which the first point is the most significant bit of
+     * the first octet.
+     *
+     * @param bytes  octets holding the bit map
+     * @param offset index of the first octet of the bit map
+     * @param nBits  number of bits in the bit map
+     * @return the bit map
+     */
+    public static Bitmap fromBytes(byte[] bytes, int offset, int nBits)
+    {
+        long[] words = new long[(nBits + 63) >>> 6];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        int nBytes = (nBits + 7) >>> 3;
+        int w = 0;
+        int i = 0;
+        for (; i + 8 <= nBytes; i += 8)
+        {
+            // Reversing a big-endian word moves the first point from the top bit to bit 0
+            words[w++] = Long.reverse(buf.getLong(offset + i));
+        }
+        if (i < nBytes)
+        {
+            long word = 0;
+            for (int shift = 0; i < nBytes; i++, shift += 8)
+            {
+                word |= (long) (Integer.reverse(bytes[offset + i] & 0xFF) >>> 24) << shift;
+            }
+            words[w] = word;
+        }
+        if ((nBits & 63) != 0)
+        {
+            words[words.length - 1] &= -1L >>> (64 - (nBits & 63));
+        }
+        return new Bitmap(words, nBits);
+    }
+
+    /**
+     * @return the number of points in this bit map
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns whether a value is defined at a point.
+     *
+     * @param index index of the point
+     * @return true if the bit of the point is set
+     */
+    public boolean get(int index)
+    {
+        if (index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Returns the index of the first set bit at or after a point.
+     *
+     * @param fromIndex index of the point to start from
+     * @return index of the next set bit, or -1 if there is none
+     */
+    public int nextSetBit(int fromIndex)
+    {
+        if (fromIndex >= size)
+        {
+            return -1;
+        }
+        int w = fromIndex >>> 6;
+        long word = words[w] & (-1L << fromIndex);
+        while (word == 0)
+        {
+            if (++w == words.length)
+            {
+                return -1;
+            }
+            word = words[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * @return the number of set bits, i.e. the number of points at which a value is defined
+     */
+    public int cardinality()
+    {
+        if (cardinality < 0)
+        {
+            cardinality = cardinality(size);
+        }
+        return cardinality;
+    }
+
+    /**
+     * Returns the number of set bits before a point.
+     *
+     * @param toIndex index of the point, exclusive
+     * @return the number of set bits in {@code [0, toIndex)}
+     */
+    public int cardinality(int toIndex)
+    {
+        toIndex = Math.min(toIndex, size);
+        int count = 0;
+        int w = 0;
+        for (; w < toIndex >>> 6; w++)
+        {
+            count += Long.bitCount(words[w]);
+        }
+        if ((toIndex & 63) != 0)
+        {
+            count += Long.bitCount(words[w] & (-1L >>> (64 - (toIndex & 63))));
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of set bits before a point in constant time, i.e. the index of the
+     * value of the point among the packed values if its bit is set. A table holding the count
+     * for every block of {@value #RANK_BLOCK_WORDS} words is built on first use.
+     *
+     * @param index index of the point
+     * @return the number of set bits in {@code [0, index)}
+     */
+    public int rank(int index)
+    {
+        if (index < 0 || index > size)
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int[] blockRanks = this.blockRanks;
+        if (blockRanks == null)
+        {
+            blockRanks = new int[(words.length + RANK_BLOCK_WORDS - 1) / RANK_BLOCK_WORDS + 1];
+            for (int w = 0, count = 0; w < words.length; w++)
+            {
+                if (w % RANK_BLOCK_WORDS == 0)
+                {
+                    blockRanks[w / RANK_BLOCK_WORDS] = count;
+                }
+                count += Long.bitCount(words[w]);
+            }
+            this.blockRanks = blockRanks;
+        }
+
+        int last = index >>> 6;
+        int w = last / RANK_BLOCK_WORDS * RANK_BLOCK_WORDS;
+        int count = blockRanks[w / RANK_BLOCK_WORDS];
+        for (; w < last; w++)
+        {
+            count += Long.bitCount(words[w]);
+        }
+        if ((index & 63) != 0)
+        {
+            count += Long.bitCount(words[last] & (-1L >>> (64 - (index & 63))));
+        }
+        return count;
+    }
+
+    /**
+     * Moves packed values to the points at which they are defined, and fills the other points
+     * with a missing value. On entry, the values of the {@code cardinality(nPoints)} set points
+     * must be held in order at the end of the range {@code [offset, offset + nPoints)}, which
+     * allows values to be unpacked in place without a temporary array. Runs of 64 set or
+     * clear points are moved or filled as a block.
+     *
+     * @param values  array holding the packed values
+     * @param offset  index of the value of point 0
+     * @param nPoints number of points, at most {@link #size()}
+     * @param missing value given to points whose bit is clear
+     */
+    public void expand(float[] values, int offset, int nPoints, float missing)
+    {
+        // A value never moves backwards, nor past a value which has not been moved yet
+        int j = offset + nPoints - cardinality(nPoints);
+        for (int i = 0, w = 0; i < nPoints; i += 64, w++)
+        {
+            long word = words[w];
+            int base = offset + i;
+            int n = Math.min(64, nPoints - i);
+            if (word == -1L && n == 64)
+            {
+                System.arraycopy(values, j, values, base, 64);
+                j += 64;
+            } else if (word == 0)
+            {
+                Arrays.fill(values, base, base + n, missing);
+            } else
+            {
+                for (int b = 0; b < n; b++)
+                {
+                    values[base + b] = (word & (1L << b)) != 0 ? values[j++] : missing;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return this bit map as an array with one element per point
+     */
+    public boolean[] toBooleanArray()
+    {
+        boolean[] bits = new boolean[size];
+        for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1))
+        {
+            bits[i] = true;
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link GribSource} which reads GRIB content held in memory. Ranges returned by
+ * {@link #read(long, int)} share the array instead of copying it.
+ */
+public class ByteArrayGribSource implements GribSource
+{
+    private final byte[] data;
+
+    /**
+     * Constructs a source over an array, which is not copied.
+     *
+     * @param data GRIB content
+     */
+    public ByteArrayGribSource(byte[] data)
+    {
+        this.data = data;
+    }
+
+    @Override
+    public int read(long offset, ByteBuffer dst)
+    {
+        if (offset >= data.length)
+        {
+            return -1;
+        }
+        int nBytes = (int) Math.min(dst.remaining(), data.length - offset);
+        dst.put(data, (int) offset, nBytes);
+        return nBytes;
+    }
+
+    @Override
+    public ByteBuffer read(long offset, int length) throws EOFException
+    {
+        if (offset < 0 || offset + length > data.length)
+        {
+            throw new EOFException("Cannot read " + length + " bytes at offset " + offset + ": end of source reached");
+        }
+        return ByteBuffer.wrap(data, (int) offset, length).slice();
+    }
+
+    @Override
+    public long size()
+    {
+        return data.length;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
@@ -66,11 +66,11 @@ public class Bytes2Number
         {
             throw new IllegalArgumentException("nBytes cannot be larger than " + Long.BYTES + " bytes");
         }
-        int value = 0;
+        long value = 0;
 
         for (int i = 0; i < nBytes; i++)
         {
-            value |= ((bytes[i] & 0xFF) << ((nBytes - i - 1)) * 8);
+            value |= ((bytes[i] & 0xFFL) << ((nBytes - i - 1)) * 8);
         }
         return value;
     }
@@ -0,0 +1,64 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link GribSource} which reads a local file using positional reads on a {@link FileChannel}.
+ */
+public class FileGribSource implements GribSource
+{
+    private final FileChannel channel;
+
+    /**
+     * Opens a local file.
+     *
+     * @param path path to the GRIB file
+     * @throws IOException if the file cannot be opened
+     */
+    public FileGribSource(Path path) throws IOException
+    {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    /**
+     * Returns the channel from which this source is read.
+     *
+     * @return the channel from which this source is read
+     */
+    public FileChannel getChannel()
+    {
+        return channel;
+    }
+
+    @Override
+    public int read(long offset, ByteBuffer dst) throws IOException
+    {
+        return channel.read(dst, offset);
+    }
+
+    @Override
+    public long size() throws IOException
+    {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * The GribAsyncReader class reads individual records of a GRIB file without blocking
+ * the calling thread.
+ * <p>
+ * The bytes of each record are fetched using a positional read on an
+ * {@link AsynchronousFileChannel}, after which the record is parsed and its values are
+ * unpacked on the executor given to the constructor. The locators of the records are
+ * typically obtained from a {@link GribIndex} or a {@link GribScanner}. Any number of
+ * records may be read concurrently.
+ */
+public class GribAsyncReader implements Closeable
+{
+    private final AsynchronousFileChannel channel;
+    private final Executor executor;
+
+    /**
+     * Opens a GRIB file for asynchronous reading.
+     *
+     * @param path     path to the GRIB file
+     * @param executor executor on which records are decoded
+     * @throws IOException if the file cannot be opened
+     */
+    public GribAsyncReader(Path path, Executor executor) throws IOException
+    {
+        this.channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+        this.executor = executor;
+    }
+
+    /**
+     * Reads and decodes a record. The returned future completes exceptionally with an
+     * {@link IOException}, {@link NotSupportedException} or {@link NoValidGribException}
+     * if the record cannot be read.
+     *
+     * @param locator locator of the record
+     * @return a future completed with the record, whose values have already been unpacked
+     */
+    public CompletableFuture<GribRecord> read(RecordLocator locator)
+    {
+        return readBytes(locator).thenApplyAsync(this::decode, executor);
+    }
+
+    /**
+     * Reads and decodes several records concurrently.
+     *
+     * @param locators locators of the records
+     * @return a future completed with the records, in the same order as the locators
+     */
+    public CompletableFuture<List<GribRecord>> read(List<RecordLocator> locators)
+    {
+        List<CompletableFuture<GribRecord>> futures = new ArrayList<>(locators.size());
+        for (RecordLocator locator : locators)
+        {
+            futures.add(read(locator));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(ignored ->
+        {
+            List<GribRecord> records = new ArrayList<>(futures.size());
+            for (CompletableFuture<GribRecord> future : futures)
+            {
+                records.add(future.join());
+            }
+            return records;
+        });
+    }
+
+    /**
+     * Reads the raw bytes of a record.
+     *
+     * @param locator locator of the record
+     * @return a future completed with a buffer holding the whole record
+     */
+    public CompletableFuture<ByteBuffer> readBytes(RecordLocator locator)
+    {
+        CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        if (locator.getLength() > Integer.MAX_VALUE)
+        {
+            future.completeExceptionally(new IOException("Record of " + locator.getLength() + " bytes is too large"));
+            return future;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) locator.getLength());
+        readFully(buffer, locator.getOffset(), future);
+        return future;
+    }
+
+    /**
+     * Reads into the remaining space of the buffer, issuing further reads after short reads.
+     */
+    private void readFully(ByteBuffer buffer, long position, CompletableFuture<ByteBuffer> future)
+    {
+        channel.read(buffer, position, null, new CompletionHandler<Integer, Void>()
+        {
+            @Override
+            public void completed(Integer nBytes, Void attachment)
+            {
+                if (nBytes < 0)
+                {
+                    future.completeExceptionally(new EOFException("Record extends beyond the end of the file"));
+                } else if (buffer.hasRemaining())
+                {
+                    readFully(buffer, position + nBytes, future);
+                } else
+                {
+                    buffer.flip();
+                    future.complete(buffer);
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment)
+            {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    private GribRecord decode(ByteBuffer buffer)
+    {
+        try
+        {
+            GribRecord record = GribRecord.readFromStream(new GribByteBufferInputStream(buffer));
+            if (record.getValues() == null)
+            {
+                throw new NoValidGribException("Cannot unpack values of " + record.getParameterCode());
+            }
+            return record;
+        } catch (IOException | NotSupportedException | NoValidGribException e)
+        {
+            throw new CompletionException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
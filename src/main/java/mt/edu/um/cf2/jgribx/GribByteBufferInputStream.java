@@ -0,0 +1,498 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link GribInputStream} which reads its content from one or more {@link ByteBuffer}s
+ * (typically memory-mapped regions of a file) using absolute offsets.
+ * <p>
+ * Unlike {@link GribInputStream}, no bytes are copied through intermediate stream buffers:
+ * every read is served directly from the underlying buffers, {@link #mark(int)} and
+ * {@link #reset()} simply save and restore the current offset and {@link #skip(long)} is
+ * a constant-time operation. Files larger than 2 GB are supported by splitting the content
+ * into several fixed-size segments.
+ */
+public class GribByteBufferInputStream extends GribInputStream
+{
+    /**
+     * Each segment holds 2^30 bytes (1 GB), except possibly the last one.
+     */
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = (int) (SEGMENT_SIZE - 1);
+
+    private final ByteBuffer[] segments;
+
+    /**
+     * Total number of bytes available in all segments.
+     */
+    private final long length;
+
+    /**
+     * Absolute offset of the next byte to be read.
+     */
+    private long position;
+
+    private long markedPosition;
+
+    /**
+     * Absolute bit offset at which the bit counter was last reset.
+     */
+    private long counterOrigin;
+
+    private long markedCounter;
+
+    /**
+     * Constructs a stream which reads the remaining content of a single buffer.
+     * The position of the given buffer is not modified.
+     *
+     * @param buffer buffer with GRIB content
+     */
+    public GribByteBufferInputStream(ByteBuffer buffer)
+    {
+        this(split(buffer), buffer.remaining());
+    }
+
+    private GribByteBufferInputStream(ByteBuffer[] segments, long length)
+    {
+        super(null);
+        this.segments = segments;
+        this.length = length;
+    }
+
+    /**
+     * Memory-maps a file and constructs a stream over its content.
+     * The file channel is closed before returning since mappings remain valid until they
+     * are garbage collected.
+     *
+     * @param path path to the GRIB file
+     * @return a stream positioned at the start of the file
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static GribByteBufferInputStream map(Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            int nSegments = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+            ByteBuffer[] segments = new ByteBuffer[nSegments];
+            for (int i = 0; i < nSegments; i++)
+            {
+                long offset = (long) i << SEGMENT_SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(SEGMENT_SIZE, size - offset));
+            }
+            return new GribByteBufferInputStream(segments, size);
+        }
+    }
+
+    private static ByteBuffer[] split(ByteBuffer buffer)
+    {
+        int size = buffer.remaining();
+        int nSegments = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+        ByteBuffer[] segments = new ByteBuffer[nSegments];
+        for (int i = 0; i < nSegments; i++)
+        {
+            ByteBuffer segment = buffer.duplicate();
+            int start = buffer.position() + (i << SEGMENT_SHIFT);
+            segment.position(start);
+            segment.limit((int) Math.min(start + SEGMENT_SIZE, buffer.limit()));
+            segments[i] = segment.slice();
+        }
+        return segments;
+    }
+
+    @Override
+    public long getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * Moves the stream to the given absolute offset. Any partially consumed byte is discarded.
+     *
+     * @param position absolute offset of the next byte to be read
+     * @throws EOFException if the offset lies beyond the end of the stream
+     * @throws IOException  if the offset is negative
+     */
+    public void seek(long position) throws IOException
+    {
+        if (position < 0)
+        {
+            throw new IOException("Cannot seek to offset " + position);
+        }
+        if (position > length)
+        {
+            throw new EOFException("Cannot seek to offset " + position + " (length: " + length + ")");
+        }
+        this.position = position;
+        bitPos = 0;
+    }
+
+    /**
+     * Constructs a new, independent stream over a range of the content of this stream.
+     * The content is shared rather than copied whenever the range lies within a single
+     * segment, so this is a cheap way of reading records concurrently.
+     *
+     * @param offset absolute offset of the start of the range
+     * @param length length in bytes of the range
+     * @return a stream positioned at the start of the range
+     * @throws EOFException if the range extends beyond the end of this stream
+     * @throws IOException  if the offset or length is negative, or the range is too long
+     */
+    public GribByteBufferInputStream slice(long offset, long length) throws IOException
+    {
+        if (offset < 0 || length < 0 || length > Integer.MAX_VALUE)
+        {
+            throw new IOException("Cannot slice " + length + " bytes at offset " + offset);
+        }
+        if (offset + length > this.length)
+        {
+            throw new EOFException("Cannot slice " + length + " bytes at offset " + offset + " (length: " + this.length + ")");
+        }
+
+        GribByteBufferInputStream slice = new GribByteBufferInputStream(sliceBuffer(offset, length, length));
+        slice.setPackedStorage(isPackedStorage());
+        slice.setParallelDecoding(getParallelDecoding());
+        return slice;
+    }
+
+    /**
+     * Returns a buffer whose content starts at the given offset. The content of the segment is
+     * shared if the range lies within a single segment; in that case the buffer may extend up to
+     * <tt>maxLength</tt> bytes if available, otherwise it holds exactly <tt>length</tt> bytes.
+     */
+    ByteBuffer sliceBuffer(long offset, long length, long maxLength)
+    {
+        if (length == 0)
+        {
+            // an empty range may lie at the very end of the content, past the last segment
+            return ByteBuffer.allocate(0);
+        }
+        int iSegment = (int) (offset >>> SEGMENT_SHIFT);
+        int start = (int) offset & SEGMENT_MASK;
+        int capacity = segments[iSegment].capacity();
+        if (start + length <= capacity)
+        {
+            ByteBuffer buffer = segments[iSegment].duplicate();
+            buffer.position(start);
+            buffer.limit((int) Math.min(start + maxLength, capacity));
+            return buffer.slice();
+        }
+
+        // range crosses a segment boundary, copy it using a separate stream so that
+        // the state of this stream is left untouched
+        byte[] content = new byte[(int) length];
+        GribByteBufferInputStream copy = new GribByteBufferInputStream(segments, this.length);
+        copy.position = offset;
+        copy.read(content, 0, content.length);
+        return ByteBuffer.wrap(content);
+    }
+
+    /**
+     * Returns the total number of bytes in this stream.
+     *
+     * @return the total number of bytes in this stream
+     */
+    public long length()
+    {
+        return length;
+    }
+
+    private int get(long offset)
+    {
+        return segments[(int) (offset >>> SEGMENT_SHIFT)].get((int) offset & SEGMENT_MASK) & 0xFF;
+    }
+
+    private long getBitPosition()
+    {
+        return position * 8 - bitPos;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit)
+    {
+        markedPosition = position;
+        markedCounter = getBitCounter();
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        position = markedPosition;
+        bitPos = 0;
+        counterOrigin = getBitPosition() - markedCounter;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public int available()
+    {
+        return (int) Math.min(length - position, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close()
+    {
+        // nothing to release: mappings are unmapped when garbage collected
+    }
+
+    @Override
+    public long getBitCounter()
+    {
+        return getBitPosition() - counterOrigin;
+    }
+
+    @Override
+    public int getByteCounter()
+    {
+        return (int) ((getBitCounter() + 7) / 8);
+    }
+
+    @Override
+    public void resetBitCounter()
+    {
+        counterOrigin = getBitPosition();
+    }
+
+    @Override
+    public void seekNextByte()
+    {
+        bitPos = 0;
+    }
+
+    @Override
+    public int read()
+    {
+        if (position >= length)
+        {
+            return -1;
+        }
+        return get(position++);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+        if (len == 0)
+        {
+            return 0;
+        }
+        if (position >= length)
+        {
+            return -1;
+        }
+
+        int nBytes = (int) Math.min(len, length - position);
+        int nRemaining = nBytes;
+        while (nRemaining > 0)
+        {
+            ByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)].duplicate();
+            segment.position((int) position & SEGMENT_MASK);
+            int n = Math.min(nRemaining, segment.remaining());
+            segment.get(b, off, n);
+            off += n;
+            nRemaining -= n;
+            position += n;
+        }
+        return nBytes;
+    }
+
+    @Override
+    public ByteBuffer readBuffer(int length) throws IOException
+    {
+        if (length < 0)
+        {
+            throw new IOException("Cannot read " + length + " bytes");
+        }
+        if (position + length > this.length)
+        {
+            throw new EOFException("Unexpected end of input.");
+        }
+        ByteBuffer buffer = sliceBuffer(position, length, length);
+        position += length;
+        return buffer;
+    }
+
+    @Override
+    public long skip(long n)
+    {
+        long nSkipped = Math.max(0, Math.min(n, length - position));
+        position += nSkipped;
+        return nSkipped;
+    }
+
+    @Override
+    public int readUI8() throws IOException
+    {
+        if (position >= length)
+        {
+            throw new EOFException("End of input.");
+        }
+        return get(position++);
+    }
+
+    @Override
+    public int[] readUI8(int length) throws IOException
+    {
+        if (position + length > this.length)
+        {
+            throw new EOFException("End of input.");
+        }
+        int[] data = new int[length];
+        for (int i = 0; i < length; i++)
+        {
+            data[i] = get(position++);
+        }
+        return data;
+    }
+
+    /**
+     * Seek the stream for the specified pattern. The content is searched in place, without
+     * copying it.
+     *
+     * @param pattern        The pattern for which to seek
+     * @param consumePattern Determines whether the pattern is consumed or not
+     * @return Number of bytes consumed from the stream
+     * @throws EOFException if the end of the stream is reached without finding the pattern
+     */
+    @Override
+    public int seekBytePattern(byte[] pattern, boolean consumePattern) throws EOFException
+    {
+        long startPosition = position;
+        long match = indexOf(pattern, position);
+        if (match < 0)
+        {
+            position = length;
+            throw new EOFException("Reached end of stream without finding pattern");
+        }
+
+        position = match + (consumePattern ? pattern.length : 0);
+        return (int) Math.min(position - startPosition, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the absolute offset of the first occurrence of a pattern at or after the given offset.
+     *
+     * @param pattern pattern to search for
+     * @param from    absolute offset at which the search starts
+     * @return the absolute offset of the first byte of the pattern, or -1 if the pattern was not found
+     */
+    public long indexOf(byte[] pattern, long from)
+    {
+        byte first = pattern[0];
+        long last = length - pattern.length;
+        long offset = from;
+        while (offset <= last)
+        {
+            // Scan for the first byte of the pattern within the current segment
+            ByteBuffer segment = segments[(int) (offset >>> SEGMENT_SHIFT)];
+            int i = (int) offset & SEGMENT_MASK;
+            int end = (int) Math.min(segment.limit(), last - (offset - i) + 1);
+            while (i < end && segment.get(i) != first)
+            {
+                i++;
+            }
+            offset += i - ((int) offset & SEGMENT_MASK);
+            if (i == end)
+            {
+                continue;
+            }
+
+            int j = 1;
+            while (j < pattern.length && (byte) get(offset + j) == pattern[j])
+            {
+                j++;
+            }
+            if (j == pattern.length)
+            {
+                return offset;
+            }
+            offset++;
+        }
+        return -1;
+    }
+
+    @Override
+    protected ByteBuffer readBitWindow(long numBits) throws IOException
+    {
+        long start = bitPos == 0 ? position : position - 1;
+        long endBit = getBitPosition() + numBits;
+        long end = (endBit + 7) >>> 3;
+        if (end > length)
+        {
+            throw new EOFException("End of input.");
+        }
+
+        // Extra bytes allow the unpacker to load whole words up to the last byte
+        ByteBuffer window = sliceBuffer(start, end - start, end - start + 7);
+
+        position = end;
+        int remainder = (int) (endBit & 7);
+        if (remainder == 0)
+        {
+            bitPos = 0;
+        } else
+        {
+            bitPos = 8 - remainder;
+            bitBuf = get(end - 1) & (0xff >> remainder);
+        }
+        return window;
+    }
+
+    @Override
+    public long readUBits(int numBits) throws IOException
+    {
+        if (numBits == 0) return 0;
+
+        int bitsLeft = numBits;
+        long result = 0;
+
+        if (bitPos == 0)
+        {
+            bitBuf = readUI8();
+            bitPos = 8;
+        }
+
+        while (true)
+        {
+            int shift = bitsLeft - bitPos;
+            if (shift > 0)
+            {
+                // Consume the entire buffer
+                result |= (long) bitBuf << shift;
+                bitsLeft -= bitPos;
+
+                bitBuf = readUI8();
+                bitPos = 8;
+            } else
+            {
+                // Consume a portion of the buffer
+                result |= bitBuf >> -shift;
+                bitPos -= bitsLeft;
+                bitBuf &= 0xff >> (8 - bitPos);   // mask off consumed bits
+
+                return result;
+            }
+        }
+    }
+}
@@ -17,12 +17,27 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -39,11 +54,21 @@ public class GribFile
 {
     private int nRecordsSkipped;
 
+    /**
+     * Matches level codes such as "ISBL:200" and "SFC".
+     */
+    static final Pattern LEVEL_PATTERN = Pattern.compile("(\\w+)(?::(\\d+))?");
+
     /**
      * List of GRIB records
      */
     private final List<GribRecord> records;
 
+    /**
+     * Indexes over the records, built when first needed.
+     */
+    private volatile RecordLookup lookup;
+
     /**
      * Constructs a {@link GribFile} object from a file.
      *
@@ -59,6 +84,120 @@ public class GribFile
         this(new FileInputStream(filepath));
     }
 
+    /**
+     * Constructs a {@link GribFile} object from a file which is memory-mapped
+     * instead of being read through an input stream.
+     * <p>
+     * This is considerably faster for large files since records are read
+     * directly from the mapped file content.
+     *
+     * @param path path to the GRIB file
+     * @throws IOException           if file cannot be opened or mapped
+     * @throws NoValidGribException  if file is no valid GRIB file
+     */
+    public GribFile(Path path) throws IOException, NoValidGribException
+    {
+        this(path, false);
+    }
+
+    /**
+     * Constructs a {@link GribFile} object from a file which is memory-mapped, optionally
+     * storing simple-packed fields in their packed form.
+     *
+     * @param path          path to the GRIB file
+     * @param packedStorage true to store simple-packed fields in their packed form
+     *                      (see {@link GribInputStream#setPackedStorage(boolean)})
+     * @throws IOException           if file cannot be opened or mapped
+     * @throws NoValidGribException  if file is no valid GRIB file
+     */
+    public GribFile(Path path, boolean packedStorage) throws IOException, NoValidGribException
+    {
+        this(withPackedStorage(GribByteBufferInputStream.map(path), packedStorage));
+    }
+
+    /**
+     * Constructs a {@link GribFile} object from a file which is memory-mapped, decoding its
+     * large fields on several threads as configured.
+     *
+     * @param path             path to the GRIB file
+     * @param parallelDecoding how large fields are decoded on several threads
+     *                         (see {@link GribInputStream#setParallelDecoding(ParallelDecoding)})
+     * @throws IOException           if file cannot be opened or mapped
+     * @throws NoValidGribException  if file is no valid GRIB file
+     */
+    public GribFile(Path path, ParallelDecoding parallelDecoding) throws IOException, NoValidGribException
+    {
+        this(withParallelDecoding(GribByteBufferInputStream.map(path), parallelDecoding));
+    }
+
+    /**
+     * Constructs a {@link GribFile} object from a random-access source. The source is
+     * scanned first, after which the records are read one by one, so that only the bytes
+     * of the records are fetched. The source is not closed.
+     *
+     * @param source source with GRIB content
+     * @throws IOException           if source cannot be read
+     * @throws NoValidGribException  if source does not contain a valid GRIB file
+     */
+    public GribFile(GribSource source) throws IOException, NoValidGribException
+    {
+        this(GribIndex.open(source), null);
+    }
+
+    /**
+     * Constructs a {@link GribFile} object from the records of an index accepted by a filter.
+     * Records which are not accepted are not read at all.
+     */
+    private GribFile(GribIndex index, Predicate<RecordLocator> filter) throws IOException, NoValidGribException
+    {
+        nRecordsSkipped = 0;
+        records = new ArrayList<>();
+
+        int nAccepted = 0;
+        for (RecordLocator locator : index.getLocators())
+        {
+            if (filter != null && !filter.test(locator))
+            {
+                continue;
+            }
+            nAccepted++;
+            try
+            {
+                records.add(index.readRecord(locator));
+            } catch (NotSupportedException | NoValidGribException e)
+            {
+                Logger.println("Skipping " + locator + " (" + e.getMessage() + ")", Logger.WARNING);
+                nRecordsSkipped++;
+            }
+        }
+
+        // A filter may legitimately accept none of the records
+        if (records.isEmpty() && (nAccepted > 0 || index.getLocators().isEmpty()))
+        {
+            throw new NoValidGribException("No valid GRIB records found.");
+        }
+    }
+
+    /**
+     * Opens the records of a random-access source which match a query. The source is
+     * scanned using only the metadata sections of its records (see
+     * {@link GribScanner#scan(GribSource)}), so that records which do not match the query
+     * are skipped by their length: they are neither read any further nor unpacked. The
+     * records which match are read one by one, and their values are only unpacked when
+     * first requested. The source is not closed.
+     *
+     * @param source source with GRIB content
+     * @param query  query selecting the records to read
+     * @return a {@link GribFile} holding the matching records, in file order, which may be empty
+     * @throws IOException          if source cannot be read
+     * @throws NoValidGribException if source does not contain a valid GRIB file, or none of
+     *                              the matching records is valid
+     */
+    public static GribFile open(GribSource source, GribQuery query) throws IOException, NoValidGribException
+    {
+        return new GribFile(GribIndex.open(source), query);
+    }
+
     /**
      * Constructs a {@link GribFile} object from an input stream.
      *
@@ -67,13 +206,31 @@ public class GribFile
      * @throws NoValidGribException  if stream does not contain a valid GRIB file
      */
     public GribFile(InputStream in) throws IOException, NoValidGribException
+    {
+        this(in, false);
+    }
+
+    /**
+     * Constructs a {@link GribFile} object from an input stream, optionally storing
+     * simple-packed fields in their packed form.
+     *
+     * @param in            input stream with GRIB content
+     * @param packedStorage true to store simple-packed fields in their packed form
+     *                      (see {@link GribInputStream#setPackedStorage(boolean)})
+     * @throws IOException           if stream cannot be opened etc.
+     * @throws NoValidGribException  if stream does not contain a valid GRIB file
+     */
+    public GribFile(InputStream in, boolean packedStorage) throws IOException, NoValidGribException
     {
         // note: the BufferedInputStream enables mark/reset functionality
-        this(new GribInputStream(new BufferedInputStream(in)));
+        this(withPackedStorage(new GribInputStream(new BufferedInputStream(in)), packedStorage));
     }
 
     /**
-     * Constructs a {@link GribFile} object from a bit input stream.
+     * Constructs a {@link GribFile} object from a bit input stream, which is read up to its end
+     * and closed. Simple-packed fields are stored in their packed form if the stream is set to
+     * do so. To process large files without holding all their records, use a
+     * {@link GribReader} instead.
      *
      * @param in bit input stream with GRIB content
      * @throws IOException           if stream can not be opened etc.
@@ -81,66 +238,156 @@ public class GribFile
      */
     public GribFile(GribInputStream in) throws IOException, NoValidGribException
     {
-        // Initialise fields
-        nRecordsSkipped = 0;
         records = new ArrayList<>();
 
-        /*
-         * Initialise the Parameter Tables with the information in the parameter
-         * table lookup file.  See GribPDSParamTable for details
-         */
-        //GribPDSParamTable.readParameterTableLookup(); done in static initializer
+        try (GribReader reader = new GribReader(in))
+        {
+            while (reader.hasNext())
+            {
+                GribRecord record = reader.next();
+                logRecord(records.size() + reader.getRecordsSkippedCount() + 1, record);
+                records.add(record);
+            }
+            nRecordsSkipped = reader.getRecordsSkippedCount();
+        } catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
 
-        int count = 0;
-        while (in.available() > 0)
+        if (records.isEmpty())
         {
-            count++;
-            GribRecord record;
-            try
+            throw new NoValidGribException("No valid GRIB records found.");
+        }
+    }
+
+    /**
+     * Constructs a {@link GribFile} object from a file, decoding its records in parallel.
+     *
+     * @param path     path to the GRIB file
+     * @param executor executor on which records are parsed and unpacked
+     * @throws IOException           if file cannot be opened or mapped
+     * @throws NoValidGribException  if file is no valid GRIB file
+     * @see #GribFile(GribInputStream, ExecutorService)
+     */
+    public GribFile(Path path, ExecutorService executor) throws IOException, NoValidGribException
+    {
+        this(GribByteBufferInputStream.map(path), executor);
+    }
+
+    /**
+     * Constructs a {@link GribFile} object from a bit input stream, decoding its records in
+     * parallel. The stream is read sequentially on the calling thread to find the boundaries
+     * of the records, while the sections of each record are parsed and its values unpacked on
+     * the given executor. The records are kept in file order, and the values of all the
+     * records are unpacked by the time this constructor returns, unless the stream stores
+     * simple-packed fields in their packed form.
+     *
+     * @param in       bit input stream with GRIB content
+     * @param executor executor on which records are parsed and unpacked
+     * @throws IOException           if stream can not be opened etc.
+     * @throws NoValidGribException  if stream does not contain a valid GRIB file
+     */
+    public GribFile(GribInputStream in, ExecutorService executor) throws IOException, NoValidGribException
+    {
+        records = new ArrayList<>();
+
+        List<Future<GribRecord>> futures = new ArrayList<>();
+        List<Integer> numbers = new ArrayList<>();
+        try (GribReader reader = new GribReader(in))
+        {
+            ByteBuffer buffer;
+            while ((buffer = reader.nextRecordBytes()) != null)
             {
-                Logger.println("Reading next record: " + count, Logger.DEBUG);
-                record = GribRecord.readFromStream(in);
-            } catch (NotSupportedException | NoValidGribException e)
+                ByteBuffer recordBuffer = buffer;
+                futures.add(executor.submit(() -> decode(recordBuffer, in)));
+                numbers.add(futures.size() + reader.getRecordsSkippedCount());
+            }
+            nRecordsSkipped = reader.getRecordsSkippedCount();
+
+            for (int i = 0; i < futures.size(); i++)
             {
-                Logger.println("Skipping GRIB record " + count + " (" + e.getMessage() + ")", Logger.WARNING);
-                nRecordsSkipped++;
-                // Skip to end of current record
                 try
                 {
-                    GribRecordES.seekNext(in);
-                } catch (EOFException eofe)
+                    GribRecord record = futures.get(i).get();
+                    logRecord(numbers.get(i), record);
+                    records.add(record);
+                } catch (ExecutionException e)
                 {
-                    Logger.println("EOFException while seeking ES: " + eofe.getMessage(), Logger.INFO);
+                    Throwable cause = e.getCause();
+                    if (cause instanceof NotSupportedException || cause instanceof NoValidGribException)
+                    {
+                        Logger.println("Skipping GRIB record " + numbers.get(i) + " (" + cause.getMessage() + ")",
+                                Logger.WARNING);
+                        nRecordsSkipped++;
+                    } else if (cause instanceof IOException)
+                    {
+                        throw (IOException) cause;
+                    } else if (cause instanceof Error)
+                    {
+                        throw (Error) cause;
+                    } else
+                    {
+                        throw new RuntimeException(cause);
+                    }
                 }
-                continue;
-            } finally
+            }
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decoding GRIB records", e);
+        } finally
+        {
+            // Do not leave records being decoded after a failure
+            for (Future<GribRecord> future : futures)
             {
-                try
-                {
-                    GribRecordIS.seekNext(in);
-                } catch (EOFException ignored)
-                {
-                }
+                future.cancel(false);
             }
-
-            Logger.println("GRIB Record " + count, Logger.INFO);
-            Logger.println("\tReference Time: " + record.getReferenceTime().getTime(), Logger.INFO);
-            Logger.println("\tForecast Time: " + record.getForecastTime().getTime(), Logger.INFO);
-            Logger.println("\tParameter: " + record.getParameterCode() + " (" + record.getParameterDescription() + ")", Logger.INFO);
-            Logger.println("\tLevel: " + record.getLevelCode() + " (" + record.getLevelDescription() + ")", Logger.INFO);
-
-            records.add(record);
         }
 
-        in.close();
-
         if (records.isEmpty())
         {
             throw new NoValidGribException("No valid GRIB records found.");
-        } else
+        }
+    }
+
+    private static GribInputStream withPackedStorage(GribInputStream in, boolean packedStorage)
+    {
+        in.setPackedStorage(packedStorage);
+        return in;
+    }
+
+    private static GribInputStream withParallelDecoding(GribInputStream in, ParallelDecoding parallelDecoding)
+    {
+        in.setParallelDecoding(parallelDecoding);
+        return in;
+    }
+
+    /**
+     * Parses and unpacks a record with the settings of the stream it was read from.
+     */
+    private static GribRecord decode(ByteBuffer buffer, GribInputStream source) throws IOException,
+            NotSupportedException, NoValidGribException
+    {
+        GribByteBufferInputStream in = new GribByteBufferInputStream(buffer);
+        in.setPackedStorage(source.isPackedStorage());
+        in.setParallelDecoding(source.getParallelDecoding());
+        GribRecord record = GribRecord.readFromStream(in);
+
+        // Values stored in their packed form are unpacked on each request, so are not unpacked here
+        if (!source.isPackedStorage() && record.getValues() == null)
         {
-            Logger.println("Reached end of file: " + records.size() + " of " + count + " records read successfully", Logger.INFO);
+            throw new NoValidGribException("Cannot unpack values of " + record.getParameterCode());
         }
+        return record;
+    }
+
+    private static void logRecord(int count, GribRecord record)
+    {
+        Logger.println("GRIB Record " + count, Logger.INFO);
+        Logger.println("\tReference Time: " + record.getReferenceTime().getTime(), Logger.INFO);
+        Logger.println("\tForecast Time: " + record.getForecastTime().getTime(), Logger.INFO);
+        Logger.println("\tParameter: " + record.getParameterCode() + " (" + record.getParameterDescription() + ")", Logger.INFO);
+        Logger.println("\tLevel: " + record.getLevelCode() + " (" + record.getLevelDescription() + ")", Logger.INFO);
     }
 
     /**
@@ -150,21 +397,7 @@ public class GribFile
      */
     public int[] getCentreIDs()
     {
-        List<Integer> idList = new ArrayList();
-        for (GribRecord record : records)
-        {
-            int id = record.getCentreId();
-            if (!idList.contains(id))
-            {
-                idList.add(id);
-            }
-        }
-        int[] ids = new int[idList.size()];
-        for (int i = 0; i < idList.size(); i++)
-        {
-            ids[i] = idList.get(i);
-        }
-        return ids;
+        return getLookup().centreIds.clone();
     }
 
     public int getEdition()
@@ -187,26 +420,11 @@ public class GribFile
 
     public List<Calendar> getForecastTimes()
     {
-        boolean matchFound;
-        List<Calendar> forecastTimeList = new ArrayList();
-        for (GribRecord record : records)
+        List<Calendar> forecastTimeList = new ArrayList<>();
+        for (int index : getLookup().forecastTimes.values())
         {
-            // Compare dates
-            matchFound = false;
-            for (Calendar forecastTime : forecastTimeList)
-            {
-                if (forecastTime.compareTo(record.getForecastTime()) == 0)
-                {
-                    matchFound = true;
-                    break;
-                }
-            }
-            if (!matchFound)
-            {
-                forecastTimeList.add(record.getForecastTime());
-            }
+            forecastTimeList.add(records.get(index).getForecastTime());
         }
-        Collections.sort(forecastTimeList);
         return forecastTimeList;
     }
 
@@ -219,18 +437,7 @@ public class GribFile
      */
     public List<String> getParameterCodes()
     {
-        //List of different parameters present in the GRIB file
-        List<String> parameterList = new ArrayList();
-        for (GribRecord record : records)
-        {
-            if (!parameterList.contains(record.getParameterCode()))
-            {
-                // Add parameter to list
-                parameterList.add(record.getParameterCode());
-            }
-        }
-        Collections.sort(parameterList);
-        return parameterList;
+        return new ArrayList<>(getLookup().parameterCodes);
     }
 
     /**
@@ -242,54 +449,32 @@ public class GribFile
      */
     public List<String> getParameterLevelDescriptions()
     {
-        List<String> levelDescList = new ArrayList();
-        for (GribRecord record : records)
-        {
-            if (!levelDescList.contains(record.getLevelDescription()))
-            {
-                // Add level to list
-                levelDescList.add(record.getLevelDescription());
-            }
-        }
-        Collections.sort(levelDescList);
-        return levelDescList;
+        return new ArrayList<>(getLookup().levelDescriptions);
     }
 
+    /**
+     * Returns the textual descriptions of the different levels of a parameter, in file order.
+     * A level appearing in several records of the parameter (e.g. at several forecast times)
+     * is described once.
+     *
+     * @param paramCode parameter code, such as "TMP"
+     * @return the descriptions of the levels of the parameter
+     */
     public List<String> getParameterLevelDescriptions(String paramCode)
     {
-        List<String> descList = new ArrayList<>();
-        for (GribRecord record : records)
+        RecordLookup lookup = getLookup();
+        if (lookup.parametersWithDuplicateLevels.contains(paramCode))
         {
-            if (record.getParameterCode().equals(paramCode))
-            {
-                if (descList.contains(record.getLevelIdentifier()))
-                {
-                    System.err.println("Record contains duplicate level IDs");
-                } else
-                {
-                    descList.add(record.getLevelDescription());
-                }
-            }
+            Logger.println("Records of " + paramCode + " contain duplicate level IDs", Logger.INFO);
         }
-        return descList;
+        List<String> descriptions = lookup.levelDescriptionsByParameter.get(paramCode);
+        return descriptions == null ? new ArrayList<>() : new ArrayList<>(descriptions);
     }
 
     public List<String> getParameterLevelIdentifiers(String paramCode)
     {
-        List<String> idList = new ArrayList<>();
-        for (GribRecord record : records)
-        {
-            if (record.getParameterCode().equals(paramCode))
-            {
-                if (idList.contains(record.getLevelIdentifier()))
-                    ;//System.err.println("Record contains duplicate level IDs");
-                else
-                {
-                    idList.add(record.getLevelIdentifier());
-                }
-            }
-        }
-        return idList;
+        Set<String> idSet = getLookup().levelIdentifiers.get(paramCode);
+        return idSet == null ? new ArrayList<>() : new ArrayList<>(idSet);
     }
 
     /**
@@ -299,21 +484,7 @@ public class GribFile
      */
     public int[] getProcessIDs()
     {
-        List<Integer> idList = new ArrayList<>();
-        for (GribRecord record : records)
-        {
-            int id = record.getProcessId();
-            if (!idList.contains(id))
-            {
-                idList.add(id);
-            }
-        }
-        int[] ids = new int[idList.size()];
-        for (int i = 0; i < idList.size(); i++)
-        {
-            ids[i] = idList.get(i);
-        }
-        return ids;
+        return getLookup().processIds.clone();
     }
 
     /**
@@ -340,11 +511,11 @@ public class GribFile
     /**
      * Get all the records successfully read.
      *
-     * @return
+     * @return an unmodifiable list of the records, in file order
      */
     public List<GribRecord> getRecords()
     {
-        return records;
+        return Collections.unmodifiableList(records);
     }
 
     /**
@@ -355,6 +526,11 @@ public class GribFile
      * in the list of records. This forecast time is then used together with the
      * specified parameter and level to find a record which matches these values.
      * </p>
+     * <p>
+     * The records are indexed by forecast time, parameter and level when this method or any
+     * of the methods listing distinct values is first called, so that each search takes
+     * constant time (logarithmic in the number of forecast times).
+     * </p>
      *
      * @param time            Forecast time to search for
      * @param parameterAbbrev Parameter to search for
@@ -363,41 +539,21 @@ public class GribFile
      */
     public GribRecord getRecord(Calendar time, String parameterAbbrev, String levelCode)
     {
-        // Find closest forecast time
-        long delta_ms;
-        long deltaMin_ms = Long.MAX_VALUE;
-        Calendar closestTime = null;
-        for (GribRecord record : records)
+        RecordLookup lookup = getLookup();
+
+        Map.Entry<Long, Integer> closest = RecordLookup.closest(lookup.forecastTimes, time.getTimeInMillis());
+        if (closest == null)
         {
-            delta_ms = Math.abs(time.getTimeInMillis() - record.getForecastTime().getTimeInMillis());
-            if (delta_ms < deltaMin_ms)
-            {
-                deltaMin_ms = delta_ms;
-                closestTime = record.getForecastTime();
-            }
+            return null;
         }
 
-        // Match patterns such as "ISBL:200" and "SFC"
-        Pattern pattern = Pattern.compile("(\\w+)(?::(\\d+))?");
-        Matcher matcher;
-        for (GribRecord record : records)
+        Matcher matcher = LEVEL_PATTERN.matcher(levelCode);
+        if (!matcher.find())
         {
-            matcher = pattern.matcher(levelCode);
-            if (matcher.find())
-            {
-                String code = matcher.group(1);
-                if (record.getForecastTime().equals(closestTime) &&
-                        record.getParameterCode().equals(parameterAbbrev) &&
-                        record.getLevelCode().equals(code) &&
-                        (matcher.group(2) == null || (record.getLevelValues()[0] == Integer.parseInt(matcher.group(2))))
-                )
-                {
-                    return record;
-                }
-            }
+            return null;
         }
-
-        return null;
+        Float levelValue = matcher.group(2) == null ? null : (float) Integer.parseInt(matcher.group(2));
+        return lookup.records.get(RecordLookup.key(parameterAbbrev, matcher.group(1), levelValue, closest.getKey()));
     }
 
     /**
@@ -407,17 +563,159 @@ public class GribFile
      */
     public List<Calendar> getReferenceTimes()
     {
-        List<Calendar> referenceTimeList = new ArrayList<>();
-        for (GribRecord record : records)
+        return new ArrayList<>(getLookup().referenceTimes);
+    }
+
+    private RecordLookup getLookup()
+    {
+        RecordLookup lookup = this.lookup;
+        if (lookup == null)
+        {
+            synchronized (this)
+            {
+                lookup = this.lookup;
+                if (lookup == null)
+                {
+                    lookup = new RecordLookup(records);
+                    this.lookup = lookup;
+                }
+            }
+        }
+        return lookup;
+    }
+
+    /**
+     * Indexes built in a single pass over the records, from which records are looked up and
+     * the distinct values found in the file are listed without scanning the records again.
+     * The keys and the search for the closest forecast time are shared with {@link GribIndex}.
+     */
+    static final class RecordLookup
+    {
+        /**
+         * First record of each parameter, level code and forecast time, both with and without
+         * the level value.
+         */
+        private final Map<String, GribRecord> records = new HashMap<>();
+
+        /**
+         * Index of the first record of each forecast time, in milliseconds.
+         */
+        private final NavigableMap<Long, Integer> forecastTimes = new TreeMap<>();
+
+        /**
+         * Level identifiers of each parameter, in file order.
+         */
+        private final Map<String, Set<String>> levelIdentifiers = new HashMap<>();
+
+        /**
+         * Description of each level identifier of each parameter, in file order.
+         */
+        private final Map<String, List<String>> levelDescriptionsByParameter = new HashMap<>();
+
+        private final Set<String> parametersWithDuplicateLevels = new HashSet<>();
+
+        private final int[] centreIds;
+        private final int[] processIds;
+        private final List<String> parameterCodes;
+        private final List<String> levelDescriptions;
+        private final List<Calendar> referenceTimes;
+
+        private RecordLookup(List<GribRecord> recordList)
+        {
+            Set<Integer> centreIdSet = new LinkedHashSet<>();
+            Set<Integer> processIdSet = new LinkedHashSet<>();
+            Set<String> parameterCodeSet = new HashSet<>();
+            Set<String> levelDescriptionSet = new HashSet<>();
+            Set<Calendar> referenceTimeSet = new HashSet<>();
+            for (int i = 0; i < recordList.size(); i++)
+            {
+                GribRecord record = recordList.get(i);
+                String parameterCode = record.getParameterCode();
+                if (record.getForecastTime() != null)
+                {
+                    long forecastTime = record.getForecastTime().getTimeInMillis();
+                    forecastTimes.putIfAbsent(forecastTime, i);
+                    records.putIfAbsent(key(parameterCode, record.getLevelCode(), null, forecastTime), record);
+                    float[] levelValues = record.getLevelValues();
+                    if (levelValues != null && levelValues.length > 0)
+                    {
+                        records.putIfAbsent(key(parameterCode, record.getLevelCode(), levelValues[0], forecastTime),
+                                record);
+                    }
+                }
+
+                if (levelIdentifiers.computeIfAbsent(parameterCode, code -> new LinkedHashSet<>())
+                        .add(record.getLevelIdentifier()))
+                {
+                    levelDescriptionsByParameter.computeIfAbsent(parameterCode, code -> new ArrayList<>())
+                            .add(record.getLevelDescription());
+                } else
+                {
+                    parametersWithDuplicateLevels.add(parameterCode);
+                }
+                centreIdSet.add(record.getCentreId());
+                processIdSet.add(record.getProcessId());
+                parameterCodeSet.add(parameterCode);
+                levelDescriptionSet.add(record.getLevelDescription());
+                referenceTimeSet.add(record.getReferenceTime());
+            }
+
+            centreIds = toArray(centreIdSet);
+            processIds = toArray(processIdSet);
+            parameterCodes = sorted(parameterCodeSet);
+            levelDescriptions = sorted(levelDescriptionSet);
+            referenceTimes = sorted(referenceTimeSet);
+        }
+
+        /**
+         * Returns the forecast time closest to the given time, in milliseconds, together with
+         * the index of its first record, preferring the earlier record in case of a tie.
+         *
+         * @return the closest forecast time, or null if there are none
+         */
+        static Map.Entry<Long, Integer> closest(NavigableMap<Long, Integer> forecastTimes, long t)
         {
-            if (!referenceTimeList.contains(record.getReferenceTime()))
+            Map.Entry<Long, Integer> before = forecastTimes.floorEntry(t);
+            Map.Entry<Long, Integer> after = forecastTimes.ceilingEntry(t);
+            if (before == null || after == null)
             {
-                // Add reference time to list
-                referenceTimeList.add(record.getReferenceTime());
+                return before == null ? after : before;
             }
+            long deltaBefore = t - before.getKey();
+            long deltaAfter = after.getKey() - t;
+            if (deltaBefore != deltaAfter)
+            {
+                return deltaBefore < deltaAfter ? before : after;
+            }
+            return before.getValue() < after.getValue() ? before : after;
+        }
+
+        /**
+         * Returns the key of a record, in which level values compare as floats do.
+         */
+        static String key(String parameterCode, String levelCode, Float levelValue, long forecastTime)
+        {
+            String value = levelValue == null ? "" : Integer.toString(Float.floatToIntBits(levelValue + 0.0f));
+            return parameterCode + '\0' + levelCode + '\0' + value + '\0' + forecastTime;
+        }
+
+        private static int[] toArray(Set<Integer> set)
+        {
+            int[] array = new int[set.size()];
+            int i = 0;
+            for (int value : set)
+            {
+                array[i++] = value;
+            }
+            return array;
+        }
+
+        private static <T extends Comparable<? super T>> List<T> sorted(Set<T> set)
+        {
+            List<T> list = new ArrayList<>(set);
+            list.sort(Comparator.nullsFirst(Comparator.naturalOrder()));
+            return Collections.unmodifiableList(list);
         }
-        Collections.sort(referenceTimeList);
-        return referenceTimeList;
     }
 
     /**
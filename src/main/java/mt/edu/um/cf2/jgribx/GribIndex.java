@@ -0,0 +1,686 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+
+/**
+ * The GribIndex class holds the {@link RecordLocator}s of all the records within a
+ * GRIB file, and persists them in a compact binary sidecar file (the GRIB file name
+ * followed by {@value #EXTENSION}) so that reopening the same file does not require
+ * scanning it again.
+ * <p>
+ * A sidecar file is only used if the size and modification time of the GRIB file
+ * match the ones stored in the sidecar file; otherwise the GRIB file is scanned again
+ * and the sidecar file is rewritten.
+ */
+public class GribIndex
+{
+    /**
+     * Extension appended to the name of the GRIB file to obtain the name of its sidecar file.
+     */
+    public static final String EXTENSION = ".jgx";
+
+    /**
+     * Identifies sidecar files ("JGX" followed by the format version).
+     */
+    private static final int MAGIC = 0x4A475801;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /**
+     * Path to the GRIB file, or null if the index was built from a {@link GribSource}.
+     */
+    private final Path path;
+    private final List<RecordLocator> locators;
+
+    /**
+     * Source from which records are read. For GRIB files, the file is mapped when the
+     * first record is read.
+     */
+    private GribSource source;
+
+    /**
+     * Size and modification time of the GRIB file when it was indexed.
+     */
+    private final long fileSize;
+    private final long fileModified;
+
+    private volatile LocatorLookup lookup;
+
+    private volatile boolean packedStorage;
+
+    private volatile ParallelDecoding parallelDecoding = ParallelDecoding.DEFAULT;
+
+    private GribIndex(Path path, List<RecordLocator> locators, GribSource source, long fileSize, long fileModified)
+    {
+        this.path = path;
+        this.locators = Collections.unmodifiableList(locators);
+        this.source = source;
+        this.fileSize = fileSize;
+        this.fileModified = fileModified;
+    }
+
+    /**
+     * Opens the index of a GRIB file. The index is loaded from the sidecar file if this
+     * is up to date, otherwise the GRIB file is scanned and the sidecar file is (re)written.
+     * Failing to write the sidecar file (e.g. in a read-only directory, or for records with
+     * values which the sidecar file cannot hold) is not an error: the GRIB file is then scanned
+     * again the next time it is opened.
+     *
+     * @param path path to the GRIB file
+     * @return the index of the GRIB file
+     * @throws IOException if the GRIB file cannot be read
+     */
+    public static GribIndex open(Path path) throws IOException
+    {
+        GribIndex index = read(path);
+        if (index != null)
+        {
+            return index;
+        }
+
+        // Take the size and modification time first, so that a file changed while it is being
+        // scanned is not stored as up to date
+        long fileSize = Files.size(path);
+        long fileModified = Files.getLastModifiedTime(path).toMillis();
+        index = new GribIndex(path, GribScanner.scan(path), null, fileSize, fileModified);
+        try
+        {
+            index.write();
+        } catch (IOException e)
+        {
+            Logger.println("Cannot write index file " + getIndexPath(path) + ": " + e.getMessage(), Logger.WARNING);
+        }
+        return index;
+    }
+
+    /**
+     * Builds the index of a random-access source by scanning it with
+     * {@link GribScanner#scan(GribSource)}, so that only the start and end of each record
+     * are fetched. Records subsequently read using {@link #readRecord(RecordLocator)} are
+     * fetched individually from the source. No sidecar file is written, and the source is
+     * not closed by the index.
+     *
+     * @param source source with GRIB content
+     * @return the index of the source
+     * @throws IOException if the source cannot be read
+     */
+    public static GribIndex open(GribSource source) throws IOException
+    {
+        return new GribIndex(null, GribScanner.scan(source), source, -1, -1);
+    }
+
+    /**
+     * Reads the index of a GRIB file from its sidecar file.
+     *
+     * @param path path to the GRIB file
+     * @return the index of the GRIB file, or {@code null} if the sidecar file does not
+     * exist, is out of date or cannot be read (e.g. because it is truncated or corrupt)
+     * @throws IOException if the GRIB file cannot be accessed
+     */
+    public static GribIndex read(Path path) throws IOException
+    {
+        Path indexPath = getIndexPath(path);
+        long fileSize = Files.size(path);
+        long fileModified = Files.getLastModifiedTime(path).toMillis();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath))))
+        {
+            if (in.readInt() != MAGIC)
+            {
+                Logger.println("Index file " + indexPath + " has an unknown format", Logger.INFO);
+                return null;
+            }
+            if (in.readLong() != fileSize || in.readLong() != fileModified)
+            {
+                Logger.println("Index file " + indexPath + " is out of date", Logger.INFO);
+                return null;
+            }
+
+            // Every string and record takes at least a byte, so larger counts can only be corrupt
+            long indexSize = Files.size(indexPath);
+            String[] strings = new String[checkCount("strings", in.readInt(), indexSize)];
+            for (int i = 0; i < strings.length; i++)
+            {
+                strings[i] = in.readUTF();
+            }
+
+            int nRecords = checkCount("records", in.readInt(), indexSize);
+            List<RecordLocator> locators = new ArrayList<>(nRecords);
+            for (int i = 0; i < nRecords; i++)
+            {
+                long offset = in.readLong();
+                long length = in.readLong();
+                int edition = in.readUnsignedByte();
+                int discipline = in.readUnsignedByte();
+                int centreId = in.readUnsignedShort();
+                int processId = in.readUnsignedByte();
+                String parameterCode = strings[in.readInt()];
+                String levelCode = strings[in.readInt()];
+                String levelIdentifier = strings[in.readInt()];
+                float[] levelValues = new float[in.readUnsignedByte()];
+                for (int j = 0; j < levelValues.length; j++)
+                {
+                    levelValues[j] = in.readFloat();
+                }
+                Calendar referenceTime = toCalendar(in.readLong());
+                Calendar forecastTime = toCalendar(in.readLong());
+
+                locators.add(new RecordLocator(offset, length, edition, discipline, centreId, processId,
+                        parameterCode, levelCode, levelIdentifier, levelValues, referenceTime, forecastTime));
+            }
+
+            Logger.println("Loaded " + nRecords + " records from index file " + indexPath, Logger.INFO);
+            return new GribIndex(path, locators, null, fileSize, fileModified);
+        } catch (NoSuchFileException e)
+        {
+            return null;
+        } catch (IOException | IndexOutOfBoundsException | BufferUnderflowException e)
+        {
+            Logger.println("Cannot read index file " + indexPath + ": " + e, Logger.WARNING);
+            return null;
+        }
+    }
+
+    /**
+     * Checks that a count read from a sidecar file is possible for a file of the given size.
+     */
+    private static int checkCount(String name, int count, long indexSize) throws IOException
+    {
+        if (count < 0 || count > indexSize)
+        {
+            throw new IOException("Invalid number of " + name + ": " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Writes the sidecar file of this index. The file is written to a temporary file
+     * first, so that concurrent readers never observe a partially written index.
+     *
+     * @throws IOException if the sidecar file cannot be written, if the index was built from a source,
+     *                     if the GRIB file has changed since it was indexed, or if a locator holds a
+     *                     value which does not fit in the sidecar file
+     */
+    public void write() throws IOException
+    {
+        if (path == null)
+        {
+            throw new IOException("Cannot write index of " + source + ": source is not a file");
+        }
+        if (Files.size(path) != fileSize || Files.getLastModifiedTime(path).toMillis() != fileModified)
+        {
+            throw new IOException("Cannot write index of " + path + ": file has changed since it was indexed");
+        }
+        Path indexPath = getIndexPath(path);
+        Path tempPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+
+        // Parameter and level codes are repeated across records, so store each one only once
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> stringIds = new HashMap<>();
+        for (RecordLocator locator : locators)
+        {
+            // Refuse to write values which would be read back differently
+            checkRange("edition", locator.getEdition(), 0xFF);
+            checkRange("discipline", locator.getDiscipline(), 0xFF);
+            checkRange("centre", locator.getCentreId(), 0xFFFF);
+            checkRange("process", locator.getProcessId(), 0xFF);
+            checkRange("number of level values", locator.getLevelValues().length, 0xFF);
+            if (locator.getReferenceTime() == null || locator.getForecastTime() == null)
+            {
+                throw new IOException("Cannot store " + locator + " in index file: missing time");
+            }
+            for (String string : new String[]{locator.getParameterCode(), locator.getLevelCode(), locator.getLevelIdentifier()})
+            {
+                if (string == null)
+                {
+                    throw new IOException("Cannot store " + locator + " in index file: missing code");
+                }
+                if (!stringIds.containsKey(string))
+                {
+                    stringIds.put(string, strings.size());
+                    strings.add(string);
+                }
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath))))
+        {
+            out.writeInt(MAGIC);
+            out.writeLong(fileSize);
+            out.writeLong(fileModified);
+
+            out.writeInt(strings.size());
+            for (String string : strings)
+            {
+                out.writeUTF(string);
+            }
+
+            out.writeInt(locators.size());
+            for (RecordLocator locator : locators)
+            {
+                out.writeLong(locator.getOffset());
+                out.writeLong(locator.getLength());
+                out.writeByte(locator.getEdition());
+                out.writeByte(locator.getDiscipline());
+                out.writeShort(locator.getCentreId());
+                out.writeByte(locator.getProcessId());
+                out.writeInt(stringIds.get(locator.getParameterCode()));
+                out.writeInt(stringIds.get(locator.getLevelCode()));
+                out.writeInt(stringIds.get(locator.getLevelIdentifier()));
+                out.writeByte(locator.getLevelValues().length);
+                for (float value : locator.getLevelValues())
+                {
+                    out.writeFloat(value);
+                }
+                out.writeLong(locator.getReferenceTime().getTimeInMillis());
+                out.writeLong(locator.getForecastTime().getTimeInMillis());
+            }
+        } catch (IOException e)
+        {
+            // e.g. a code too long to be stored
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+
+        try
+        {
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Checks that a value fits in the unsigned field of the sidecar file in which it is stored.
+     */
+    private static void checkRange(String name, int value, int max) throws IOException
+    {
+        if (value < 0 || value > max)
+        {
+            throw new IOException("Cannot store " + name + " " + value + " in index file");
+        }
+    }
+
+    /**
+     * Returns the path of the sidecar file of a GRIB file.
+     *
+     * @param path path to the GRIB file
+     * @return the path of the sidecar file
+     */
+    public static Path getIndexPath(Path path)
+    {
+        return path.resolveSibling(path.getFileName() + EXTENSION);
+    }
+
+    private static Calendar toCalendar(long millis)
+    {
+        Calendar calendar = new GregorianCalendar(UTC);
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+
+    /**
+     * Returns the locators of all the records in the GRIB file, in file order.
+     *
+     * @return the locators of all the records in the GRIB file
+     */
+    public List<RecordLocator> getLocators()
+    {
+        return locators;
+    }
+
+    /**
+     * Returns a sorted list of different parameter codes present within the
+     * GRIB file.
+     *
+     * @return a sorted list of different parameter codes present within the
+     * GRIB file.
+     */
+    public List<String> getParameterCodes()
+    {
+        return new ArrayList<>(getLookup().parameterCodes);
+    }
+
+    /**
+     * Search for a record using the forecast time, parameter and level, in the same
+     * way as {@link GribFile#getRecord(Calendar, String, String)}. The locators are indexed
+     * when this method or {@link #getParameterCodes()} is first called.
+     *
+     * @param time            Forecast time to search for
+     * @param parameterAbbrev Parameter to search for
+     * @param levelCode       Level to search for
+     * @return The locator of the found record, null if no record has been found
+     */
+    public RecordLocator getRecord(Calendar time, String parameterAbbrev, String levelCode)
+    {
+        LocatorLookup lookup = getLookup();
+        Map.Entry<Long, Integer> closest = GribFile.RecordLookup.closest(lookup.forecastTimes, time.getTimeInMillis());
+        if (closest == null)
+        {
+            return null;
+        }
+
+        Matcher matcher = GribFile.LEVEL_PATTERN.matcher(levelCode);
+        if (!matcher.find())
+        {
+            return null;
+        }
+        Float levelValue = matcher.group(2) == null ? null : (float) Integer.parseInt(matcher.group(2));
+        return lookup.locators.get(GribFile.RecordLookup.key(parameterAbbrev, matcher.group(1), levelValue,
+                closest.getKey()));
+    }
+
+    /**
+     * Reads the record described by the given locator from the GRIB file or source.
+     * Only the bytes of the record are read. A GRIB file is memory-mapped when this
+     * method is first called.
+     *
+     * @param locator locator of the record
+     * @return the record
+     * @throws IOException           if the GRIB file cannot be read
+     * @throws NotSupportedException if the record contains features not yet supported
+     * @throws NoValidGribException  if the record is not valid
+     */
+    public GribRecord readRecord(RecordLocator locator) throws IOException, NotSupportedException, NoValidGribException
+    {
+        GribSource source;
+        synchronized (this)
+        {
+            if (this.source == null)
+            {
+                this.source = new MappedGribSource(path);
+            }
+            source = this.source;
+        }
+        if (locator.getLength() > Integer.MAX_VALUE)
+        {
+            throw new NotSupportedException("Records larger than 2 GB are not supported");
+        }
+        ByteBuffer buffer = source.read(locator.getOffset(), (int) locator.getLength());
+        GribByteBufferInputStream in = new GribByteBufferInputStream(buffer);
+        in.setPackedStorage(packedStorage);
+        in.setParallelDecoding(parallelDecoding);
+        return GribRecord.readFromStream(in);
+    }
+
+    /**
+     * Sets whether simple-packed fields of the records read from now on are stored in their
+     * packed form (see {@link GribInputStream#setPackedStorage(boolean)}).
+     *
+     * @param packedStorage true to store simple-packed fields in their packed form
+     */
+    public void setPackedStorage(boolean packedStorage)
+    {
+        this.packedStorage = packedStorage;
+    }
+
+    /**
+     * Sets how large fields of the records read from now on are decoded on several threads
+     * (see {@link GribInputStream#setParallelDecoding(ParallelDecoding)}).
+     *
+     * @param parallelDecoding configuration of parallel decoding
+     */
+    public void setParallelDecoding(ParallelDecoding parallelDecoding)
+    {
+        this.parallelDecoding = Objects.requireNonNull(parallelDecoding);
+    }
+
+    /**
+     * Extracts the values at several points from several records, such as the forecast time
+     * series of a set of stations. Each record is read once, and is not retained once its
+     * values have been extracted. For simple-packed records only the bits of the requested
+     * points are decoded, at offsets computed from the grid and the data representation;
+     * records using other packing methods are unpacked once for all the points.
+     * <p>
+     * Nothing is cached between calls: a record requested again in a later call is read and, for
+     * packing methods other than simple packing, unpacked again. Points of the same records
+     * should therefore be requested in a single call. A locator may be given more than once,
+     * in which case its record is read once for each occurrence.
+     *
+     * @param locators   locators of the records
+     * @param latitudes  latitudes of the points
+     * @param longitudes longitudes of the points
+     * @return the values, indexed by record and then by point
+     * @throws IOException           if the GRIB file cannot be read
+     * @throws NotSupportedException if a record contains features not yet supported
+     * @throws NoValidGribException  if a record is not valid
+     */
+    public double[][] getValues(List<RecordLocator> locators, double[] latitudes, double[] longitudes)
+            throws IOException, NotSupportedException, NoValidGribException
+    {
+        if (latitudes.length != longitudes.length)
+        {
+            throw new IllegalArgumentException("Got " + latitudes.length + " latitudes but " + longitudes.length
+                    + " longitudes");
+        }
+
+        double[][] values = new double[locators.size()][latitudes.length];
+        for (int i = 0; i < locators.size(); i++)
+        {
+            GribRecord record = readRecord(locators.get(i));
+            for (int j = 0; j < latitudes.length; j++)
+            {
+                values[i][j] = record.getValue(latitudes[j], longitudes[j]);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Writes the records accepted by the filter (typically a {@link GribQuery}) to a new
+     * GRIB file, in file order. The raw bytes of each record are copied as they are, without
+     * decoding the record; for GRIB files, runs of adjacent records are transferred directly
+     * between the files using {@link FileChannel#transferTo}. An existing target file is
+     * overwritten.
+     *
+     * @param filter selects the records to write
+     * @param target path of the GRIB file to write
+     * @return the number of records written
+     * @throws IOException if the GRIB file cannot be read or the target file cannot be written
+     */
+    public int writeSubset(Predicate<RecordLocator> filter, Path target) throws IOException
+    {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            if (path != null)
+            {
+                try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ))
+                {
+                    return writeSubset(filter, in, out);
+                }
+            } else if (source instanceof FileGribSource)
+            {
+                return writeSubset(filter, ((FileGribSource) source).getChannel(), out);
+            }
+            return writeSubset(filter, null, out);
+        }
+    }
+
+    /**
+     * Copies the accepted records to the output channel, coalescing adjacent records into a
+     * single transfer. If no input channel is given, the records are read from the source.
+     */
+    private int writeSubset(Predicate<RecordLocator> filter, FileChannel in, FileChannel out) throws IOException
+    {
+        int nRecords = 0;
+        long runOffset = 0;
+        long runLength = 0;
+        for (RecordLocator locator : locators)
+        {
+            if (!filter.test(locator))
+            {
+                continue;
+            }
+            nRecords++;
+            if (runLength > 0 && runOffset + runLength == locator.getOffset())
+            {
+                runLength += locator.getLength();
+                continue;
+            }
+            copy(in, out, runOffset, runLength);
+            runOffset = locator.getOffset();
+            runLength = locator.getLength();
+        }
+        copy(in, out, runOffset, runLength);
+        return nRecords;
+    }
+
+    private void copy(FileChannel in, FileChannel out, long offset, long length) throws IOException
+    {
+        if (in != null)
+        {
+            // transferTo may transfer fewer bytes than requested, or none at all
+            long nTransferred = 0;
+            while (nTransferred < length)
+            {
+                long n = in.transferTo(offset + nTransferred, length - nTransferred, out);
+                if (n <= 0)
+                {
+                    n = copyBuffered(in, out, offset + nTransferred, length - nTransferred);
+                }
+                nTransferred += n;
+            }
+            return;
+        }
+        for (long nCopied = 0; nCopied < length; )
+        {
+            int chunk = (int) Math.min(length - nCopied, 1 << 24);
+            ByteBuffer buffer = source.read(offset + nCopied, chunk);
+            while (buffer.hasRemaining())
+            {
+                out.write(buffer);
+            }
+            nCopied += chunk;
+        }
+    }
+
+    /**
+     * Copies up to 64 KB through a buffer when the channel transfers nothing, so that the copy
+     * either makes progress or fails.
+     */
+    private long copyBuffered(FileChannel in, FileChannel out, long offset, long length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, 1 << 16));
+        int n = in.read(buffer, offset);
+        if (n < 0)
+        {
+            throw new EOFException("Record extends beyond the end of " + (path != null ? path : source));
+        }
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            out.write(buffer);
+        }
+        return n;
+    }
+
+    private LocatorLookup getLookup()
+    {
+        LocatorLookup lookup = this.lookup;
+        if (lookup == null)
+        {
+            synchronized (this)
+            {
+                lookup = this.lookup;
+                if (lookup == null)
+                {
+                    lookup = new LocatorLookup(locators);
+                    this.lookup = lookup;
+                }
+            }
+        }
+        return lookup;
+    }
+
+    /**
+     * Indexes of the locators built in a single pass, keyed as those of {@link GribFile}.
+     */
+    private static final class LocatorLookup
+    {
+        /**
+         * First locator of each parameter, level code and forecast time, both with and without
+         * the level value.
+         */
+        private final Map<String, RecordLocator> locators = new HashMap<>();
+
+        /**
+         * Index of the first locator of each forecast time, in milliseconds.
+         */
+        private final NavigableMap<Long, Integer> forecastTimes = new TreeMap<>();
+
+        private final List<String> parameterCodes;
+
+        private LocatorLookup(List<RecordLocator> locatorList)
+        {
+            Set<String> parameterCodeSet = new TreeSet<>();
+            for (int i = 0; i < locatorList.size(); i++)
+            {
+                RecordLocator locator = locatorList.get(i);
+                String parameterCode = locator.getParameterCode();
+                parameterCodeSet.add(parameterCode);
+                if (locator.getForecastTime() == null)
+                {
+                    continue;
+                }
+                long forecastTime = locator.getForecastTime().getTimeInMillis();
+                forecastTimes.putIfAbsent(forecastTime, i);
+                locators.putIfAbsent(GribFile.RecordLookup.key(parameterCode, locator.getLevelCode(), null, forecastTime),
+                        locator);
+                float[] levelValues = locator.getLevelValues();
+                if (levelValues != null && levelValues.length > 0)
+                {
+                    locators.putIfAbsent(GribFile.RecordLookup.key(parameterCode, locator.getLevelCode(), levelValues[0],
+                            forecastTime), locator);
+                }
+            }
+            parameterCodes = Collections.unmodifiableList(new ArrayList<>(parameterCodeSet));
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "GRIB index of " + (path != null ? path : source) + " (" + locators.size() + " records)";
+    }
+}
@@ -14,6 +14,9 @@ import java.io.EOFException;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
 
 /**
  * This class is an input stream wrapper that can read a specific number of
@@ -26,6 +29,12 @@ import java.io.InputStream;
 public class GribInputStream extends FilterInputStream
 {
 
+    /**
+     * Number of values by which the parts of a sequence unpacked in parallel are aligned. Being a
+     * multiple of 8, every part starts on the same bit within a byte as the sequence does.
+     */
+    private static final int PARALLEL_GRANULARITY = 4096;
+
     /**
      * Buffer for one byte which will be processed bit by bit.
      */
@@ -45,6 +54,33 @@ public class GribInputStream extends FilterInputStream
 
     private long markedCountBits;
 
+    /**
+     * Absolute offset of the next byte to be read from the underlying stream.
+     */
+    private long position;
+
+    private long markedPosition;
+
+    /**
+     * Number of bytes searched at a time by {@link #seekBytePattern(byte[], boolean)}.
+     */
+    private static final int SEARCH_CHUNK_SIZE = 8192;
+
+    /**
+     * Buffer used by {@link #seekBytePattern(byte[], boolean)}, allocated on first use.
+     */
+    private byte[] searchBuffer;
+
+    /**
+     * Whether simple-packed fields read from this stream are stored in their packed form.
+     */
+    private boolean packedStorage;
+
+    /**
+     * How large fields read from this stream are decoded on several threads.
+     */
+    private ParallelDecoding parallelDecoding = ParallelDecoding.DEFAULT;
+
     /**
      * Constructs a bit input stream from an <tt>InputStream</tt> object.
      *
@@ -60,6 +96,7 @@ public class GribInputStream extends FilterInputStream
     {
         super.mark(readLimit);
         markedCountBits = countBits;
+        markedPosition = position;
     }
 
     @Override
@@ -67,6 +104,60 @@ public class GribInputStream extends FilterInputStream
     {
         super.reset();
         countBits = markedCountBits;
+        position = markedPosition;
+    }
+
+    /**
+     * Sets whether simple-packed fields read from this stream are stored in their packed form.
+     * Such fields keep their packed data section (1.5 bytes per point for 12-bit values) rather
+     * than an array of 4 bytes per point: single values are decoded from their bit offset,
+     * while arrays of values are unpacked whenever they are requested and are not retained.
+     * Fields using other packing methods are not affected.
+     *
+     * @param packedStorage true to store simple-packed fields in their packed form
+     */
+    public void setPackedStorage(boolean packedStorage)
+    {
+        this.packedStorage = packedStorage;
+    }
+
+    /**
+     * @return true if simple-packed fields read from this stream are stored in their packed form
+     */
+    public boolean isPackedStorage()
+    {
+        return packedStorage;
+    }
+
+    /**
+     * Sets how large fields read from this stream are decoded on several threads. Records keep
+     * the setting of the stream they were read from, also for values unpacked later on.
+     *
+     * @param parallelDecoding configuration of parallel decoding, such as
+     *                         {@link ParallelDecoding#SEQUENTIAL}
+     */
+    public void setParallelDecoding(ParallelDecoding parallelDecoding)
+    {
+        this.parallelDecoding = Objects.requireNonNull(parallelDecoding);
+    }
+
+    /**
+     * @return how large fields read from this stream are decoded on several threads
+     */
+    public ParallelDecoding getParallelDecoding()
+    {
+        return parallelDecoding;
+    }
+
+    /**
+     * Returns the absolute offset of the next byte to be read, i.e. the number of
+     * bytes consumed from the underlying stream so far.
+     *
+     * @return the absolute offset of the next byte to be read
+     */
+    public long getPosition()
+    {
+        return position;
     }
 
     public long getBitCounter()
@@ -131,8 +222,9 @@ public class GribInputStream extends FilterInputStream
 
         if (ui8 < 0)
         {
-            throw new IOException("End of input.");
+            throw new EOFException("End of input.");
         }
+        position++;
 
         return ui8;
     }
@@ -157,46 +249,61 @@ public class GribInputStream extends FilterInputStream
 
         if (read < 0)
         {
-            throw new IOException("End of input.");
+            throw new EOFException("End of input.");
         }
 
         return data;
     }
 
     /**
-     * Read specific number of bytes from the input stream.
+     * Read specific number of bytes from the input stream. Short reads, as returned by pipes
+     * and sockets while data is still arriving, are repeated until all the bytes have been read.
      *
      * @param length number of bytes to read
      * @return array of read bytes
+     * @throws EOFException if the end of the stream is reached first
      * @throws IOException
      */
     public byte[] read(int length) throws IOException
     {
-
         byte[] data = new byte[length];
 
-        int numRead = this.read(data);
-
-        if (numRead < length)
+        int numRead = 0;
+        while (numRead < length)
         {
-
-            // retry reading
-            int numReadRetry = this.read(data, numRead, data.length - numRead);
-
-            if (numRead + numReadRetry < length)
+            int n = this.read(data, numRead, length - numRead);
+            if (n < 0)
             {
-                throw new IOException("Unexpected end of input.");
+                throw new EOFException("Unexpected end of input.");
             }
+            numRead += n;
         }
 
         return data;
     }
 
+    /**
+     * Read specific number of bytes from the input stream into a buffer. Streams which hold
+     * their content in memory return a view of it rather than a copy.
+     *
+     * @param length number of bytes to read
+     * @return buffer whose remaining content is the read bytes
+     * @throws IOException if fewer bytes are available
+     */
+    public ByteBuffer readBuffer(int length) throws IOException
+    {
+        return ByteBuffer.wrap(read(length));
+    }
+
     @Override
     public int read() throws IOException
     {
         int value = super.read();
         countBits += 8;
+        if (value >= 0)
+        {
+            position++;
+        }
         return value;
     }
 
@@ -204,16 +311,44 @@ public class GribInputStream extends FilterInputStream
     public int read(byte[] b, int off, int len) throws IOException
     {
         int i = super.read(b, off, len);
-        countBits += (len * 8L);
+        if (i > 0)
+        {
+            // A pipe or socket may return fewer bytes than requested
+            countBits += i * 8L;
+            position += i;
+        }
         return i;
     }
 
+    /**
+     * Skips over the specified number of bytes. Unlike {@link InputStream#skip(long)}, this
+     * method only skips less bytes than requested if the end of the stream is reached.
+     *
+     * @param n the number of bytes to be skipped
+     * @return the actual number of bytes skipped
+     * @throws IOException
+     */
     @Override
     public long skip(long n) throws IOException
     {
-        super.skip(n);
-        countBits += (n * 8);
-        return n;
+        long nSkipped = 0;
+        while (nSkipped < n)
+        {
+            long nBytes = super.skip(n - nSkipped);
+            if (nBytes <= 0)
+            {
+                // skip() may return 0 without having reached the end of the stream
+                if (super.read() < 0)
+                {
+                    break;
+                }
+                nBytes = 1;
+            }
+            nSkipped += nBytes;
+        }
+        countBits += (nSkipped * 8);
+        position += nSkipped;
+        return nSkipped;
     }
 
     /**
@@ -238,6 +373,7 @@ public class GribInputStream extends FilterInputStream
 
             this.bitBuf = in.read();
             this.bitPos = 8;
+            position++;
         }
 
         while (true)
@@ -254,6 +390,7 @@ public class GribInputStream extends FilterInputStream
                 // Get the next byte from the input stream
                 this.bitBuf = in.read();
                 this.bitPos = 8;
+                position++;
             } else
             {
 
@@ -267,6 +404,136 @@ public class GribInputStream extends FilterInputStream
         }
     }
 
+    /**
+     * Read a sequence of unsigned values, each stored using the given number of bits.
+     *
+     * @param numBits number of bits used for each unsigned value
+     * @param count   number of values to read
+     * @param dst     array to which the values are written, starting at index 0
+     * @throws IOException
+     */
+    public void readUBits(int numBits, int count, int[] dst) throws IOException
+    {
+        readUBits(numBits, count, dst, 0);
+    }
+
+    /**
+     * Read a sequence of unsigned values, each stored using the given number of bits.
+     * This is equivalent to calling {@link #readUBits(int)} {@code count} times and casting each
+     * value to {@code int}, so values of 32 bits or more do not fit, and values of 32 bits of at
+     * least 2^31 are negative. Values of up to {@value BitUnpacker#MAX_BITS} bits are read in
+     * bulk, which is much faster.
+     *
+     * @param numBits number of bits used for each unsigned value
+     * @param count   number of values to read
+     * @param dst     array to which the values are written
+     * @param offset  index in <tt>dst</tt> of the first value
+     * @throws IOException
+     */
+    public void readUBits(int numBits, int count, int[] dst, int offset) throws IOException
+    {
+        if (numBits == 0 || count == 0)
+        {
+            Arrays.fill(dst, offset, offset + count, 0);
+            return;
+        }
+        if (numBits > BitUnpacker.MAX_BITS)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                dst[offset + i] = (int) readUBits(numBits);
+            }
+            return;
+        }
+        int bitOffset = (8 - bitPos) & 7;
+        ByteBuffer window = readBitWindow((long) numBits * count);
+        parallelDecoding.forEachRange(count, count, PARALLEL_GRANULARITY, (from, to) ->
+                BitUnpacker.unpack(window, bitOffset + (long) from * numBits, numBits, to - from, dst, offset + from));
+    }
+
+    /**
+     * Read a sequence of unsigned values X, each stored using the given number of bits, and
+     * store {@code ref + scale * X} for each one. This is equivalent to calling
+     * {@link #readUBits(int)} {@code count} times. Values of up to {@value BitUnpacker#MAX_BITS}
+     * bits are read in bulk, which is much faster.
+     *
+     * @param numBits number of bits used for each unsigned value
+     * @param count   number of values to read
+     * @param dst     array to which the scaled values are written
+     * @param offset  index in <tt>dst</tt> of the first value
+     * @param ref     reference value added to each scaled value
+     * @param scale   scale factor applied to each value
+     * @throws IOException
+     */
+    public void readUBits(int numBits, int count, float[] dst, int offset, float ref, float scale) throws IOException
+    {
+        if (numBits == 0 || count == 0)
+        {
+            Arrays.fill(dst, offset, offset + count, ref);
+            return;
+        }
+        if (numBits > BitUnpacker.MAX_BITS)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                dst[offset + i] = ref + scale * readUBits(numBits);
+            }
+            return;
+        }
+        int bitOffset = (8 - bitPos) & 7;
+        ByteBuffer window = readBitWindow((long) numBits * count);
+        parallelDecoding.forEachRange(count, count, PARALLEL_GRANULARITY, (from, to) ->
+                BitUnpacker.unpack(window, bitOffset + (long) from * numBits, numBits, to - from, dst, offset + from,
+                        ref, scale));
+    }
+
+    /**
+     * Consumes the given number of bits and returns the bytes holding them. The first byte of
+     * the returned buffer is the byte holding the next unread bit, i.e. the first bit is at bit
+     * offset {@code (8 - bitPos) & 7} of the buffer. The buffer may extend beyond the last byte
+     * holding the consumed bits.
+     *
+     * @param numBits number of bits to consume
+     * @return a buffer holding the consumed bits
+     * @throws IOException if the end of the stream is reached
+     */
+    protected ByteBuffer readBitWindow(long numBits) throws IOException
+    {
+        int prefix = bitPos == 0 ? 0 : 1;
+        long endBit = ((8 - bitPos) & 7) + numBits;
+        int nBytes = (int) ((endBit + 7) >>> 3);
+
+        // Padding allows the unpacker to load whole words up to the last byte
+        byte[] window = new byte[nBytes + 7];
+        if (prefix == 1)
+        {
+            window[0] = (byte) bitBuf;
+        }
+        int nRead = prefix;
+        while (nRead < nBytes)
+        {
+            int n = in.read(window, nRead, nBytes - nRead);
+            if (n < 0)
+            {
+                throw new EOFException("End of input.");
+            }
+            nRead += n;
+        }
+        position += nBytes - prefix;
+        countBits += numBits;
+
+        int remainder = (int) (endBit & 7);
+        if (remainder == 0)
+        {
+            bitPos = 0;
+        } else
+        {
+            bitPos = 8 - remainder;
+            bitBuf = window[nBytes - 1] & (0xff >> remainder);
+        }
+        return ByteBuffer.wrap(window);
+    }
+
     /**
      * Read a signed value from the given number of bits
      *
@@ -293,73 +560,90 @@ public class GribInputStream extends FilterInputStream
 
     /**
      * Seek the input stream for the specified pattern.
-     * The seek functionality is implemented by reading out chunks of data at a time.
-     * Successive chunks overlap by {@code pattern.length} bytes to ensure the full pattern will appear in a chunk.
-     * If the pattern is found, the next byte in the input stream is the byte directly following the pattern.
+     * The stream is read in large chunks into a reusable buffer, so no memory is allocated
+     * while searching. Successive chunks overlap by {@code pattern.length - 1} bytes to ensure
+     * the full pattern will appear in a chunk. The search ends at the actual end of the stream
+     * rather than when {@link #available()} returns zero.
+     * If the pattern is found, the next byte in the input stream is the first byte of the pattern,
+     * or the byte directly following the pattern if {@code consumePattern} is set.
      *
      * @param pattern        The pattern for which to seek
      * @param consumePattern Determines whether the pattern is consumed or not
      * @return Number of bytes consumed from the input stream
+     * @throws EOFException if the end of the stream is reached without finding the pattern
      * @throws IOException
      */
     public int seekBytePattern(byte[] pattern, boolean consumePattern) throws IOException
     {
-        boolean endPatternFound = false;
-        int iChunkByte = 0;
-        int nAvailableBytes = 0;
-        int iStartPos = this.getByteCounter();
-        final int N_BYTES_PER_CHUNK = 1000;
+        assert pattern.length > 0 && pattern.length < SEARCH_CHUNK_SIZE;
 
-        assert pattern.length > 0 && pattern.length < N_BYTES_PER_CHUNK;
+        if (searchBuffer == null)
+        {
+            searchBuffer = new byte[SEARCH_CHUNK_SIZE];
+        }
+        long startPosition = position;
 
-        while ((nAvailableBytes = this.available()) > 0)
+        while (true)
         {
-            // Limit the number of bytes to be read
-            if (nAvailableBytes > N_BYTES_PER_CHUNK)
+            // Search whatever has arrived, rather than waiting for a full chunk from a pipe or socket
+            this.mark(SEARCH_CHUNK_SIZE);
+            int nBytes = 0;
+            int n = 0;
+            while (nBytes < pattern.length && (n = in.read(searchBuffer, nBytes, SEARCH_CHUNK_SIZE - nBytes)) >= 0)
             {
-                nAvailableBytes = N_BYTES_PER_CHUNK;
+                nBytes += n;
             }
+            boolean endOfStream = n < 0;
+            this.reset();
 
-            this.mark(nAvailableBytes);
-            int[] bytes = this.readUI8(nAvailableBytes);
-            iChunkByte = 0;
-
-            // Search for pattern within chunk
-            while (!endPatternFound && iChunkByte <= nAvailableBytes - pattern.length)
+            int iMatch = indexOf(searchBuffer, 0, nBytes, pattern);
+            if (iMatch >= 0)
             {
-                endPatternFound = true;
-                // Compare next bytes with pattern
-                for (int iPattern = 0; iPattern < pattern.length; iPattern++)
-                {
-                    if (bytes[iChunkByte + iPattern] != pattern[iPattern])
-                    {
-                        endPatternFound = false;
-                        iChunkByte++;
-                        break;
-                    }
-                }
-            }
-
-            // Backtrack stream position until it's just before/after the last byte of the pattern
-            this.reset();
-            int offset = consumePattern ? pattern.length : 0;
-            if (this.skip(iChunkByte + offset) != iChunkByte + offset)
+                int offset = consumePattern ? pattern.length : 0;
+                this.skip(iMatch + offset);
+                break;
+            } else if (endOfStream)
             {
-                throw new IOException("Skipped less bytes than expected");
+                this.skip(nBytes);
+                throw new EOFException("Reached end of stream without finding pattern");
             }
 
-            if (endPatternFound) break;
+            // Keep the last bytes of the chunk, which may hold the start of the pattern
+            this.skip(nBytes - (pattern.length - 1));
         }
 
-        if (!endPatternFound)
+        return (int) Math.min(position - startPosition, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the index of the first occurrence of a pattern within a range of an array.
+     *
+     * @param array   array to search
+     * @param from    index of the first byte to search
+     * @param to      index after the last byte to search
+     * @param pattern pattern to search for
+     * @return the index of the first byte of the pattern, or -1 if the pattern was not found
+     */
+    static int indexOf(byte[] array, int from, int to, byte[] pattern)
+    {
+        byte first = pattern[0];
+        int last = to - pattern.length;
+        for (int i = from; i <= last; i++)
         {
-            throw new EOFException("Reached end of stream without finding pattern");
+            if (array[i] != first)
+            {
+                continue;
+            }
+            int j = 1;
+            while (j < pattern.length && array[i + j] == pattern[j])
+            {
+                j++;
+            }
+            if (j == pattern.length)
+            {
+                return i;
+            }
         }
-
-        // Calculate amount of bytes consumed
-        int iEndPos = this.getByteCounter();
-
-        return iEndPos - iStartPos;
+        return -1;
     }
 }
-
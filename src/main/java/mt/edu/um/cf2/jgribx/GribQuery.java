@@ -0,0 +1,233 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+
+/**
+ * A GribQuery selects records by edition, discipline, originating centre, parameter, level,
+ * reference time and forecast time, using only the metadata held by a {@link RecordLocator}.
+ * Criteria which are not set match any record, and a record must match all the criteria which
+ * are set. For example:
+ * <pre>
+ * GribQuery query = new GribQuery()
+ *         .parameters("TMP", "UGRD", "VGRD")
+ *         .levels("ISBL:500", "SFC");
+ * </pre>
+ */
+public class GribQuery implements Predicate<RecordLocator>
+{
+    private Set<String> parameterCodes;
+    private List<String> levelCodes;
+
+    /**
+     * Level values corresponding to the level codes, null where any value matches.
+     */
+    private List<Integer> levelValues;
+    private Calendar forecastTimeFrom;
+    private Calendar forecastTimeTo;
+    private Calendar referenceTimeFrom;
+    private Calendar referenceTimeTo;
+    private Set<Integer> centreIds;
+    private Set<Integer> editions;
+    private Set<Integer> disciplines;
+
+    /**
+     * Selects records of any of the given parameters.
+     *
+     * @param parameterCodes parameter abbreviations, such as "TMP"
+     * @return this query
+     */
+    public GribQuery parameters(String... parameterCodes)
+    {
+        this.parameterCodes = new HashSet<>(Arrays.asList(parameterCodes));
+        return this;
+    }
+
+    /**
+     * Selects records at any of the given levels. A level is given either as a level code
+     * (e.g. "SFC"), matching any value, or as a level code followed by a value (e.g. "ISBL:500").
+     *
+     * @param levels level specifications
+     * @return this query
+     * @throws IllegalArgumentException if a level specification is not valid
+     */
+    public GribQuery levels(String... levels)
+    {
+        levelCodes = new ArrayList<>();
+        levelValues = new ArrayList<>();
+        for (String level : levels)
+        {
+            Matcher matcher = GribFile.LEVEL_PATTERN.matcher(level);
+            if (!matcher.matches())
+            {
+                throw new IllegalArgumentException("Invalid level: " + level);
+            }
+            levelCodes.add(matcher.group(1));
+            levelValues.add(matcher.group(2) == null ? null : Integer.parseInt(matcher.group(2)));
+        }
+        return this;
+    }
+
+    /**
+     * Selects records whose forecast time lies within the given range.
+     *
+     * @param from earliest forecast time (inclusive), or null for no lower bound
+     * @param to   latest forecast time (inclusive), or null for no upper bound
+     * @return this query
+     */
+    public GribQuery forecastTimes(Calendar from, Calendar to)
+    {
+        this.forecastTimeFrom = from;
+        this.forecastTimeTo = to;
+        return this;
+    }
+
+    /**
+     * Selects records whose reference time lies within the given range.
+     *
+     * @param from earliest reference time (inclusive), or null for no lower bound
+     * @param to   latest reference time (inclusive), or null for no upper bound
+     * @return this query
+     */
+    public GribQuery referenceTimes(Calendar from, Calendar to)
+    {
+        this.referenceTimeFrom = from;
+        this.referenceTimeTo = to;
+        return this;
+    }
+
+    /**
+     * Selects records from any of the given originating centres.
+     *
+     * @param centreIds IDs of the originating centres
+     * @return this query
+     */
+    public GribQuery centres(int... centreIds)
+    {
+        this.centreIds = toSet(centreIds);
+        return this;
+    }
+
+    /**
+     * Selects records of any of the given GRIB editions.
+     *
+     * @param editions GRIB editions (1 or 2)
+     * @return this query
+     */
+    public GribQuery editions(int... editions)
+    {
+        this.editions = toSet(editions);
+        return this;
+    }
+
+    /**
+     * Selects records of any of the given disciplines (GRIB-2 Code Table 0.0).
+     *
+     * @param disciplines discipline codes, such as 0 for meteorological products
+     * @return this query
+     */
+    public GribQuery disciplines(int... disciplines)
+    {
+        this.disciplines = toSet(disciplines);
+        return this;
+    }
+
+    private static Set<Integer> toSet(int[] values)
+    {
+        Set<Integer> set = new HashSet<>();
+        for (int value : values)
+        {
+            set.add(value);
+        }
+        return set;
+    }
+
+    /**
+     * Returns whether a record matches this query.
+     *
+     * @param locator locator of the record
+     * @return true if the record matches all the criteria of this query
+     */
+    @Override
+    public boolean test(RecordLocator locator)
+    {
+        if (editions != null && !editions.contains(locator.getEdition()))
+        {
+            return false;
+        }
+        if (disciplines != null && !disciplines.contains(locator.getDiscipline()))
+        {
+            return false;
+        }
+        if (parameterCodes != null && !parameterCodes.contains(locator.getParameterCode()))
+        {
+            return false;
+        }
+        if (centreIds != null && !centreIds.contains(locator.getCentreId()))
+        {
+            return false;
+        }
+        if (!inRange(locator.getForecastTime(), forecastTimeFrom, forecastTimeTo))
+        {
+            return false;
+        }
+        if (!inRange(locator.getReferenceTime(), referenceTimeFrom, referenceTimeTo))
+        {
+            return false;
+        }
+        if (levelCodes != null)
+        {
+            float[] recordLevelValues = locator.getLevelValues();
+            for (int i = 0; i < levelCodes.size(); i++)
+            {
+                Integer value = levelValues.get(i);
+                if (levelCodes.get(i).equals(locator.getLevelCode()) && (value == null
+                        || (recordLevelValues != null && recordLevelValues.length > 0 && recordLevelValues[0] == value)))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a time lies within a range. A missing time only lies within an unbounded range.
+     */
+    private static boolean inRange(Calendar time, Calendar from, Calendar to)
+    {
+        if (from == null && to == null)
+        {
+            return true;
+        }
+        return time != null && (from == null || !time.before(from)) && (to == null || !time.after(to));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "GribQuery[editions=" + editions + ", disciplines=" + disciplines + ", parameters=" + parameterCodes
+                + ", levels=" + levelCodes + ":" + levelValues
+                + ", forecast times=" + (forecastTimeFrom == null ? null : forecastTimeFrom.getTime())
+                + " - " + (forecastTimeTo == null ? null : forecastTimeTo.getTime())
+                + ", reference times=" + (referenceTimeFrom == null ? null : referenceTimeFrom.getTime())
+                + " - " + (referenceTimeTo == null ? null : referenceTimeTo.getTime()) + ", centres=" + centreIds + "]";
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The GribReader class reads the records of a GRIB stream one at a time, in file order.
+ * <p>
+ * Unlike {@link GribFile}, which holds every record of a file, a GribReader only holds the
+ * record which is about to be returned, so that files of any size can be processed in bounded
+ * memory as long as the records consumed are not kept. A record is read as soon as it has
+ * arrived, and the end of the stream is detected by reaching it rather than by
+ * {@link InputStream#available()}, so pipes and sockets are read in full. Records which are
+ * not supported or not valid are skipped. For example:
+ * <pre>
+ * try (GribReader reader = new GribReader(path))
+ * {
+ *     while (reader.hasNext())
+ *     {
+ *         GribRecord record = reader.next();
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * Since {@link Iterator} methods cannot throw checked exceptions, an {@link IOException}
+ * raised while reading is thrown as an {@link UncheckedIOException}.
+ */
+public class GribReader implements Iterator<GribRecord>, AutoCloseable
+{
+    private final GribInputStream in;
+
+    /**
+     * The record read ahead by {@link #hasNext()}, if any.
+     */
+    private GribRecord next;
+    private boolean endOfStream;
+    private int count;
+    private int nRecordsSkipped;
+
+    /**
+     * Opens a GRIB file for reading.
+     *
+     * @param path path to the GRIB file
+     * @throws IOException if the file cannot be opened
+     */
+    public GribReader(Path path) throws IOException
+    {
+        this(Files.newInputStream(path));
+    }
+
+    /**
+     * Constructs a {@link GribReader} object from an input stream.
+     *
+     * @param in input stream with GRIB content
+     */
+    public GribReader(InputStream in)
+    {
+        // note: the BufferedInputStream enables mark/reset functionality
+        this(new GribInputStream(new BufferedInputStream(in)));
+    }
+
+    /**
+     * Constructs a {@link GribReader} object from a bit input stream.
+     *
+     * @param in bit input stream with GRIB content
+     */
+    public GribReader(GribInputStream in)
+    {
+        this.in = in;
+    }
+
+    /**
+     * Returns whether the stream holds another valid record, reading that record if it has not
+     * been read yet. Blocks until the record has arrived or the stream has ended.
+     *
+     * @return true if {@link #next()} will return a record
+     * @throws UncheckedIOException if the stream cannot be read
+     */
+    @Override
+    public boolean hasNext()
+    {
+        if (next == null && !endOfStream)
+        {
+            try
+            {
+                next = readNext(GribRecord::readFromStream);
+            } catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    /**
+     * Returns the next valid record. The reader keeps no reference to the record afterwards.
+     *
+     * @return the next record
+     * @throws NoSuchElementException if the stream holds no more valid records
+     * @throws UncheckedIOException   if the stream cannot be read
+     */
+    @Override
+    public GribRecord next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        GribRecord record = next;
+        next = null;
+        return record;
+    }
+
+    /**
+     * Returns a sequential stream of the remaining records. Closing the stream closes this
+     * reader.
+     *
+     * @return a stream of the remaining records
+     */
+    public Stream<GribRecord> stream()
+    {
+        Spliterator<GribRecord> spliterator = Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() ->
+        {
+            try
+            {
+                close();
+            } catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Sets whether simple-packed fields of the records read from now on are stored in their
+     * packed form (see {@link GribInputStream#setPackedStorage(boolean)}).
+     *
+     * @param packedStorage true to store simple-packed fields in their packed form
+     */
+    public void setPackedStorage(boolean packedStorage)
+    {
+        in.setPackedStorage(packedStorage);
+    }
+
+    /**
+     * Sets how large fields of the records read from now on are decoded on several threads
+     * (see {@link GribInputStream#setParallelDecoding(ParallelDecoding)}).
+     *
+     * @param parallelDecoding configuration of parallel decoding
+     */
+    public void setParallelDecoding(ParallelDecoding parallelDecoding)
+    {
+        in.setParallelDecoding(parallelDecoding);
+    }
+
+    /**
+     * Returns the number of records skipped so far because they are not supported or not valid.
+     *
+     * @return the number of records skipped
+     */
+    public int getRecordsSkippedCount()
+    {
+        return nRecordsSkipped;
+    }
+
+    /**
+     * Closes the underlying stream.
+     *
+     * @throws IOException if the stream cannot be closed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        next = null;
+        endOfStream = true;
+        in.close();
+    }
+
+    /**
+     * Returns the bytes of the next record without parsing its sections other than the
+     * indicator section, so that the record can be parsed on another thread. The bytes of a
+     * memory-mapped stream are not copied. Records are skipped as by {@link #next()}, except
+     * for those which are only found not to be valid when they are parsed.
+     *
+     * @return the bytes of the next record, or null if the stream holds no more records
+     * @throws IOException if the stream cannot be read
+     */
+    ByteBuffer nextRecordBytes() throws IOException
+    {
+        if (next != null)
+        {
+            throw new IllegalStateException("A record has already been read ahead");
+        }
+        return endOfStream ? null : readNext(GribReader::readRecordBytes);
+    }
+
+    /**
+     * Reads the next record which can be read, skipping the others, or returns null at the
+     * end of the stream.
+     */
+    private <T> T readNext(RecordReader<T> reader) throws IOException
+    {
+        while (GribRecordIS.seekNextRecord(in))
+        {
+            count++;
+            try
+            {
+                Logger.println("Reading next record: " + count, Logger.DEBUG);
+                return reader.read(in);
+            } catch (NotSupportedException | NoValidGribException e)
+            {
+                Logger.println("Skipping GRIB record " + count + " (" + e.getMessage() + ")", Logger.WARNING);
+                nRecordsSkipped++;
+                // Skip to end of current record
+                try
+                {
+                    GribRecordES.seekNext(in);
+                } catch (EOFException eofe)
+                {
+                    Logger.println("EOFException while seeking ES: " + eofe.getMessage(), Logger.INFO);
+                }
+            } catch (EOFException e)
+            {
+                Logger.println("Skipping GRIB record " + count + " (record is truncated)", Logger.WARNING);
+                nRecordsSkipped++;
+                break;
+            }
+        }
+
+        endOfStream = true;
+        Logger.println("Reached end of file: " + (count - nRecordsSkipped) + " of " + count
+                + " records read successfully", Logger.INFO);
+        return null;
+    }
+
+    /**
+     * Reads the bytes of the next record without parsing its sections.
+     */
+    private static ByteBuffer readRecordBytes(GribInputStream in) throws IOException, NotSupportedException,
+            NoValidGribException
+    {
+        long offset = in.getPosition();
+        in.mark(16);
+        GribRecordIS is = GribRecordIS.readFromStream(in);
+        in.reset();
+
+        long length = is.getRecordLength();
+        if (length > Integer.MAX_VALUE)
+        {
+            throw new NotSupportedException("Records larger than 2 GB are not supported");
+        }
+        if (in instanceof GribByteBufferInputStream)
+        {
+            GribByteBufferInputStream bin = (GribByteBufferInputStream) in;
+            if (offset + length > bin.length())
+            {
+                throw new EOFException("Record extends beyond the end of the stream");
+            }
+            ByteBuffer buffer = bin.sliceBuffer(offset, length, length);
+            bin.seek(offset + length);
+            return buffer;
+        }
+        return ByteBuffer.wrap(in.read((int) length));
+    }
+
+    /**
+     * Reads a record, or a part of it, from a stream positioned at its start.
+     */
+    private interface RecordReader<T>
+    {
+        T read(GribInputStream in) throws IOException, NotSupportedException, NoValidGribException;
+    }
+}
@@ -14,10 +14,17 @@ import mt.edu.um.cf2.jgribx.grib1.Grib1Record;
 import mt.edu.um.cf2.jgribx.grib2.Grib2Record;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.FloatBuffer;
 import java.util.Calendar;
 
 public abstract class GribRecord
 {
+    /**
+     * Per-thread array through which values are unpacked into buffers not backed by an array.
+     */
+    private static final ThreadLocal<float[]> SCRATCH = ThreadLocal.withInitial(() -> new float[0]);
+
     private GribRecordIS is;
 
     public static GribRecord readFromStream(GribInputStream in) throws IOException, NotSupportedException, NoValidGribException
@@ -92,4 +99,106 @@ public abstract class GribRecord
     public abstract double getValue(double latitude, double longitude);
 
     public abstract float[] getValues();
+
+    /**
+     * Returns the number of values of this record, i.e. the length of the array returned by
+     * {@link #getValues()}, without unpacking them.
+     *
+     * @return the number of values of this record
+     */
+    public abstract int getValueCount();
+
+    /**
+     * Unpacks the values of this record into an array supplied by the caller, starting at
+     * index 0. This avoids allocating an array for each record when many records of the
+     * same size are processed.
+     *
+     * @param dst destination array, with a length of at least {@link #getValueCount()}
+     * @return the number of values written, or -1 if the values cannot be unpacked
+     * @throws IllegalArgumentException if the array is too small
+     * @see #getValues(float[], int)
+     */
+    public int getValues(float[] dst)
+    {
+        return getValues(dst, 0);
+    }
+
+    /**
+     * Unpacks the values of this record into an array supplied by the caller. Values which
+     * have not been unpacked yet are written straight into the array and are not retained by
+     * the record; values which have already been unpacked are copied.
+     *
+     * @param dst    destination array
+     * @param offset index in the destination array of the first value
+     * @return the number of values written, or -1 if the values cannot be unpacked
+     * @throws IllegalArgumentException if fewer than {@link #getValueCount()} elements
+     *                                  follow the offset
+     */
+    public int getValues(float[] dst, int offset)
+    {
+        int count = getValueCount();
+        if (offset < 0 || dst.length - offset < count)
+        {
+            throw new IllegalArgumentException("Array with " + (dst.length - offset) + " elements from offset "
+                    + offset + " cannot hold " + count + " values");
+        }
+        return unpackValues(dst, offset) ? count : -1;
+    }
+
+    /**
+     * Unpacks the values of this record into a buffer supplied by the caller, starting at its
+     * current position. The position is advanced past the values written. Values are written
+     * directly into heap buffers; for direct buffers they pass through a per-thread array.
+     *
+     * @param dst destination buffer, with at least {@link #getValueCount()} elements remaining
+     * @return the number of values written, or -1 if the values cannot be unpacked
+     * @throws BufferOverflowException if fewer than {@link #getValueCount()} elements remain
+     */
+    public int getValues(FloatBuffer dst)
+    {
+        int count = getValueCount();
+        if (dst.remaining() < count)
+        {
+            throw new BufferOverflowException();
+        }
+        if (dst.hasArray())
+        {
+            if (!unpackValues(dst.array(), dst.arrayOffset() + dst.position()))
+            {
+                return -1;
+            }
+            dst.position(dst.position() + count);
+        } else
+        {
+            float[] scratch = SCRATCH.get();
+            if (scratch.length < count)
+            {
+                scratch = new float[count];
+                SCRATCH.set(scratch);
+            }
+            if (!unpackValues(scratch, 0))
+            {
+                return -1;
+            }
+            dst.put(scratch, 0, count);
+        }
+        return count;
+    }
+
+    /**
+     * Writes the {@link #getValueCount()} values of this record into the given array, which
+     * is known to be large enough.
+     *
+     * @param dst    destination array
+     * @param offset index in the destination array of the first value
+     * @return true if the values have been written, false if they cannot be unpacked
+     */
+    protected abstract boolean unpackValues(float[] dst, int offset);
+
+    /**
+     * Discards the decoded values of this record to free memory. Records read from a
+     * random-access source keep their packed data, so the values are simply decoded
+     * again when next requested; for other records this has no effect.
+     */
+    public abstract void releaseValues();
 }
@@ -20,9 +20,14 @@ public class GribRecordES
     boolean isValid;
     private static final String PATTERN = "7777";
 
+    /**
+     * Length in bytes of the end section.
+     */
+    static final int LENGTH = 4;
+
     public GribRecordES(GribInputStream in) throws IOException
     {
-        byte[] octets = in.read(4);
+        byte[] octets = in.read(LENGTH);
         String code = new String(octets);
         if (!code.equals(PATTERN))
         {
@@ -13,6 +13,7 @@ package mt.edu.um.cf2.jgribx;
 import mt.edu.um.cf2.jgribx.grib2.ProductDiscipline;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.util.Arrays;
 
@@ -61,7 +62,7 @@ public class GribRecordIS
     {
         GribRecordIS is = new GribRecordIS();
         byte[] octets = new byte[16];
-        in.read(octets, 0, 8);
+        System.arraycopy(in.read(8), 0, octets, 0, 8);
 
         String startCode = new String(Arrays.copyOfRange(octets, 0, 4));
         if (!startCode.equals(PATTERN))
@@ -80,7 +81,7 @@ public class GribRecordIS
             case 2:
                 is.discipline = new ProductDiscipline(octets[6]);
                 is.length = 16;
-                in.read(octets, 8, 8);
+                System.arraycopy(in.read(8), 0, octets, 8, 8);
                 break;
             default:
                 throw new NotSupportedException("GRIB edition " + is.edition +
@@ -144,8 +145,7 @@ public class GribRecordIS
      */
     public static void seekNext(GribInputStream in) throws IOException
     {
-        int nBytesConsumed = in.seekBytePattern(PATTERN.getBytes(), false);
-        int nBytesSkipped = nBytesConsumed - PATTERN.length();
+        int nBytesSkipped = in.seekBytePattern(PATTERN.getBytes(), false);
 
         if (nBytesSkipped > 0)
         {
@@ -154,6 +154,28 @@ public class GribRecordIS
         }
     }
 
+    /**
+     * Seeks the location of the next IS header, as {@link #seekNext(GribInputStream)} does,
+     * but reports the end of the stream rather than throwing. Unlike checking
+     * {@link GribInputStream#available()}, which may be 0 while a pipe or socket is waiting for
+     * more data, this only stops at the actual end of the stream.
+     *
+     * @param in GRIB input stream to read from
+     * @return true if a header was found, or false if the end of the stream was reached
+     * @throws IOException if the stream cannot be read
+     */
+    public static boolean seekNextRecord(GribInputStream in) throws IOException
+    {
+        try
+        {
+            seekNext(in);
+            return true;
+        } catch (EOFException e)
+        {
+            return false;
+        }
+    }
+
     /**
      * Get a string representation of this IS.
      *
@@ -0,0 +1,313 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import mt.edu.um.cf2.jgribx.grib1.Grib1Record;
+import mt.edu.um.cf2.jgribx.grib2.Grib2Record;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The GribScanner class builds a table of the records contained in a GRIB file
+ * without decoding them.
+ * <p>
+ * For each record, only the indicator section and the metadata sections needed to
+ * identify the record are parsed. The scanner then jumps directly to the end of the
+ * record using the record length given in the indicator section, meaning that
+ * bitmaps and data sections are never read.
+ */
+public class GribScanner
+{
+    /**
+     * Number of bytes fetched at the start of each record when scanning a {@link GribSource},
+     * which is normally enough to hold all the metadata sections.
+     */
+    private static final int HEADER_SIZE = 2048;
+
+    /**
+     * Maximum length of an indicator section (GRIB-2).
+     */
+    private static final int MAX_IS_LENGTH = 16;
+
+    private static final byte[] START_PATTERN = "GRIB".getBytes();
+    private static final byte[] END_PATTERN = "7777".getBytes();
+
+    private GribScanner()
+    {
+    }
+
+    /**
+     * Scans a memory-mapped GRIB file.
+     *
+     * @param path path to the GRIB file
+     * @return the locators of all the supported records, in file order
+     * @throws IOException if file cannot be opened or mapped
+     */
+    public static List<RecordLocator> scan(Path path) throws IOException
+    {
+        try (GribInputStream in = GribByteBufferInputStream.map(path))
+        {
+            return scan(in);
+        }
+    }
+
+    /**
+     * Scans the remaining records of a GRIB input stream. The stream is not closed.
+     *
+     * @param in bit input stream with GRIB content
+     * @return the locators of all the supported records, in file order
+     * @throws IOException if stream cannot be read
+     */
+    public static List<RecordLocator> scan(GribInputStream in) throws IOException
+    {
+        List<RecordLocator> locators = new ArrayList<>();
+
+        int count = 0;
+        while (GribRecordIS.seekNextRecord(in))
+        {
+            count++;
+            long offset = in.getPosition();
+            GribRecordIS is = null;
+            try
+            {
+                is = GribRecordIS.readFromStream(in);
+                RecordLocator locator = readLocator(in, is, offset);
+                locators.add(locator);
+            } catch (NotSupportedException | NoValidGribException e)
+            {
+                Logger.println("Skipping GRIB record " + count + " (" + e.getMessage() + ")", Logger.WARNING);
+                if (is == null)
+                {
+                    // The record length is unknown, so search for the end of the record instead
+                    try
+                    {
+                        GribRecordES.seekNext(in);
+                    } catch (EOFException eofe)
+                    {
+                        Logger.println("EOFException while seeking ES: " + eofe.getMessage(), Logger.INFO);
+                    }
+                }
+            }
+        }
+
+        Logger.println("Reached end of file: " + locators.size() + " of " + count + " records scanned successfully",
+                Logger.INFO);
+
+        return locators;
+    }
+
+    /**
+     * Scans a random-access source. Instead of reading the whole source, only the start of
+     * each record (normally holding all the metadata sections) and its end section are
+     * fetched, so this is suitable for remote sources such as {@link HttpGribSource}.
+     *
+     * @param source source with GRIB content
+     * @return the locators of all the supported records, in file order
+     * @throws IOException if source cannot be read
+     */
+    public static List<RecordLocator> scan(GribSource source) throws IOException
+    {
+        List<RecordLocator> locators = new ArrayList<>();
+        long size = source.size();
+        long offset = 0;
+        int count = 0;
+
+        // Record preceding the current offset whose end section has not been checked yet
+        boolean checkEnd = false;
+        RecordLocator pending = null;
+
+        ByteBuffer window = null;
+        long windowStart = 0;
+        while (offset < size)
+        {
+            // The end section of the previous record is fetched together with the start of the next one,
+            // and small records may be found within the window fetched for a previous record
+            long from = checkEnd ? offset - GribRecordES.LENGTH : offset;
+            long windowEnd = window == null ? 0 : windowStart + window.remaining();
+            if (window == null || from < windowStart || (offset + MAX_IS_LENGTH > windowEnd && windowEnd < size))
+            {
+                windowStart = from;
+                window = source.read(windowStart, (int) Math.min(HEADER_SIZE, size - windowStart));
+            }
+            GribByteBufferInputStream in = new GribByteBufferInputStream(window);
+            if (checkEnd)
+            {
+                endRecord(window, (int) (from - windowStart), pending, locators, count);
+                checkEnd = false;
+                pending = null;
+            }
+            in.seek(offset - windowStart);
+
+            long start = in.indexOf(START_PATTERN, in.getPosition());
+            if (start < 0)
+            {
+                if (windowStart + in.length() >= size)
+                {
+                    break;
+                }
+                // The last bytes of the window may hold the start of the pattern
+                offset = windowStart + in.length() - (START_PATTERN.length - 1);
+                continue;
+            }
+            if (start > in.getPosition())
+            {
+                Logger.println("Extra " + (start - in.getPosition()) + " bytes were found between end of last record "
+                        + "and start of next record", Logger.WARNING);
+            }
+            offset = windowStart + start;
+            if (in.length() - start < MAX_IS_LENGTH && windowStart + in.length() < size)
+            {
+                // Fetch a window starting at the record
+                continue;
+            }
+
+            count++;
+            GribRecordIS is = null;
+            try
+            {
+                in.seek(start);
+                is = GribRecordIS.readFromStream(in);
+                if (offset + is.getRecordLength() > size)
+                {
+                    throw new NoValidGribException("Record is truncated");
+                }
+                long available = in.length() - start;
+                while (true)
+                {
+                    try
+                    {
+                        pending = readMetadata(in, is, offset);
+                        break;
+                    } catch (IOException e)
+                    {
+                        // The metadata sections extend beyond the window, so fetch a larger one
+                        if (available >= is.getRecordLength())
+                        {
+                            throw new NoValidGribException("Record metadata extends beyond the end of the record");
+                        }
+                        available = Math.min(is.getRecordLength(), Math.max(available, HEADER_SIZE) * 4);
+                        in = new GribByteBufferInputStream(source.read(offset, (int) available));
+                        GribRecordIS.readFromStream(in);
+                    }
+                }
+                checkEnd = true;
+                offset += is.getRecordLength();
+            } catch (NotSupportedException | NoValidGribException e)
+            {
+                Logger.println("Skipping GRIB record " + count + " (" + e.getMessage() + ")", Logger.WARNING);
+                if (is != null && e instanceof NotSupportedException)
+                {
+                    // The record is still skipped by length, so that scanning continues at the next record
+                    checkEnd = true;
+                    offset += is.getRecordLength();
+                } else
+                {
+                    // Search for the next record
+                    offset++;
+                }
+            }
+        }
+
+        if (checkEnd)
+        {
+            endRecord(source.read(offset - GribRecordES.LENGTH, GribRecordES.LENGTH), 0, pending, locators, count);
+        }
+
+        Logger.println("Reached end of source: " + locators.size() + " of " + count + " records scanned successfully",
+                Logger.INFO);
+
+        return locators;
+    }
+
+    /**
+     * Adds the locator of a record to the list if the buffer holds a valid end section at the given index.
+     */
+    private static void endRecord(ByteBuffer buffer, int index, RecordLocator locator, List<RecordLocator> locators,
+                                  int count)
+    {
+        for (int i = 0; i < END_PATTERN.length; i++)
+        {
+            if (buffer.get(index + i) != END_PATTERN[i])
+            {
+                Logger.println("Skipping GRIB record " + count + " (Grib End Section is invalid)", Logger.WARNING);
+                return;
+            }
+        }
+        if (locator != null)
+        {
+            locators.add(locator);
+        }
+    }
+
+    /**
+     * Reads the metadata of a record whose indicator section has just been read, and
+     * then skips to the end of the record.
+     */
+    private static RecordLocator readLocator(GribInputStream in, GribRecordIS is, long offset)
+            throws IOException, NotSupportedException, NoValidGribException
+    {
+        RecordLocator locator = null;
+        NotSupportedException unsupported = null;
+        try
+        {
+            locator = readMetadata(in, is, offset);
+        } catch (NotSupportedException e)
+        {
+            // The record is still skipped by length, so that scanning continues at the next record
+            unsupported = e;
+        }
+
+        // Jump straight to the end section
+        long nBytes = offset + is.getRecordLength() - GribRecordES.LENGTH - in.getPosition();
+        if (nBytes < 0)
+        {
+            throw new NoValidGribException("Record metadata extends beyond the end of the record");
+        }
+        if (in.skip(nBytes) != nBytes)
+        {
+            throw new NoValidGribException("Record is truncated");
+        }
+        in.seekNextByte();
+        GribRecordES es = new GribRecordES(in);
+        if (!es.isValid)
+        {
+            throw new NoValidGribException("Grib End Section is invalid");
+        }
+
+        if (unsupported != null)
+        {
+            throw unsupported;
+        }
+        return locator;
+    }
+
+    /**
+     * Reads the metadata of a record whose indicator section has just been read.
+     */
+    private static RecordLocator readMetadata(GribInputStream in, GribRecordIS is, long offset)
+            throws IOException, NotSupportedException, NoValidGribException
+    {
+        switch (is.getGribEdition())
+        {
+            case 1:
+                return Grib1Record.readLocatorFromStream(in, is, offset);
+            case 2:
+                return Grib2Record.readLocatorFromStream(in, is, offset);
+            default:
+                throw new NoValidGribException("Unsupported GRIB edition " + is.getGribEdition());
+        }
+    }
+}
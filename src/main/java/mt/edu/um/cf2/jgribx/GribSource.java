@@ -0,0 +1,70 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A random-access source of GRIB content, such as a local file, a byte array or a
+ * remote object accessed with range requests.
+ * <p>
+ * Unlike an input stream, a source is read at absolute offsets, so that only the byte
+ * ranges of the records actually needed are fetched (see {@link GribScanner#scan(GribSource)}
+ * and {@link GribIndex#open(GribSource)}). Implementations must allow concurrent reads.
+ */
+public interface GribSource extends Closeable
+{
+    /**
+     * Reads bytes starting at the given offset into the remaining space of a buffer.
+     * Fewer bytes than requested may be read.
+     *
+     * @param offset absolute offset of the first byte to read
+     * @param dst    buffer into which bytes are read
+     * @return the number of bytes read, or -1 if the offset is at or beyond the end of the source
+     * @throws IOException if the source cannot be read
+     */
+    int read(long offset, ByteBuffer dst) throws IOException;
+
+    /**
+     * Returns the total number of bytes in this source.
+     *
+     * @return the total number of bytes in this source
+     * @throws IOException if the size cannot be determined
+     */
+    long size() throws IOException;
+
+    /**
+     * Reads exactly the given number of bytes starting at the given offset.
+     *
+     * @param offset absolute offset of the first byte to read
+     * @param length number of bytes to read
+     * @return a buffer holding the bytes read, positioned at the first byte
+     * @throws EOFException if the range extends beyond the end of the source
+     * @throws IOException  if the source cannot be read
+     */
+    default ByteBuffer read(long offset, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining())
+        {
+            int nBytes = read(offset + buffer.position(), buffer);
+            if (nBytes < 0)
+            {
+                throw new EOFException("Cannot read " + length + " bytes at offset " + offset + ": end of source reached");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link GribSource} which reads a remote file over HTTP(S) using range requests, so that
+ * only the requested bytes are transferred. The server (or object store) must support the
+ * {@code Range} header.
+ */
+public class HttpGribSource implements GribSource
+{
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes \\d+-\\d+/(\\d+)");
+
+    private final URL url;
+    private int timeout_ms = 30000;
+
+    /**
+     * Total size of the remote file, determined on first use.
+     */
+    private volatile long size = -1;
+
+    /**
+     * Constructs a source for a remote file. No request is issued until the source is read.
+     *
+     * @param url URL of the GRIB file
+     */
+    public HttpGribSource(URL url)
+    {
+        this.url = url;
+    }
+
+    /**
+     * Sets the connect and read timeout of each request.
+     *
+     * @param timeout_ms timeout in milliseconds
+     */
+    public void setTimeout(int timeout_ms)
+    {
+        this.timeout_ms = timeout_ms;
+    }
+
+    @Override
+    public int read(long offset, ByteBuffer dst) throws IOException
+    {
+        if (offset >= size())
+        {
+            return -1;
+        }
+        int length = (int) Math.min(dst.remaining(), size() - offset);
+        if (length == 0)
+        {
+            return 0;
+        }
+
+        HttpURLConnection connection = open();
+        connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
+        try
+        {
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_PARTIAL && !(status == HttpURLConnection.HTTP_OK && offset == 0))
+            {
+                throw new IOException("Range request to " + url + " failed with HTTP status " + status);
+            }
+
+            // A server ignoring the range sends the whole file, of which only the start is read
+            int nRead = 0;
+            byte[] chunk = new byte[Math.min(length, 65536)];
+            try (InputStream in = connection.getInputStream())
+            {
+                while (nRead < length)
+                {
+                    int n = in.read(chunk, 0, Math.min(chunk.length, length - nRead));
+                    if (n < 0)
+                    {
+                        break;
+                    }
+                    dst.put(chunk, 0, n);
+                    nRead += n;
+                }
+            }
+            return nRead;
+        } finally
+        {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public long size() throws IOException
+    {
+        if (size < 0)
+        {
+            // Request the first byte only: the total size is given by the Content-Range header
+            HttpURLConnection connection = open();
+            connection.setRequestProperty("Range", "bytes=0-0");
+            try
+            {
+                int status = connection.getResponseCode();
+                String contentRange = connection.getHeaderField("Content-Range");
+                if (status == HttpURLConnection.HTTP_PARTIAL && contentRange != null)
+                {
+                    Matcher matcher = CONTENT_RANGE.matcher(contentRange);
+                    if (!matcher.matches())
+                    {
+                        throw new IOException("Invalid Content-Range header from " + url + ": " + contentRange);
+                    }
+                    size = Long.parseLong(matcher.group(1));
+                } else if (status == HttpURLConnection.HTTP_OK && connection.getContentLengthLong() >= 0)
+                {
+                    size = connection.getContentLengthLong();
+                } else
+                {
+                    throw new IOException("Cannot determine size of " + url + " (HTTP status " + status + ")");
+                }
+            } finally
+            {
+                connection.disconnect();
+            }
+        }
+        return size;
+    }
+
+    private HttpURLConnection open() throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(timeout_ms);
+        connection.setReadTimeout(timeout_ms);
+        return connection;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    @Override
+    public String toString()
+    {
+        return url.toString();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+/**
+ * The Kernels class holds the loops which convert packed integers to the final values of
+ * a field, {@code Y = (R + X * 2^E) / 10^D}.
+ * <p>
+ * When running from the multi-release jar on JDK 17 or later with
+ * {@code --add-modules jdk.incubator.vector}, these loops are executed across SIMD lanes.
+ * The results are identical to those of the scalar loops, which are used otherwise. The
+ * SIMD loops may be disabled by setting the system property {@code jgribx.vector} to
+ * {@code false}.
+ */
+public final class Kernels
+{
+    private Kernels()
+    {
+    }
+
+    /**
+     * Returns whether the SIMD versions of the loops are in use.
+     *
+     * @return true if the Vector API is in use
+     */
+    public static boolean isVectorized()
+    {
+        return VectorSupport.isAvailable();
+    }
+
+    /**
+     * Stores {@code (R + X * EE) / DD} for each integer X.
+     *
+     * @param src       values to scale
+     * @param srcOffset index of the first value to scale
+     * @param dst       destination array
+     * @param dstOffset index in the destination array of the first value
+     * @param count     number of values
+     * @param R         reference value
+     * @param EE        binary scale factor (2^E)
+     * @param DD        decimal scale factor (10^D)
+     */
+    public static void scale(int[] src, int srcOffset, float[] dst, int dstOffset, int count,
+                             float R, float EE, float DD)
+    {
+        if (VectorSupport.scale(src, srcOffset, dst, dstOffset, count, R, EE, DD))
+        {
+            return;
+        }
+        for (int i = 0; i < count; i++)
+        {
+            dst[dstOffset + i] = (R + src[srcOffset + i] * EE) / DD;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * A {@link GribSource} which reads a memory-mapped local file. Ranges returned by
+ * {@link #read(long, int)} share the mapped content instead of copying it.
+ */
+public class MappedGribSource implements GribSource
+{
+    private final GribByteBufferInputStream content;
+
+    /**
+     * Memory-maps a local file.
+     *
+     * @param path path to the GRIB file
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public MappedGribSource(Path path) throws IOException
+    {
+        this.content = GribByteBufferInputStream.map(path);
+    }
+
+    @Override
+    public int read(long offset, ByteBuffer dst) throws IOException
+    {
+        if (offset >= content.length())
+        {
+            return -1;
+        }
+        int nBytes = (int) Math.min(dst.remaining(), content.length() - offset);
+        dst.put(content.sliceBuffer(offset, nBytes, nBytes));
+        return nBytes;
+    }
+
+    @Override
+    public ByteBuffer read(long offset, int length) throws IOException
+    {
+        if (offset < 0 || offset + length > content.length())
+        {
+            throw new EOFException("Cannot read " + length + " bytes at offset " + offset + ": end of source reached");
+        }
+        return content.sliceBuffer(offset, length, length);
+    }
+
+    @Override
+    public long size()
+    {
+        return content.length();
+    }
+
+    @Override
+    public void close()
+    {
+        // nothing to release: mappings are unmapped when garbage collected
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The ParallelDecoding class configures the decoding of a single large field on several
+ * threads. Fields with at least {@link #getThreshold()} points are split into ranges of
+ * points, or groups of JPEG2000 tiles, which are decoded on an {@link Executor}. The values
+ * obtained are identical to those obtained on a single thread.
+ * <p>
+ * The configuration is a setting of the stream from which records are read (see
+ * {@link GribInputStream#setParallelDecoding(ParallelDecoding)}), and is kept by the records
+ * read from it. By default ({@link #DEFAULT}), fields of at least {@value #DEFAULT_THRESHOLD}
+ * points are split into as many parts as there are processors, and decoded on the common
+ * {@link ForkJoinPool}. The calling thread decodes one of the parts, as well as any part which
+ * no other thread has started, so fields may safely be decoded by tasks running on the same
+ * executor.
+ */
+public final class ParallelDecoding
+{
+    /**
+     * Default minimum number of points of a field decoded in parallel.
+     */
+    public static final int DEFAULT_THRESHOLD = 1 << 22;
+
+    /**
+     * Decodes large fields on the common {@link ForkJoinPool}.
+     */
+    public static final ParallelDecoding DEFAULT = new ParallelDecoding(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD,
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Decodes every field on the calling thread.
+     */
+    public static final ParallelDecoding SEQUENTIAL = new ParallelDecoding(null, DEFAULT_THRESHOLD, 1);
+
+    private final Executor executor;
+    private final int threshold;
+    private final int parallelism;
+
+    /**
+     * Creates a configuration of parallel decoding.
+     *
+     * @param executor    executor on which parts of fields are decoded, or null to decode every
+     *                    field on the calling thread
+     * @param threshold   minimum number of points of a field decoded in parallel
+     * @param parallelism maximum number of parts into which a field is split
+     */
+    public ParallelDecoding(Executor executor, int threshold, int parallelism)
+    {
+        if (parallelism < 1)
+        {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.executor = executor;
+        this.threshold = threshold;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * A task which decodes a range of a field.
+     */
+    public interface RangeTask
+    {
+        /**
+         * Decodes a range of a field.
+         *
+         * @param from index of the first item of the range
+         * @param to   index following the last item of the range
+         * @throws IOException if the range cannot be decoded
+         */
+        void run(int from, int to) throws IOException;
+    }
+
+    /**
+     * @return the executor on which parts of fields are decoded, or null if every field is
+     * decoded on the calling thread
+     */
+    public Executor getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * @return the minimum number of points of a field decoded in parallel
+     */
+    public int getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * @return the maximum number of parts into which a field is split
+     */
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * Returns whether a field is decoded in parallel.
+     *
+     * @param nPoints number of points of the field
+     * @return true if the field is large enough and parallel decoding is enabled
+     */
+    public boolean isParallel(int nPoints)
+    {
+        return executor != null && parallelism > 1 && nPoints >= threshold;
+    }
+
+    /**
+     * Returns the number of parts into which {@link #forEachRange} splits a range.
+     *
+     * @param nPoints     number of points of the field
+     * @param count       number of items in the range
+     * @param granularity minimum number of items in a part
+     * @return the number of parts, which is 1 if the range is not decoded in parallel
+     */
+    public int getNumParts(int nPoints, int count, int granularity)
+    {
+        return isParallel(nPoints) ? Math.max(1, Math.min(parallelism, count / granularity)) : 1;
+    }
+
+    /**
+     * Runs a task over the range {@code [0, count)}, split into parts if the field is decoded in
+     * parallel. Every part except the last starts and ends at a multiple of {@code granularity}.
+     * Returns once every part has been decoded.
+     *
+     * @param nPoints     number of points of the field
+     * @param count       number of items in the range
+     * @param granularity number of items by which boundaries between parts are aligned
+     * @param task        task decoding a part of the range
+     * @throws IOException if any part cannot be decoded
+     */
+    public void forEachRange(int nPoints, int count, int granularity, RangeTask task) throws IOException
+    {
+        int nParts = getNumParts(nPoints, count, granularity);
+        if (nParts <= 1 || executor == null)
+        {
+            task.run(0, count);
+            return;
+        }
+
+        long partSize = ((long) count + nParts - 1) / nParts;
+        int step = (int) ((partSize + granularity - 1) / granularity * granularity);
+        List<FutureTask<Void>> parts = new ArrayList<>();
+        try
+        {
+            for (int from = step; from < count; from += step)
+            {
+                int start = from;
+                int end = (int) Math.min((long) from + step, count);
+                FutureTask<Void> part = new FutureTask<>(() ->
+                {
+                    task.run(start, end);
+                    return null;
+                });
+                parts.add(part);
+                try
+                {
+                    executor.execute(part);
+                } catch (RejectedExecutionException e)
+                {
+                    // the part is decoded by the calling thread instead
+                }
+            }
+            task.run(0, Math.min(step, count));
+
+            // Decode the parts which have not been started yet rather than waiting for them
+            for (FutureTask<Void> part : parts)
+            {
+                part.run();
+            }
+            for (FutureTask<Void> part : parts)
+            {
+                part.get();
+            }
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decoding field");
+        } catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally
+        {
+            for (FutureTask<Void> part : parts)
+            {
+                part.cancel(false);
+            }
+        }
+    }
+}
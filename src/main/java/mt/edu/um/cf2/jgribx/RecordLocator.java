@@ -0,0 +1,136 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import java.util.Calendar;
+
+/**
+ * A lightweight description of a GRIB record within a file, consisting of its
+ * location (offset and length) together with the metadata required to identify it.
+ * <p>
+ * Instances are created by {@link GribScanner} from the metadata sections only,
+ * meaning that the data section of the record is never read.
+ */
+public class RecordLocator
+{
+    private final long offset;
+    private final long length;
+    private final int edition;
+
+    /**
+     * Product discipline of the record ({@link GribCodes#MISSING} for GRIB-1 records).
+     */
+    private final int discipline;
+    private final int centreId;
+    private final int processId;
+    private final String parameterCode;
+    private final String levelCode;
+    private final String levelIdentifier;
+    private final float[] levelValues;
+    private final Calendar referenceTime;
+    private final Calendar forecastTime;
+
+    public RecordLocator(long offset, long length, int edition, int discipline, int centreId, int processId,
+                         String parameterCode, String levelCode, String levelIdentifier, float[] levelValues,
+                         Calendar referenceTime, Calendar forecastTime)
+    {
+        this.offset = offset;
+        this.length = length;
+        this.edition = edition;
+        this.discipline = discipline;
+        this.centreId = centreId;
+        this.processId = processId;
+        this.parameterCode = parameterCode;
+        this.levelCode = levelCode;
+        this.levelIdentifier = levelIdentifier;
+        this.levelValues = levelValues;
+        this.referenceTime = referenceTime;
+        this.forecastTime = forecastTime;
+    }
+
+    /**
+     * Returns the offset in bytes of the start of the record within the file.
+     *
+     * @return the offset in bytes of the start of the record
+     */
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * Returns the total length in bytes of the record, including the indicator and end sections.
+     *
+     * @return the total length in bytes of the record
+     */
+    public long getLength()
+    {
+        return length;
+    }
+
+    public int getEdition()
+    {
+        return edition;
+    }
+
+    public int getDiscipline()
+    {
+        return discipline;
+    }
+
+    public int getCentreId()
+    {
+        return centreId;
+    }
+
+    public int getProcessId()
+    {
+        return processId;
+    }
+
+    public String getParameterCode()
+    {
+        return parameterCode;
+    }
+
+    public String getLevelCode()
+    {
+        return levelCode;
+    }
+
+    public String getLevelIdentifier()
+    {
+        return levelIdentifier;
+    }
+
+    public float[] getLevelValues()
+    {
+        return levelValues;
+    }
+
+    public Calendar getReferenceTime()
+    {
+        return referenceTime;
+    }
+
+    public Calendar getForecastTime()
+    {
+        return forecastTime;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "GRIB-" + edition + " record at " + offset + " (" + length + " bytes): "
+                + parameterCode + " @ " + levelIdentifier + ", "
+                + (forecastTime != null ? forecastTime.getTime() : "no forecast time");
+    }
+}
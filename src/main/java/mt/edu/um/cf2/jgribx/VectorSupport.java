@@ -0,0 +1,44 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hooks for SIMD versions of the inner loops of {@link Kernels} and {@link BitUnpacker}.
+ * <p>
+ * This version, used on JDKs without the Vector API, declines every operation so that the
+ * scalar code is used. The multi-release jar holds a replacement (under
+ * {@code src/main/java17}) which uses {@code jdk.incubator.vector} when that module is
+ * enabled with {@code --add-modules jdk.incubator.vector}.
+ */
+final class VectorSupport
+{
+    private VectorSupport()
+    {
+    }
+
+    static boolean isAvailable()
+    {
+        return false;
+    }
+
+    static boolean unpack(ByteBuffer buffer, int byteOffset, int nBits, int count, float[] dst, int dstOffset,
+                          float ref, float scale)
+    {
+        return false;
+    }
+
+    static boolean scale(int[] src, int srcOffset, float[] dst, int dstOffset, int count, float R, float EE, float DD)
+    {
+        return false;
+    }
+}
@@ -10,14 +10,17 @@
  */
 package mt.edu.um.cf2.jgribx.grib1;
 
+import mt.edu.um.cf2.jgribx.GribCodes;
 import mt.edu.um.cf2.jgribx.GribInputStream;
 import mt.edu.um.cf2.jgribx.GribRecord;
 import mt.edu.um.cf2.jgribx.GribRecordIS;
 import mt.edu.um.cf2.jgribx.Logger;
 import mt.edu.um.cf2.jgribx.NoValidGribException;
 import mt.edu.um.cf2.jgribx.NotSupportedException;
+import mt.edu.um.cf2.jgribx.RecordLocator;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Calendar;
 
 /**
@@ -57,6 +60,11 @@ public class Grib1Record extends GribRecord
      */
     protected Grib1RecordBDS bds;
 
+    /**
+     * Values of a constant field, created on first access.
+     */
+    private volatile float[] constantValues;
+
     public Grib1Record()
     {
     }
@@ -120,20 +128,42 @@ public class Grib1Record extends GribRecord
         // number of values
         // rdg - added the check for a constant field - otherwise this fails
         if (!(record.bds.getIsConstant()) &&
-                record.bds.getValues().length != record.gds.getGridNX() * record.gds.getGridNY())
+                record.bds.getNumValues() != record.gds.getGridNX() * record.gds.getGridNY())
         {
             Logger.println("Grid should contain " +
                             record.gds.getGridNX() + " * " + record.gds.getGridNY() + " = " +
                             record.gds.getGridNX() * record.gds.getGridNY() + " values.",
                     Logger.ERROR);
             Logger.println("But BDS section delivers only " +
-                            record.bds.getValues().length + ".",
+                            record.bds.getNumValues() + ".",
                     Logger.ERROR);
         }
 
         return record;
     }
 
+    /**
+     * Reads only the product definition section of a record, which is sufficient to
+     * identify the record. The remaining sections are not read.
+     *
+     * @param in     bit input stream positioned just after the indicator section
+     * @param is     the indicator section of the record
+     * @param offset the offset in bytes of the start of the record
+     * @return a locator describing the record
+     * @throws IOException           if stream can not be opened etc.
+     * @throws NotSupportedException if the parameter is not supported
+     */
+    public static RecordLocator readLocatorFromStream(GribInputStream in, GribRecordIS is, long offset)
+            throws IOException, NotSupportedException
+    {
+        in.resetBitCounter();
+        Grib1RecordPDS pds = new Grib1RecordPDS(in);
+
+        return new RecordLocator(offset, is.getRecordLength(), is.getGribEdition(), GribCodes.MISSING,
+                pds.getCentreId(), pds.getProcessId(), pds.getParameterAbbreviation(), pds.level.getCode(),
+                pds.level.getIdentifier(), pds.level.getValues(), pds.getReferenceTime(), pds.forecastTime);
+    }
+
     /**
      * Get the bitmap section of this GRIB record.
      *
@@ -263,17 +293,44 @@ public class Grib1Record extends GribRecord
             return bds.getValues();
         }
 
-        int gridSize = gds.getGridNX() * gds.getGridNY();
-        float[] values = new float[gridSize];
-        float ref = bds.getReferenceValue();
-        for (int i = 0; i < gridSize; i++)
+        float[] values = constantValues;
+        if (values == null)
         {
-            values[i] = ref;
+            values = new float[getValueCount()];
+            Arrays.fill(values, bds.getReferenceValue());
+            constantValues = values;
         }
-
         return values;
     }
 
+    @Override
+    public int getValueCount()
+    {
+        if (bds.getIsConstant())
+        {
+            return gds.getGridNX() * gds.getGridNY();
+        }
+        return bds.getNumValues();
+    }
+
+    @Override
+    protected boolean unpackValues(float[] dst, int offset)
+    {
+        if (bds.getIsConstant())
+        {
+            Arrays.fill(dst, offset, offset + getValueCount(), bds.getReferenceValue());
+            return true;
+        }
+        return bds.getValues(dst, offset);
+    }
+
+    @Override
+    public void releaseValues()
+    {
+        bds.releaseValues();
+        constantValues = null;
+    }
+
     /**
      * Get a single value from the BDS using i/x, j/y index.
      * <p>
@@ -10,12 +10,17 @@
  */
 package mt.edu.um.cf2.jgribx.grib1;
 
+import mt.edu.um.cf2.jgribx.BitUnpacker;
+import mt.edu.um.cf2.jgribx.Bitmap;
 import mt.edu.um.cf2.jgribx.Bytes2Number;
+import mt.edu.um.cf2.jgribx.GribByteBufferInputStream;
 import mt.edu.um.cf2.jgribx.GribInputStream;
+import mt.edu.um.cf2.jgribx.Logger;
 import mt.edu.um.cf2.jgribx.NoValidGribException;
 import mt.edu.um.cf2.jgribx.NotSupportedException;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -53,20 +58,57 @@ public class Grib1RecordBDS
     protected int numbits;
 
     /**
-     * Array of parameter values.
+     * Array of parameter values, unpacked on first access if the packed values are retained.
      */
-    protected float[] values;
+    protected volatile float[] values;
 
     /**
-     * Minimal parameter value in grid.
+     * Packed values of this BDS (from octet 12 onwards), kept until the values are unpacked.
+     * This is only available if the record was read from a random-access stream.
+     */
+    private GribByteBufferInputStream content;
+
+    /**
+     * Packed values, if retained, from which single values are decoded without unpacking
+     * the whole field.
+     */
+    private ByteBuffer packed;
+
+    /**
+     * True if the field is stored in its packed form and its unpacked values are never
+     * retained (see {@link GribInputStream#setPackedStorage(boolean)}).
+     */
+    private boolean packedStorage;
+
+    /**
+     * Number of unused bits at the end of this BDS.
+     */
+    private int unusedBits;
+
+    /**
+     * Decimally scaled reference value and scale factor of the packed values.
+     */
+    private float ref;
+    private float scale;
+
+    private Grib1RecordBMS bms;
+    private Grib1RecordGDS gds;
+
+    /**
+     * Minimal parameter value in grid, found on first request.
      */
     protected float minvalue = Float.MAX_VALUE;
 
     /**
-     * Maximal parameter value in grid.
+     * Maximal parameter value in grid, found on first request.
      */
     protected float maxvalue = -Float.MAX_VALUE;
 
+    /**
+     * True once {@link #minvalue} and {@link #maxvalue} have been found.
+     */
+    private volatile boolean rangeFound;
+
     /**
      * rdg - added this to prevent a divide by zero error if variable data empty
      * <p>
@@ -106,13 +148,12 @@ public class Grib1RecordBDS
     public Grib1RecordBDS(GribInputStream in, Grib1RecordBMS bms, Grib1RecordGDS gds, Grib1RecordPDS pds)
             throws IOException, NotSupportedException
     {
-        byte[] octets = new byte[11];
         int unusedBits;
 
         /* Extract required information from PDS */
         int decimalScale = pds.decscale;
 
-        in.read(octets);
+        byte[] octets = in.read(11);
 
         /* octets 1-3 (section length) */
         length = Bytes2Number.bytesToUint(Arrays.copyOfRange(octets, 0, 3));
@@ -141,66 +182,147 @@ public class Grib1RecordBDS
 
         // *** read values ************************************************************
 
-        float ref = (float) (Math.pow(10.0, -decimalScale) * this.refvalue);
-        float scale = (float) (Math.pow(10.0, -decimalScale) * Math.pow(2.0, this.binscale));
+        this.ref = (float) (Math.pow(10.0, -decimalScale) * this.refvalue);
+        this.scale = (float) (Math.pow(10.0, -decimalScale) * Math.pow(2.0, this.binscale));
+        this.unusedBits = unusedBits;
+        this.bms = bms;
+        this.gds = gds;
+
+        boolean pointAccess = !isConstant && numbits <= BitUnpacker.MAX_BITS;
+        packedStorage = pointAccess && in.isPackedStorage();
+        if (in instanceof GribByteBufferInputStream)
+        {
+            // Keep a view of the packed values and skip them
+            GribByteBufferInputStream bufferIn = (GribByteBufferInputStream) in;
+            content = bufferIn.slice(bufferIn.getPosition(), length - 11);
+            in.skip(length - 11);
+        } else if (packedStorage)
+        {
+            // Keep a copy of the packed values
+            content = new GribByteBufferInputStream(in.readBuffer(length - 11));
+            content.setParallelDecoding(in.getParallelDecoding());
+        } else
+        {
+            this.values = new float[getNumValues()];
+            readValues(in, this.values, 0);
+            in.seekNextByte();
+            in.skip(unusedBits / 8);
+        }
+        if (pointAccess && content != null)
+        {
+            packed = content.slice(0, content.length()).readBuffer((int) content.length());
+        }
+    }
+
+    /**
+     * Unpacks the {@link #getNumValues()} values from a bit input stream positioned at octet 12
+     * of this BDS into the given array.
+     */
+    private void readValues(GribInputStream in, float[] values, int offset) throws IOException
+    {
+        int nValues = getNumValues();
 
         if (bms != null)
         {
-            boolean[] bitmap = bms.getBitmap();
+            Bitmap bitmap = bms.getPackedBitmap();
 
-            this.values = new float[bitmap.length];
-            for (int i = 0; i < bitmap.length; i++)
+            // Unpack the values of the points present in the bitmap at the end of the array, then move them
+            // forward to their position
+            int nPacked = bitmap.cardinality();
+            in.readUBits(this.numbits, nPacked, values, offset + nValues - nPacked, ref, scale);
+            bitmap.expand(values, offset, nValues, Grib1RecordBDS.UNDEFINED);
+        } else
+        {
+            if (!isConstant)
+            {
+                in.readUBits(this.numbits, nValues, values, offset, ref, scale);
+            } else
+            {
+                // constant valued - same min and max
+                Arrays.fill(values, offset, offset + nValues, ref);
+            }
+        }
+    }
+
+    /**
+     * Finds the minimum and maximum of the values present in this BDS. The packed values are
+     * scanned if they are retained, so that the field is not unpacked just for its range;
+     * since the scale factor is positive, the range of the values is that of the packed
+     * integers. As with the values themselves, a constant field has no range.
+     */
+    private synchronized void findRange()
+    {
+        if (rangeFound)
+        {
+            return;
+        }
+        float minvalue = Float.MAX_VALUE;
+        float maxvalue = -Float.MAX_VALUE;
+        if (!isConstant)
+        {
+            int nPresent = bms != null ? bms.getPackedBitmap().cardinality() : getNumValues();
+            if (packed != null)
             {
-                if (bitmap[i])
+                long min = Long.MAX_VALUE;
+                long max = Long.MIN_VALUE;
+                int[] chunk = new int[Math.min(nPresent, 4096)];
+                for (int k = 0; k < nPresent; k += chunk.length)
                 {
-                    if (!isConstant)
+                    int count = Math.min(chunk.length, nPresent - k);
+                    BitUnpacker.unpack(packed, (long) k * numbits, numbits, count, chunk, 0);
+                    for (int i = 0; i < count; i++)
                     {
-                        this.values[i] = ref + scale * in.readUBits(this.numbits);
-                        if (this.values[i] > this.maxvalue)
-                        {
-                            this.maxvalue = this.values[i];
-                        }
-                        if (this.values[i] < this.minvalue)
-                        {
-                            this.minvalue = this.values[i];
-                        }
-                    } else
-                    {// rdg - added this to handle a constant valued parameter
-                        this.values[i] = ref;
+                        long x = chunk[i] & 0xFFFFFFFFL;
+                        min = Math.min(min, x);
+                        max = Math.max(max, x);
                     }
-                } else
+                }
+                if (nPresent > 0)
                 {
-                    this.values[i] = Grib1RecordBDS.UNDEFINED;
+                    minvalue = ref + scale * min;
+                    maxvalue = ref + scale * max;
                 }
-            }
-        } else
-        {
-            if (!isConstant)
+            } else
             {
-                this.values = new float[((this.length - 11) * 8 - unusedBits) / this.numbits];
-
+                float[] values = getValues();
+                if (values == null)
+                {
+                    // The values cannot be unpacked, so leave the range to be found on the next request
+                    return;
+                }
+                Bitmap bitmap = bms != null ? bms.getPackedBitmap() : null;
                 for (int i = 0; i < values.length; i++)
                 {
-                    this.values[i] = ref + scale * in.readUBits(this.numbits);
-
-                    if (this.values[i] > this.maxvalue)
+                    if (bitmap == null || bitmap.get(i))
                     {
-                        this.maxvalue = this.values[i];
-                    }
-                    if (this.values[i] < this.minvalue)
-                    {
-                        this.minvalue = this.values[i];
+                        minvalue = Math.min(minvalue, values[i]);
+                        maxvalue = Math.max(maxvalue, values[i]);
                     }
                 }
-            } else
-            {
-                // constant valued - same min and max
-                values = new float[gds.grid_nx * gds.grid_ny];
-                Arrays.fill(values, ref);
             }
         }
-        in.seekNextByte();
-        in.skip(unusedBits / 8);
+        this.minvalue = minvalue;
+        this.maxvalue = maxvalue;
+        rangeFound = true;
+    }
+
+    /**
+     * Get the number of values in this BDS, without unpacking them.
+     *
+     * @return number of values in this BDS
+     */
+    public int getNumValues()
+    {
+        if (bms != null)
+        {
+            return bms.getPackedBitmap().size();
+        } else if (!isConstant)
+        {
+            return ((this.length - 11) * 8 - unusedBits) / this.numbits;
+        } else
+        {
+            return gds.grid_nx * gds.grid_ny;
+        }
     }
 
     /**
@@ -256,17 +378,93 @@ public class Grib1RecordBDS
     }
 
     /**
-     * Get data/parameter values as an array of float.
+     * Get data/parameter values as an array of float. If the values have not been unpacked
+     * yet, they are unpacked by the first call to this method; concurrent callers will wait
+     * for the values rather than unpacking them again.
      *
-     * @return array of parameter values
+     * @return array of parameter values, or null if the values cannot be unpacked
      */
     public float[] getValues()
     {
-        return this.values;
+        float[] values = this.values;
+        if (packedStorage)
+        {
+            // Fields stored in their packed form are unpacked on every request
+            values = new float[getNumValues()];
+            return getValues(values, 0) ? values : null;
+        }
+        if (values == null && content != null)
+        {
+            synchronized (this)
+            {
+                values = this.values;
+                if (values == null)
+                {
+                    try
+                    {
+                        content.seek(0);
+                        values = new float[getNumValues()];
+                        readValues(content, values, 0);
+                        this.values = values;
+                    } catch (IOException e)
+                    {
+                        Logger.println("Cannot unpack BDS values: " + e.getMessage(), Logger.ERROR);
+                    }
+                }
+            }
+        }
+        return values;
     }
 
     /**
-     * Get data/parameter value as a float.
+     * Unpacks the values into an array supplied by the caller. If the values have already
+     * been unpacked, they are copied instead. Unlike {@link #getValues()}, values unpacked by
+     * this method are not retained, so this method may be called concurrently to fill
+     * different arrays.
+     *
+     * @param dst    destination array, with room for {@link #getNumValues()} values from the offset
+     * @param offset index in the destination array of the first value
+     * @return true if the values have been unpacked, false if they cannot be unpacked
+     */
+    public boolean getValues(float[] dst, int offset)
+    {
+        float[] values = this.values;
+        if (values != null)
+        {
+            System.arraycopy(values, 0, dst, offset, values.length);
+            return true;
+        }
+        if (content == null)
+        {
+            return false;
+        }
+        try
+        {
+            // Use a separate stream so that the retained one is not disturbed
+            readValues(content.slice(0, content.length()), dst, offset);
+            return true;
+        } catch (IOException e)
+        {
+            Logger.println("Cannot unpack BDS values: " + e.getMessage(), Logger.ERROR);
+            return false;
+        }
+    }
+
+    /**
+     * Discard the unpacked values to free memory. The values are unpacked again when they
+     * are next requested. This has no effect if the packed values were not retained.
+     */
+    public void releaseValues()
+    {
+        if (content != null)
+        {
+            values = null;
+        }
+    }
+
+    /**
+     * Get data/parameter value as a float. If the values have not been unpacked yet and the
+     * packed values are retained, only the bits of the requested value are decoded.
      *
      * @param index
      * @return array of parameter values
@@ -274,9 +472,34 @@ public class Grib1RecordBDS
      */
     public float getValue(int index) throws NoValidGribException
     {
-        if (index >= 0 && index < values.length)
+        if (this.values == null && packed != null)
+        {
+            // Decode the value from its bit offset rather than unpacking all values
+            if (index < 0 || index >= getNumValues())
+            {
+                throw new NoValidGribException("GribRecordBDS: Array index out of bounds");
+            }
+            int k = index;
+            if (bms != null)
+            {
+                Bitmap bitmap = bms.getPackedBitmap();
+                if (!bitmap.get(index))
+                {
+                    return UNDEFINED;
+                }
+                k = bitmap.rank(index);
+            }
+            if ((long) (k + 1) * numbits > (long) packed.limit() * 8)
+            {
+                throw new NoValidGribException("GribRecordBDS: Value lies beyond the end of the section");
+            }
+            return ref + scale * BitUnpacker.get(packed, (long) k * numbits, numbits);
+        }
+
+        float[] values = getValues();
+        if (values != null && index >= 0 && index < values.length)
         {
-            return this.values[index];
+            return values[index];
         }
         throw new NoValidGribException("GribRecordBDS: Array index out of bounds");
     }
@@ -288,6 +511,7 @@ public class Grib1RecordBDS
      */
     public float getMinValue()
     {
+        findRange();
         return minvalue;
     }
 
@@ -298,6 +522,7 @@ public class Grib1RecordBDS
      */
     public float getMaxValue()
     {
+        findRange();
         return maxvalue;
     }
 
@@ -310,7 +535,7 @@ public class Grib1RecordBDS
     public String toString()
     {
         return "    BDS section:" + '\n' +
-                "        min/max value: " + this.minvalue + " " + this.maxvalue + "\n" +
+                "        min/max value: " + getMinValue() + " " + getMaxValue() + "\n" +
                 "        ref. value: " + this.refvalue + "\n" +
                 "        is a constant: " + this.isConstant + "\n" +
                 "        bin. scale: " + this.binscale + "\n" +
@@ -10,6 +10,7 @@
  */
 package mt.edu.um.cf2.jgribx.grib1;
 
+import mt.edu.um.cf2.jgribx.Bitmap;
 import mt.edu.um.cf2.jgribx.Bytes2Number;
 import mt.edu.um.cf2.jgribx.GribInputStream;
 import mt.edu.um.cf2.jgribx.NoValidGribException;
@@ -34,7 +35,7 @@ public class Grib1RecordBMS
     /**
      * The bit map.
      */
-    protected boolean[] bitmap;
+    protected Bitmap bitmap;
 
     /**
      * Constructs a <tt>GribRecordBMS</tt> object from a bit input stream.
@@ -46,34 +47,20 @@ public class Grib1RecordBMS
     public Grib1RecordBMS(GribInputStream in) throws IOException, NoValidGribException
     {
 
-        byte[] octets;
-        int[] bitmask = {128, 64, 32, 16, 8, 4, 2, 1};
-
-        octets = new byte[3];
-        in.read(octets);
+        byte[] octets = in.read(6);
 
         // octets 1-3 (length of section)
         this.length = Bytes2Number.bytesToUint(Arrays.copyOfRange(octets, 0, 3));
-
-        // read rest of section
-        octets = new byte[this.length - 3];
-        in.read(octets);
-        int nBitsUnused = Bytes2Number.bytesToUint(octets[0]);
+        int nBitsUnused = Bytes2Number.bytesToUint(octets[3]);
 
         // octets 5-6
-        if (octets[1] != 0 || octets[2] != 0)
+        if (octets[4] != 0 || octets[5] != 0)
         {
             throw new NoValidGribException("GribRecordBMS: No bit map defined here.");
         }
 
-        // create new bit map, octet 4 contains number of unused bits at the end
-        this.bitmap = new boolean[(this.length - 6) * 8 - nBitsUnused];
-
-        // fill bit map
-        for (int i = 0; i < this.bitmap.length; i++)
-        {
-            this.bitmap[i] = (octets[i / 8 + 3] & bitmask[i % 8]) != 0;
-        }
+        // octet 4 contains number of unused bits at the end
+        this.bitmap = Bitmap.readFromStream(in, this.length - 6, (this.length - 6) * 8 - nBitsUnused);
     }
 
     /**
@@ -87,11 +74,22 @@ public class Grib1RecordBMS
     }
 
     /**
-     * Get bit map.
+     * Get bit map. A new array is created on each call, so {@link #getPackedBitmap()} should be
+     * preferred.
      *
      * @return bit map as array of boolean values
      */
     public boolean[] getBitmap()
+    {
+        return this.bitmap.toBooleanArray();
+    }
+
+    /**
+     * Get bit map.
+     *
+     * @return bit map packed into words
+     */
+    public Bitmap getPackedBitmap()
     {
         return this.bitmap;
     }
@@ -105,6 +103,6 @@ public class Grib1RecordBMS
     public String toString()
     {
         return "    BMS section:" + '\n' +
-                "        bitmap length: " + this.bitmap.length;
+                "        bitmap length: " + this.bitmap.size();
     }
 }
\ No newline at end of file
@@ -31,7 +31,7 @@ public class Grib2Parameter
     private final String units;
 
     private static final List<Grib2Parameter> paramList = new ArrayList<>();
-    private static boolean defaultLoaded = false;
+    private static volatile boolean defaultLoaded = false;
 
     public Grib2Parameter(ProductDiscipline discipline, ParameterCategory category, int index, String abbrev, String desc, String units)
     {
@@ -43,8 +43,13 @@ public class Grib2Parameter
         this.units = units;
     }
 
-    public static void loadDefaultParameters()
+    public static synchronized void loadDefaultParameters()
     {
+        // Records may be parsed concurrently, in which case only the first caller loads the parameters
+        if (defaultLoaded)
+        {
+            return;
+        }
         String filename;
 
         Logger.println("Number of product disciplines: " + ProductDiscipline.getValues().size(), Logger.DEBUG);
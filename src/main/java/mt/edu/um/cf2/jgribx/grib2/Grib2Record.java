@@ -16,6 +16,7 @@ import mt.edu.um.cf2.jgribx.GribRecordIS;
 import mt.edu.um.cf2.jgribx.Logger;
 import mt.edu.um.cf2.jgribx.NoValidGribException;
 import mt.edu.um.cf2.jgribx.NotSupportedException;
+import mt.edu.um.cf2.jgribx.RecordLocator;
 import mt.edu.um.cf2.jgribx.grib2.Grib2RecordGDS.ScanMode;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.LoggerFactory;
@@ -108,6 +109,69 @@ public class Grib2Record extends GribRecord
         return record;
     }
 
+    /**
+     * Reads only the identification section and the first product definition section of
+     * a record, which are sufficient to identify the record. Any other sections found
+     * before the product definition section are skipped without being parsed.
+     *
+     * @param in     bit input stream positioned just after the indicator section
+     * @param is     the indicator section of the record
+     * @param offset the offset in bytes of the start of the record
+     * @return a locator describing the record
+     * @throws IOException           if stream can not be opened etc.
+     * @throws NotSupportedException if the product definition is not supported
+     * @throws NoValidGribException  if the record does not contain a valid product definition
+     */
+    public static RecordLocator readLocatorFromStream(GribInputStream in, GribRecordIS is, long offset)
+            throws IOException, NotSupportedException, NoValidGribException
+    {
+        long recordLength = is.getRecordLength() - is.getLength();
+
+        Grib2RecordIDS ids = null;
+        while (recordLength > 4)
+        {
+            in.mark(10);
+            int sectionLength = in.readUINT(4);
+            int section = in.readUINT(1);
+            in.reset();
+            in.resetBitCounter();
+
+            switch (section)
+            {
+                case 1:
+                    ids = Grib2RecordIDS.readFromStream(in);
+                    if (in.getByteCounter() < sectionLength)
+                    {
+                        in.skip(sectionLength - in.getByteCounter());
+                    }
+                    break;
+                case 2:
+                case 3:
+                case 5:
+                case 6:
+                case 7:
+                    in.skip(sectionLength);
+                    break;
+                case 4:
+                    if (ids == null)
+                    {
+                        throw new NoValidGribException("PDS encountered before IDS");
+                    }
+                    Grib2RecordPDS pds = new Grib2RecordPDS(in, is.getDiscipline(), ids.referenceTime);
+                    return new RecordLocator(offset, is.getRecordLength(), is.getGribEdition(),
+                            is.getDiscipline().getValue(), ids.getCentreId(), pds.getProcessId(),
+                            pds.getParameterAbbrev(), pds.getLevelCode(), pds.getLevelIdentifier(),
+                            pds.getLayer().getValues(), ids.referenceTime, pds.getForecastTime());
+                default:
+                    throw new NoValidGribException("Invalid section encountered");
+            }
+
+            recordLength -= sectionLength;
+        }
+
+        throw new NoValidGribException("Record does not contain a PDS");
+    }
+
     @Override
     public int getCentreId()
     {
@@ -238,12 +302,19 @@ public class Grib2Record extends GribRecord
             System.err.println("Unsupported scan mode found");
         }
 
-        if (scanMode.iDirectionConsecutive)
+        try
         {
-            value = dsList.get(0).data[gds.gridNi * j + i];
-        } else
+            if (scanMode.iDirectionConsecutive)
+            {
+                value = dsList.get(0).getValue(gds.gridNi * j + i);
+            } else
+            {
+                value = dsList.get(0).getValue(gds.gridNj * i + j);
+            }
+        } catch (NoValidGribException e)
         {
-            value = dsList.get(0).data[gds.gridNj * i + j];
+            Logger.println("Cannot find a value for the given lat-long: " + e.getMessage(), Logger.ERROR);
+            return DEFAULT_UNKNOWN_VALUE;
         }
 
         return value;
@@ -298,7 +369,34 @@ public class Grib2Record extends GribRecord
             return null;
         }
 
-        return dsList.get(0).data;
+        return dsList.get(0).getData();
+    }
+
+    @Override
+    public int getValueCount()
+    {
+        return dsList.get(0).getNumValues();
+    }
+
+    @Override
+    protected boolean unpackValues(float[] dst, int offset)
+    {
+        if (dsList.size() > 1)
+        {
+            logger.warn("Unsupported Grib2RecordDS count, maximum allowed is 1 (currently the only implementation).");
+            return false;
+        }
+
+        return dsList.get(0).getData(dst, offset);
+    }
+
+    @Override
+    public void releaseValues()
+    {
+        for (Grib2RecordDS ds : dsList)
+        {
+            ds.releaseData();
+        }
     }
 
     /**
@@ -10,6 +10,7 @@
  */
 package mt.edu.um.cf2.jgribx.grib2;
 
+import mt.edu.um.cf2.jgribx.Bitmap;
 import mt.edu.um.cf2.jgribx.GribInputStream;
 import mt.edu.um.cf2.jgribx.Logger;
 import mt.edu.um.cf2.jgribx.NotSupportedException;
@@ -28,7 +29,7 @@ public class Grib2RecordBMS
 
     protected Indicator indicator;
     protected int length;
-    protected int[] bitmap;
+    protected Bitmap bitmap;
 
     public static Grib2RecordBMS readFromStream(GribInputStream in) throws IOException, NotSupportedException
     {
@@ -54,7 +55,7 @@ public class Grib2RecordBMS
                 bms.bitmap = null;
                 break;
             case BITMAP_SPECIFIED:
-                bms.bitmap = in.readUI8(bms.length - 6);
+                bms.bitmap = Bitmap.readFromStream(in, bms.length - 6, (bms.length - 6) * 8);
                 break;
             default:
                 throw new NotSupportedException("BMS bitmap not yet supported");
@@ -62,6 +63,16 @@ public class Grib2RecordBMS
         return bms;
     }
 
+    /**
+     * Get bit map.
+     *
+     * @return bit map, or null if no bit map applies to the data
+     */
+    public Bitmap getBitmap()
+    {
+        return bitmap;
+    }
+
     private Indicator determineIndicator(int value)
     {
         Indicator ind;
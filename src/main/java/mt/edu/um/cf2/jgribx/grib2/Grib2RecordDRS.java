@@ -26,6 +26,12 @@ import static mt.edu.um.cf2.jgribx.Bytes2Number.INT_SM;
  */
 public class Grib2RecordDRS
 {
+    /**
+     * Precisions of IEEE floating-point values (Code Table 5.7)
+     */
+    protected static final int IEEE_32 = 1;
+    protected static final int IEEE_64 = 2;
+
     private enum CompressionType
     {
         LOSSLESS,
@@ -55,6 +61,12 @@ public class Grib2RecordDRS
     protected int length;
     protected float missingValue;
     protected int missingValueManagement;
+
+    /**
+     * Values substituted for missing values (complex packing only)
+     */
+    protected float primaryMissingValue;
+    protected float secondaryMissingValue;
     protected int nBits;
     protected int nBitsScaledGroupLengths;
     protected int nDataPoints;
@@ -68,6 +80,11 @@ public class Grib2RecordDRS
     protected CompressionType compressionType;
     protected int compressionRatio;
 
+    /**
+     * Precision of IEEE floating-point values (Code Table 5.7)
+     */
+    protected int precision;
+
     public static Grib2RecordDRS readFromStream(GribInputStream in) throws IOException, NotSupportedException, NoValidGribException
     {
         Grib2RecordDRS drs = new Grib2RecordDRS();
@@ -101,8 +118,18 @@ public class Grib2RecordDRS
                 drs.originalFieldValuesType = in.readUINT(1);
                 int splitMethod = in.readUINT(1);
                 drs.missingValueManagement = in.readUINT(1);
+                // Missing value substitutes are floating-point if the original field values were (Code Table 5.1)
                 int primaryMissingValue = in.readUINT(4);
                 int secondaryMissingValue = in.readUINT(4);
+                if (drs.originalFieldValuesType == 0)
+                {
+                    drs.primaryMissingValue = Float.intBitsToFloat(primaryMissingValue);
+                    drs.secondaryMissingValue = Float.intBitsToFloat(secondaryMissingValue);
+                } else
+                {
+                    drs.primaryMissingValue = primaryMissingValue;
+                    drs.secondaryMissingValue = secondaryMissingValue;
+                }
                 drs.nGroups = in.readUINT(4);
                 drs.refGroupWidths = in.readUINT(1);
                 drs.groupWidthBits = in.readUINT(1);
@@ -120,10 +147,10 @@ public class Grib2RecordDRS
                         drs.missingValue = Float.NaN;
                         break;
                     case 1:
-                        drs.missingValue = primaryMissingValue;
+                        drs.missingValue = drs.primaryMissingValue;
                         break;
                     case 2:
-                        drs.missingValue = secondaryMissingValue;
+                        drs.missingValue = drs.secondaryMissingValue;
                         break;
                     default:
                         Logger.println("Unexpected value for missingValueManagement", Logger.WARNING);
@@ -131,6 +158,14 @@ public class Grib2RecordDRS
                         break;
                 }
                 break;
+            case 4:
+                /* Grid Point Data - IEEE Floating Point Data */
+                drs.precision = in.readUINT(1);
+                if (drs.precision != IEEE_32 && drs.precision != IEEE_64)
+                {
+                    throw new NotSupportedException("IEEE floating-point precision " + drs.precision + " not supported");
+                }
+                break;
             case 40:
                 /* Grid Point Data - JPEG 2000 code stream format */
                 drs.refValue = in.readFloat(4, FLOAT_IEEE754);
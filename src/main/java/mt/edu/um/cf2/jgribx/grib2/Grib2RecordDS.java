@@ -10,22 +10,66 @@
  */
 package mt.edu.um.cf2.jgribx.grib2;
 
+import mt.edu.um.cf2.jgribx.BitUnpacker;
+import mt.edu.um.cf2.jgribx.Bitmap;
+import mt.edu.um.cf2.jgribx.GribByteBufferInputStream;
 import mt.edu.um.cf2.jgribx.GribInputStream;
+import mt.edu.um.cf2.jgribx.Kernels;
 import mt.edu.um.cf2.jgribx.Logger;
 import mt.edu.um.cf2.jgribx.NoValidGribException;
 import mt.edu.um.cf2.jgribx.NotSupportedException;
-import mt.edu.um.cf2.jgribx.grib2.Grib2RecordBMS.Indicator;
+import mt.edu.um.cf2.jgribx.ParallelDecoding;
 import ucar.nc2.grib.grib2.Grib2JpegDecoder;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
 
 import static mt.edu.um.cf2.jgribx.Bytes2Number.INT_SM;
 
 public class Grib2RecordDS
 {
     protected int length;
-    protected float[] data;
-
+    protected volatile float[] data;
+
+    /**
+     * Packed content of this section (excluding the first 5 octets), kept until the values
+     * are decoded. This is only available if the record was read from a random-access stream.
+     */
+    private GribByteBufferInputStream content;
+
+    /**
+     * Packed values of a simple-packed field whose packed data is retained, from which single
+     * values are decoded without unpacking the whole field.
+     */
+    private ByteBuffer packed;
+
+    /**
+     * True if the field is stored in its packed form and its unpacked data is never retained
+     * (see {@link GribInputStream#setPackedStorage(boolean)}).
+     */
+    private boolean packedStorage;
+    private Grib2RecordDRS drs;
+    private Grib2RecordGDS gds;
+    private Grib2RecordBMS bms;
+
+    /**
+     * Reads a data section from a bit input stream. If the stream is a {@link GribByteBufferInputStream},
+     * the data is not unpacked until it is first requested using {@link #getData()}; otherwise it is
+     * unpacked immediately.
+     *
+     * @param in  bit input stream with DS content
+     * @param drs data representation section of the record
+     * @param gds grid definition section of the record
+     * @param bms bitmap section of the record
+     * @return the data section
+     * @throws IOException           if stream can not be opened etc.
+     * @throws NotSupportedException if the packing type is not supported
+     * @throws NoValidGribException  if the packed data is not valid
+     */
     public static Grib2RecordDS readFromStream(GribInputStream in, Grib2RecordDRS drs, Grib2RecordGDS gds, Grib2RecordBMS bms)
             throws IOException, NotSupportedException, NoValidGribException
     {
@@ -39,96 +83,403 @@ public class Grib2RecordDS
             return null;
         }
 
-        float[] data;
         switch (drs.packingType)
         {
             case 0:
-                data = unpackSimplePacking(in, drs, gds, bms);
+            case 3:
+            case 4:
+            case 40:
+                break;
+            default:
+                throw new NotSupportedException("Unsupported packing type " + drs.packingType);
+        }
+
+        ds.drs = drs;
+        ds.gds = gds;
+        ds.bms = bms;
+        boolean simplePacking = drs.packingType == 0 && drs.nBits <= BitUnpacker.MAX_BITS;
+        ds.packedStorage = simplePacking && in.isPackedStorage();
+        if (in instanceof GribByteBufferInputStream)
+        {
+            // Keep a view of the packed data and skip it
+            GribByteBufferInputStream bufferIn = (GribByteBufferInputStream) in;
+            ds.content = bufferIn.slice(bufferIn.getPosition(), ds.length - 5);
+            in.skip(ds.length - 5);
+        } else if (ds.packedStorage)
+        {
+            // Keep a copy of the packed data
+            ds.content = new GribByteBufferInputStream(in.readBuffer(ds.length - 5));
+            ds.content.setParallelDecoding(in.getParallelDecoding());
+        } else
+        {
+            long start = in.getPosition();
+            ds.data = new float[ds.getNumValues()];
+            unpack(in, ds.length, drs, gds, bms, ds.data, 0);
+
+            // Discard the bits left in the last byte and any padding, so that the next record
+            // is read from the start of a byte
+            in.seekNextByte();
+            in.skip(ds.length - 5 - (in.getPosition() - start));
+        }
+        if (simplePacking && ds.content != null)
+        {
+            ds.packed = ds.content.slice(0, ds.content.length()).readBuffer((int) ds.content.length());
+        }
+        return ds;
+    }
+
+    /**
+     * Unpacks the data into the given array, writing {@link #getNumValues()} values.
+     */
+    private static void unpack(GribInputStream in, int dsLength, Grib2RecordDRS drs, Grib2RecordGDS gds,
+                               Grib2RecordBMS bms, float[] dst, int offset)
+            throws IOException, NotSupportedException, NoValidGribException
+    {
+        switch (drs.packingType)
+        {
+            case 0:
+                unpackSimplePacking(in, drs, gds, bms, dst, offset);
                 break;
             case 3:
-                data = unpackComplexPackingAndSpatialDifferencing(in, drs, gds, bms);
+                unpackComplexPackingAndSpatialDifferencing(in, drs, gds, bms, dst, offset);
+                break;
+            case 4:
+                unpackIeee(in, dsLength, drs, gds, bms, dst, offset);
                 break;
             case 40:
-                data = unpackJpeg2000(in, ds.length, drs, gds, bms);
+                unpackJpeg2000(in, dsLength, drs, gds, bms, dst, offset);
                 break;
             default:
                 throw new NotSupportedException("Unsupported packing type " + drs.packingType);
         }
+    }
 
-        // Sanity checking of data
+    /**
+     * Returns the number of unpacked values, without unpacking them.
+     *
+     * @return the number of unpacked values
+     */
+    public int getNumValues()
+    {
+        if (drs.packingType == 0 && bms.bitmap != null)
+        {
+            return Math.min(gds.nDataPoints, bms.bitmap.size());
+        }
+        return gds.nDataPoints;
+    }
+
+    /**
+     * Returns the unpacked data, unpacking it first if this has not been done yet.
+     * This method is thread-safe: the data is unpacked only once, even if this method
+     * is called concurrently.
+     *
+     * @return the unpacked data, or {@code null} if the data cannot be unpacked
+     */
+    public float[] getData()
+    {
+        float[] data = this.data;
+        if (packedStorage)
+        {
+            // Fields stored in their packed form are unpacked on every request
+            data = new float[getNumValues()];
+            return getData(data, 0) ? data : null;
+        }
+        if (data == null && content != null)
+        {
+            synchronized (this)
+            {
+                data = this.data;
+                if (data == null)
+                {
+                    try
+                    {
+                        content.seek(0);
+                        content.resetBitCounter();
+                        data = new float[getNumValues()];
+                        unpack(content, length, drs, gds, bms, data, 0);
+                        this.data = data;
+                    } catch (IOException | NotSupportedException | NoValidGribException e)
+                    {
+                        Logger.println("Cannot unpack data section: " + e.getMessage(), Logger.ERROR);
+                    }
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Unpacks the data into an array supplied by the caller. If the data has already been
+     * unpacked, it is copied instead. Unlike {@link #getData()}, data unpacked by this method
+     * is not retained, so this method may be called concurrently to fill different arrays.
+     *
+     * @param dst    destination array, with room for {@link #getNumValues()} values from the offset
+     * @param offset index in the destination array of the first value
+     * @return true if the data has been unpacked, false if it cannot be unpacked
+     */
+    public boolean getData(float[] dst, int offset)
+    {
+        float[] data = this.data;
+        if (data != null)
+        {
+            System.arraycopy(data, 0, dst, offset, data.length);
+            return true;
+        }
+        if (content == null)
+        {
+            return false;
+        }
+        try
+        {
+            // Use a separate stream so that the retained one is not disturbed
+            unpack(content.slice(0, content.length()), length, drs, gds, bms, dst, offset);
+            return true;
+        } catch (IOException | NotSupportedException | NoValidGribException e)
+        {
+            Logger.println("Cannot unpack data section: " + e.getMessage(), Logger.ERROR);
+            return false;
+        }
+    }
+
+    /**
+     * Returns a single unpacked value. If the data has not been unpacked yet, the value of a
+     * simple-packed field is decoded from its bit offset in the retained packed data, in
+     * constant time; for other fields the whole field is unpacked by {@link #getData()}.
+     *
+     * @param index index of the value, from 0 to {@link #getNumValues()} - 1
+     * @return the value
+     * @throws NoValidGribException if the index is out of bounds or the data cannot be unpacked
+     */
+    public float getValue(int index) throws NoValidGribException
+    {
+        if (index < 0 || index >= getNumValues())
+        {
+            throw new NoValidGribException("Value index " + index + " out of bounds (" + getNumValues() + " values)");
+        }
+        float[] data = this.data;
+        if (data != null)
+        {
+            return data[index];
+        }
+        if (packed != null)
+        {
+            Bitmap bitmap = bms.bitmap;
+            int k = index;
+            if (bitmap != null)
+            {
+                if (!bitmap.get(index))
+                {
+                    return drs.missingValue;
+                }
+                k = bitmap.rank(index);
+            }
+            if ((long) (k + 1) * drs.nBits > (long) packed.limit() * 8)
+            {
+                throw new NoValidGribException("Value " + index + " lies beyond the end of the data section");
+            }
+            float ref = (float) (Math.pow(10, -drs.decimalScaleFactor) * drs.refValue);
+            float scale = (float) (Math.pow(10, -drs.decimalScaleFactor) * Math.pow(2, drs.binaryScaleFactor));
+            return ref + scale * BitUnpacker.get(packed, (long) k * drs.nBits, drs.nBits);
+        }
+
+        data = getData();
         if (data == null)
         {
-            throw new NotSupportedException("Unpacked data is null.");
+            throw new NoValidGribException("Cannot unpack data section");
         }
+        return data[index];
+    }
 
-        ds.data = data;
-        return ds;
+    /**
+     * Discards the unpacked data to free memory. The data is unpacked again when it is next
+     * requested. This has no effect if the packed data was not retained.
+     */
+    public void releaseData()
+    {
+        if (content != null)
+        {
+            data = null;
+        }
     }
 
-    private static float[] unpackSimplePacking(GribInputStream in, Grib2RecordDRS drs, Grib2RecordGDS gds, Grib2RecordBMS bms)
-            throws IOException, NotSupportedException
+    private static void unpackSimplePacking(GribInputStream in, Grib2RecordDRS drs, Grib2RecordGDS gds,
+                                            Grib2RecordBMS bms, float[] values, int offset) throws IOException
     {
         float ref = (float) (Math.pow(10, -drs.decimalScaleFactor) * drs.refValue);
         float scale = (float) (Math.pow(10, -drs.decimalScaleFactor) * Math.pow(2, drs.binaryScaleFactor));
-        boolean isConstant = drs.nBits == 0;
-        float[] values;
         int nPoints = gds.nDataPoints;
 
         if (bms.bitmap != null)
         {
             // Obtain values from bitmap
-            if (gds.nDataPoints != bms.bitmap.length * 8)
+            if (gds.nDataPoints != bms.bitmap.size())
             {
                 Logger.println("Number of grid data points (" + gds.nDataPoints + ") does not match bitmap size ("
-                        + bms.bitmap.length * 8 + ")", Logger.WARNING);
-                nPoints = Math.min(gds.nDataPoints, bms.bitmap.length * 8);
+                        + bms.bitmap.size() + ")", Logger.WARNING);
+                nPoints = Math.min(gds.nDataPoints, bms.bitmap.size());
             }
-            values = new float[nPoints];
 
-            for (int i = 0; i < values.length; i++)
+            // Unpack the values of the points present in the bitmap at the end of the array, then move them
+            // forward to their position
+            int nValues = bms.bitmap.cardinality(nPoints);
+            in.readUBits(drs.nBits, nValues, values, offset + nPoints - nValues, ref, scale);
+            bms.bitmap.expand(values, offset, nPoints, drs.missingValue);
+        } else
+        {
+            in.readUBits(drs.nBits, nPoints, values, offset, ref, scale);
+        }
+    }
+
+    /**
+     * Unpacks IEEE floating-point values (template 5.4) by reading the whole section through a
+     * big-endian {@link FloatBuffer} or {@link DoubleBuffer} view, which does not copy the
+     * section if the stream is backed by a buffer.
+     */
+    private static void unpackIeee(GribInputStream in, int dsLength, Grib2RecordDRS drs, Grib2RecordGDS gds,
+                                   Grib2RecordBMS bms, float[] values, int offset)
+            throws IOException, NoValidGribException
+    {
+        ByteBuffer buf = in.readBuffer(dsLength - 5).order(ByteOrder.BIG_ENDIAN);
+        int nAvailable = buf.remaining() / (drs.precision == Grib2RecordDRS.IEEE_64 ? 8 : 4);
+        int nPoints = gds.nDataPoints;
+        int nValues = nPoints;
+        if (bms.bitmap != null)
+        {
+            nPoints = Math.min(gds.nDataPoints, bms.bitmap.size());
+            nValues = bms.bitmap.cardinality(nPoints);
+        }
+        if (nAvailable < nValues)
+        {
+            throw new NoValidGribException("Data section holds " + nAvailable + " IEEE values but "
+                    + nValues + " are required");
+        }
+
+        // Values of the points present in the bitmap are read at the end of the array, then moved
+        // forward to their position
+        int packed = offset + nPoints - nValues;
+        if (drs.precision == Grib2RecordDRS.IEEE_64)
+        {
+            DoubleBuffer doubles = buf.asDoubleBuffer();
+            for (int i = 0; i < nValues; i++)
             {
-                // Check if current bit in bitmap is set
-                if ((bms.bitmap[i / 8] & (1 << (i % 8))) != 0)
-                {
-                    if (!isConstant)
-                    {
-                        values[i] = ref + scale * in.readUBits(drs.nBits);
-                    } else
-                    {
-                        values[i] = ref;
-                    }
-                } else
-                {
-                    // Missing grid value
-                    values[i] = drs.missingValue;
-                }
+                values[packed + i] = (float) doubles.get(i);
             }
         } else
         {
-            throw new NotSupportedException("Not supported yet!");
+            buf.asFloatBuffer().get(values, packed, nValues);
+        }
+        if (bms.bitmap != null)
+        {
+            bms.bitmap.expand(values, offset, nPoints, drs.missingValue);
+            Arrays.fill(values, offset + nPoints, offset + gds.nDataPoints, drs.missingValue);
         }
+    }
+
+    /**
+     * Scratch arrays used by complex packing, kept per thread and grown as needed so that
+     * decoding a sequence of fields does not allocate them again for each field. Fields of more
+     * than {@link #MAX_SCRATCH_VALUES} values or groups use arrays of their own instead.
+     */
+    private static final class ComplexScratch
+    {
+        int[] groupRefs = new int[0];
+        int[] groupWidths = new int[0];
+        int[] groupLengths = new int[0];
+        int[] values = new int[0];
+        byte[] missing = new byte[0];
 
-        return values;
+        void ensureGroups(int nGroups)
+        {
+            if (groupRefs.length < nGroups)
+            {
+                groupRefs = new int[nGroups];
+                groupWidths = new int[nGroups];
+                groupLengths = new int[nGroups];
+            }
+        }
+
+        void ensureValues(int nValues, boolean withMissing)
+        {
+            if (values.length < nValues)
+            {
+                values = new int[nValues];
+            }
+            if (withMissing && missing.length < nValues)
+            {
+                missing = new byte[nValues];
+            }
+        }
+    }
+
+    /**
+     * Minimum number of values in each part of a parallel spatial differencing scan.
+     */
+    private static final int SCAN_GRANULARITY = 1 << 16;
+
+    /**
+     * Largest number of values or groups for which scratch arrays are kept per thread, so that
+     * a thread which once decoded a huge field does not hold on to its arrays.
+     */
+    private static final int MAX_SCRATCH_VALUES = 1 << 21;
+
+    private static final ThreadLocal<ComplexScratch> COMPLEX_SCRATCH = ThreadLocal.withInitial(ComplexScratch::new);
+
+    /**
+     * JPEG2000 decoders are not thread safe, but can be reused for any number of fields.
+     */
+    private static final ThreadLocal<Grib2JpegDecoder> JPEG_DECODER =
+            ThreadLocal.withInitial(() -> new Grib2JpegDecoder(0, false));
+
+    /**
+     * Kinds of values recorded in {@link ComplexScratch#missing}.
+     */
+    private static final byte PRESENT = 0;
+    private static final byte PRIMARY_MISSING = 1;
+    private static final byte SECONDARY_MISSING = 2;
+
+    private static void checkComplexBits(int nBits) throws NotSupportedException
+    {
+        if (nBits < 0 || nBits > 31)
+        {
+            throw new NotSupportedException("Complex packing with " + nBits + "-bit values is not supported");
+        }
     }
 
-    private static float[] unpackComplexPackingAndSpatialDifferencing(
-            GribInputStream in, Grib2RecordDRS drs, Grib2RecordGDS gds, Grib2RecordBMS bms
+    /**
+     * Unpacks data using complex packing and spatial differencing (DRS template 5.3).
+     * <p>
+     * The groups are expanded and the spatial differences are undone in the integer domain,
+     * so that no precision is lost however many values are accumulated, and each value is
+     * then scaled using {@code Y = (R + X * 2^E) / 10^D} in a single pass which also places
+     * the missing values.
+     */
+    private static void unpackComplexPackingAndSpatialDifferencing(
+            GribInputStream in, Grib2RecordDRS drs, Grib2RecordGDS gds, Grib2RecordBMS bms, float[] data, int offset
     ) throws IOException, NotSupportedException
     {
         float DD = (float) Math.pow(10, drs.decimalScaleFactor);
         float R = drs.refValue;
         float EE = (float) Math.pow(2, drs.binaryScaleFactor);
-        float refVal = R / DD;
         int NG = drs.nGroups;
+        int mvm = drs.missingValueManagement;
         if (NG == 0)
         {
-            System.err.println("Zero groups not supported yet");
+            throw new NotSupportedException("Complex packing without groups is not supported");
+        }
+        if (mvm > 2)
+        {
+            throw new NotSupportedException("Missing value management " + mvm + " is not supported");
         }
+        // Group references, widths and lengths, as well as the values, are unpacked as int
+        checkComplexBits(drs.nBits);
+        checkComplexBits(drs.groupWidthBits);
+        checkComplexBits(drs.nBitsScaledGroupLengths);
+
         int os = drs.spatialDiffOrder;
         int descriptorOctets = drs.spatialDescriptorOctets;
-        int ival1 = 0;
-        int ival2 = 0;
-        int minsd = 0;
+        long ival1 = 0;
+        long ival2 = 0;
+        long minsd = 0;
         if (descriptorOctets > 0)
         {
             // first order spatial differencing g1 and gMin
@@ -143,296 +494,378 @@ public class Grib2RecordDS
             minsd = in.readINT(descriptorOctets, INT_SM);
         } else
         {
-            float[] data = new float[gds.getNumberOfDataPoints()];
-            for (int i = 0; i < data.length; i++)
-            {
-                data[i] = drs.missingValue;
-            }
-            return data;
+            Arrays.fill(data, offset, offset + gds.getNumberOfDataPoints(), drs.missingValue);
+            return;
         }
 
-        int[] X1 = new int[NG];
-        if (drs.nBits != 0)
-        {
-            in.seekNextByte();
-            for (int i = 0; i < NG; i++)
-            {
-                X1[i] = (int) in.readUBits(drs.nBits);
-            }
-        }
+        ComplexScratch scratch = Math.max(NG, drs.nDataPoints) <= MAX_SCRATCH_VALUES ? COMPLEX_SCRATCH.get()
+                : new ComplexScratch();
+        scratch.ensureGroups(NG);
 
-        // Get number of bits used to encode each group
-        int[] NB = new int[NG];     // initialised to zero
-        if (drs.groupWidthBits != 0)
-        {
-            in.seekNextByte();
-            for (int i = 0; i < NG; i++)
-            {
-                NB[i] = (int) in.readUBits(drs.groupWidthBits);
-                NB[i] += drs.refGroupWidths;
-            }
-        }
+        // Group reference values X1
+        int[] X1 = scratch.groupRefs;
+        in.seekNextByte();
+        in.readUBits(drs.nBits, NG, X1, 0);
 
-        // Get the scaled group lengths
-        int[] L = new int[NG];
-        if (drs.nBitsScaledGroupLengths != 0)
+        // Number of bits used to encode each group
+        int[] NB = scratch.groupWidths;
+        in.seekNextByte();
+        in.readUBits(drs.groupWidthBits, NG, NB, 0);
+        for (int i = 0; i < NG; i++)
         {
-            in.seekNextByte();
-            for (int i = 0; i < NG; i++)
-            {
-                L[i] = (int) in.readUBits(drs.nBitsScaledGroupLengths);
-            }
+            NB[i] += drs.refGroupWidths;
+            checkComplexBits(NB[i]);
         }
 
-        int totalL = 0;
-        for (int i = 0; i < NG; i++)
+        // Scaled group lengths
+        int[] L = scratch.groupLengths;
+        in.seekNextByte();
+        in.readUBits(drs.nBitsScaledGroupLengths, NG, L, 0);
+        long totalL = 0;
+        for (int i = 0; i < NG - 1; i++)
         {
             L[i] = L[i] * drs.groupLengthIncrement + drs.refGroupLengths;
             totalL += L[i];
         }
-        totalL -= L[NG - 1];
-        totalL += drs.lastGroupLength;
         L[NG - 1] = drs.lastGroupLength;
-
-        // test
-        if (drs.missingValueManagement != 0)
+        totalL += L[NG - 1];
+        if (totalL != drs.nDataPoints)
         {
-            throw new NotSupportedException("Missing Value Management is not supported");
-        } else
-        {
-            if (totalL != drs.nDataPoints)
-            {
-                System.out.println("nPoints != drs.nPoints: " + totalL + " != " + drs.nDataPoints);
-                float[] data = new float[drs.nDataPoints];
-                for (int i = 0; i < drs.nDataPoints; i++)
-                {
-                    data[i] = drs.missingValue;
-                }
-                return data;
-            }
+            Logger.println("Total length of groups (" + totalL + ") does not match number of data points ("
+                    + drs.nDataPoints + ")", Logger.WARNING);
+            Arrays.fill(data, offset, offset + gds.getNumberOfDataPoints(), drs.missingValue);
+            return;
         }
 
-        float[] data = new float[gds.getNumberOfDataPoints()];
-
-        // Get X2 values and calculate the results Y using the formula:
-        //  Y = (R + (X1 + X2) * (2^E)) / (10^D)
+        // Expand the groups, X = X1 + X2, keeping only the values which are not missing
+        int nValues = drs.nDataPoints;
+        scratch.ensureValues(nValues, mvm != 0);
+        int[] values = scratch.values;
+        byte[] missing = mvm != 0 ? scratch.missing : null;
+        long refMissing1 = (1L << drs.nBits) - 1;
+        int nPresent = 0;
         int count = 0;
-        int dataSize = 0;
-        boolean[] dataBitMap = null;
         in.seekNextByte();
-        if (drs.missingValueManagement == 0)
+        for (int i = 0; i < NG; i++)
         {
-            for (int i = 0; i < NG; i++)
+            int n = L[i];
+            if (NB[i] == 0)
             {
-                if (NB[i] != 0)
+                // Constant group: missing if the group reference is a missing value
+                byte kind = PRESENT;
+                if (mvm != 0 && X1[i] == refMissing1)
                 {
-                    for (int j = 0; j < L[i]; j++)
-                    {
-                        data[count++] = (int) in.readUBits(NB[i]) + X1[i];
-                    }
-                } else
+                    kind = PRIMARY_MISSING;
+                } else if (mvm == 2 && X1[i] == refMissing1 - 1)
                 {
-                    for (int j = 0; j < L[i]; j++)
-                    {
-                        data[count++] = X1[i];
-                    }
+                    kind = SECONDARY_MISSING;
                 }
-            }
-        } else if (drs.missingValueManagement == 1 || drs.missingValueManagement == 2)
-        {
-            dataBitMap = new boolean[gds.getNumberOfDataPoints()];
-            for (int i = 0; i < NG; i++)
+                if (missing != null)
+                {
+                    Arrays.fill(missing, count, count + n, kind);
+                }
+                if (kind == PRESENT)
+                {
+                    Arrays.fill(values, nPresent, nPresent + n, X1[i]);
+                    nPresent += n;
+                }
+                count += n;
+            } else if (missing == null)
             {
-                if (NB[i] != 0)
+                in.readUBits(NB[i], n, values, nPresent);
+                int ref = X1[i];
+                for (int j = nPresent; j < nPresent + n; j++)
                 {
-                    int msng1 = (int) Math.pow(2, NB[i]) - 1;
-                    int msng2 = msng1 - 1;
-                    for (int j = 0; j < L[i]; j++)
-                    {
-                        data[count] = (int) in.readUBits(NB[i]);
-                        if (data[count] == msng1 || (drs.missingValueManagement == 2 && data[count] == msng2))
-                        {
-                            dataBitMap[count] = false;
-                        } else
-                        {
-                            dataBitMap[count] = true;
-                            data[dataSize++] = data[count] + X1[i];
-                        }
-                        count++;
-                    }
-                } else
+                    values[j] += ref;
+                }
+                nPresent += n;
+                count += n;
+            } else
+            {
+                // The values are read in place and then compacted, dropping the missing ones
+                in.readUBits(NB[i], n, values, nPresent);
+                long missing1 = (1L << NB[i]) - 1;
+                int ref = X1[i];
+                for (int j = nPresent, end = nPresent + n; j < end; j++)
                 {
-                    int msng1 = (int) Math.pow(2, drs.nBits);
-                    int msng2 = msng1 - 1;
-                    if (X1[i] == msng1)
+                    int x = values[j];
+                    if (x == missing1)
                     {
-                        for (int j = 0; j < L[i]; j++)
-                        {
-                            dataBitMap[count++] = false;
-                        }
-                    } else if (drs.missingValueManagement == 2 && X1[i] == msng2)
+                        missing[count++] = PRIMARY_MISSING;
+                    } else if (mvm == 2 && x == missing1 - 1)
                     {
-                        for (int j = 0; j < L[i]; j++)
-                        {
-                            dataBitMap[count++] = false;
-                        }
+                        missing[count++] = SECONDARY_MISSING;
                     } else
                     {
-                        for (int j = 0; j < L[i]; j++)
-                        {
-                            dataBitMap[count] = true;
-                            data[dataSize++] = X1[i];
-                            count++;
-                        }
+                        missing[count++] = PRESENT;
+                        values[nPresent++] = x + ref;
                     }
                 }
             }
         }
         in.seekNextByte();
 
-        // first order spatial differencing
-        if (os == 1)
+        // Undo the spatial differencing and scale the values while placing them in the grid
+        int nPoints = gds.getNumberOfDataPoints();
+        Bitmap bitmap = bms.bitmap;
+        ParallelDecoding parallelDecoding = in.getParallelDecoding();
+        int nParts = parallelDecoding.getNumParts(nPoints, nPresent, SCAN_GRANULARITY);
+        if (nParts > 1 && (bitmap == null ? nPoints : bitmap.cardinality(nPoints)) == nValues)
         {
-            data[0] = ival1;
-            int itemp;
-            if (drs.missingValueManagement == 0)
+            // Large grids are scanned in parallel into the end of the grid, then the values are
+            // moved to their position
+            int packed = offset + nPoints - nPresent;
+            scanAndScale(values, nPresent, os, ival1, ival2, minsd, data, packed, R, EE, DD, nParts, parallelDecoding);
+            if (missing != null)
             {
-                itemp = gds.getNumberOfDataPoints();
-            } else
+                placeValues(missing, nValues, bitmap, drs, data, offset, nPoints, packed);
+            } else if (bitmap != null)
+            {
+                bitmap.expand(data, offset, nPoints, drs.missingValue);
+            }
+            return;
+        }
+
+        long x1 = 0;
+        long x2 = 0;
+        int k = 0;      // index of the next value which is not missing
+        int p = 0;      // index of the next data point
+        for (int i = 0; i < nPoints; i++)
+        {
+            if (bitmap != null)
             {
-                itemp = dataSize;
+                // Skip to the next point present in the bitmap
+                int next = bitmap.nextSetBit(i);
+                if (next < 0 || next >= nPoints)
+                {
+                    Arrays.fill(data, offset + i, offset + nPoints, drs.missingValue);
+                    break;
+                }
+                Arrays.fill(data, offset + i, offset + next, drs.missingValue);
+                i = next;
             }
-            for (int i = 1; i < itemp; i++)
+            if (p >= nValues)
             {
-                data[i] += minsd;
-                data[i] = data[i] + data[i - 1];
+                data[offset + i] = drs.missingValue;
+                continue;
             }
-        } else if (os == 2)
-        {
-            data[0] = ival1;
-            data[1] = ival2;
-            int itemp;
-            if (drs.missingValueManagement == 0)
+            byte kind = missing == null ? PRESENT : missing[p];
+            p++;
+            if (kind == PRIMARY_MISSING)
             {
-                itemp = gds.getNumberOfDataPoints();
-            } else
+                data[offset + i] = drs.primaryMissingValue;
+                continue;
+            } else if (kind == SECONDARY_MISSING)
             {
-                itemp = dataSize;
+                data[offset + i] = drs.secondaryMissingValue;
+                continue;
             }
-            for (int i = 2; i < itemp; i++)
+
+            long x;
+            if (k < os)
+            {
+                x = k == 0 ? ival1 : ival2;
+            } else if (os == 1)
+            {
+                x = values[k] + minsd + x1;
+            } else if (os == 2)
+            {
+                x = values[k] + minsd + 2 * x1 - x2;
+            } else
             {
-                data[i] += minsd;
-                data[i] = data[i] + (2 * data[i - 1]) - data[i - 2];
+                x = values[k];
             }
+            k++;
+            x2 = x1;
+            x1 = x;
+            data[offset + i] = (R + x * EE) / DD;
         }
+    }
 
-        if (drs.missingValueManagement == 0)
+    /**
+     * Undoes spatial differencing of order {@code os} and scales the values, as the sequential loop
+     * in {@link #unpackComplexPackingAndSpatialDifferencing} does, using a blocked parallel scan.
+     * Each part of the values first sums its differences, the sums are then carried from part to
+     * part, and finally each part integrates its differences starting from its carry. A second
+     * order scan carries both the first differences and the values. The results are identical to
+     * those of the sequential loop since integer addition is associative.
+     */
+    private static void scanAndScale(int[] values, int nValues, int os, long ival1, long ival2, long minsd,
+                                     float[] dst, int dstOffset, float R, float EE, float DD, int nParts,
+                                     ParallelDecoding parallelDecoding) throws IOException
+    {
+        // The first os values are given by the descriptors, the others follow from the differences
+        int start = Math.min(os, nValues);
+        if (start > 0)
         {
-            for (int i = 0; i < data.length; i++)
-            {
-                data[i] = (R + (data[i] * EE)) / DD;
-            }
-        } else if (drs.missingValueManagement == 1 || drs.missingValueManagement == 2)
+            dst[dstOffset] = (R + ival1 * EE) / DD;
+        }
+        if (start > 1)
+        {
+            dst[dstOffset + 1] = (R + ival2 * EE) / DD;
+        }
+        int[] bounds = new int[nParts + 1];
+        for (int part = 0; part <= nParts; part++)
+        {
+            bounds[part] = start + (int) ((long) (nValues - start) * part / nParts);
+        }
+
+        // The caller has already chosen to split the scan, so each part is run as one item
+        long[] firstSums = new long[nParts];
+        long[] secondSums = new long[nParts];
+        if (os == 1 || os == 2)
         {
-            int count2 = 0;
-            float[] tmp = new float[gds.getNumberOfDataPoints()];
-            for (int i = 0; i < data.length; i++)
+            parallelDecoding.forEachRange(Integer.MAX_VALUE, nParts, 1, (from, to) ->
             {
-                if (dataBitMap[i])
+                for (int part = from; part < to; part++)
                 {
-                    tmp[i] = (R + (data[count2++] * EE)) / DD;
-                } else
-                {
-                    tmp[i] = drs.missingValue;
+                    long sum = 0;
+                    long sumOfSums = 0;
+                    for (int k = bounds[part]; k < bounds[part + 1]; k++)
+                    {
+                        sum += values[k] + minsd;
+                        sumOfSums += sum;
+                    }
+                    firstSums[part] = sum;
+                    secondSums[part] = sumOfSums;
                 }
+            });
+        }
+
+        // Carry the value (and first difference) preceding each part
+        long[] valueCarries = new long[nParts];
+        long[] differenceCarries = new long[nParts];
+        valueCarries[0] = os == 2 ? ival2 : ival1;
+        differenceCarries[0] = ival2 - ival1;
+        for (int part = 1; part < nParts; part++)
+        {
+            if (os == 1)
+            {
+                valueCarries[part] = valueCarries[part - 1] + firstSums[part - 1];
+            } else if (os == 2)
+            {
+                long length = bounds[part] - bounds[part - 1];
+                valueCarries[part] = valueCarries[part - 1] + length * differenceCarries[part - 1]
+                        + secondSums[part - 1];
+                differenceCarries[part] = differenceCarries[part - 1] + firstSums[part - 1];
             }
-            data = tmp;
         }
 
-        // bit map is used
-        if (bms.indicator != Indicator.BITMAP_NONE)
+        parallelDecoding.forEachRange(Integer.MAX_VALUE, nParts, 1, (from, to) ->
         {
-            int idx = 0;
-            float[] tmp = new float[gds.getNumberOfDataPoints()];
-            for (int i = 0; i < gds.getNumberOfDataPoints(); i++)
+            for (int part = from; part < to; part++)
             {
-                if ((isBitSet(bms.bitmap[i / 8], i % 8)))
-                {
-                    tmp[i] = data[idx++];
-                } else
+                long x = valueCarries[part];
+                long d = differenceCarries[part];
+                for (int k = bounds[part]; k < bounds[part + 1]; k++)
                 {
-                    tmp[i] = drs.missingValue;
+                    if (os == 1)
+                    {
+                        x += values[k] + minsd;
+                    } else if (os == 2)
+                    {
+                        d += values[k] + minsd;
+                        x += d;
+                    } else
+                    {
+                        x = values[k];
+                    }
+                    dst[dstOffset + k] = (R + x * EE) / DD;
                 }
             }
-            data = tmp;
-        }
+        });
+    }
 
-        return data;
+    /**
+     * Moves the values scaled by {@link #scanAndScale} at the end of the grid to their position,
+     * filling the points which are missing.
+     */
+    private static void placeValues(byte[] missing, int nValues, Bitmap bitmap, Grib2RecordDRS drs,
+                                    float[] data, int offset, int nPoints, int packed)
+    {
+        int k = packed;
+        int p = 0;
+        for (int i = 0; i < nPoints; i++)
+        {
+            if (bitmap != null && !bitmap.get(i))
+            {
+                data[offset + i] = drs.missingValue;
+                continue;
+            }
+            byte kind = p < nValues ? missing[p++] : PRIMARY_MISSING;
+            if (kind == PRESENT)
+            {
+                data[offset + i] = data[k++];
+            } else if (kind == PRIMARY_MISSING)
+            {
+                data[offset + i] = drs.primaryMissingValue;
+            } else
+            {
+                data[offset + i] = drs.secondaryMissingValue;
+            }
+        }
     }
 
-    private static float[] unpackJpeg2000(GribInputStream in, int dsLength, Grib2RecordDRS drs, Grib2RecordGDS gds,
-                                          Grib2RecordBMS bms) throws IOException, NoValidGribException
+    private static void unpackJpeg2000(GribInputStream in, int dsLength, Grib2RecordDRS drs, Grib2RecordGDS gds,
+                                       Grib2RecordBMS bms, float[] result, int offset)
+            throws IOException, NoValidGribException
     {
         float DD = (float) Math.pow(10, drs.decimalScaleFactor);
         float EE = (float) Math.pow(2, drs.binaryScaleFactor);
         float R = drs.refValue;
-        Grib2JpegDecoder jpegDecoder = null;
-        if (drs.nBits > 0)
-        {
-            jpegDecoder = new Grib2JpegDecoder(drs.nBits, false);
-            byte[] buf = in.read(dsLength - 5);
-            jpegDecoder.decode(buf);
-        }
-
-        float[] result = new float[gds.nDataPoints];
 
         // In case of no data to decode, set to reference value
         if (drs.nBits == 0)
         {
-            for (int i = 0; i < drs.nDataPoints; i++)
-            {
-                result[i] = R / DD;
-            }
+            Arrays.fill(result, offset, offset + gds.nDataPoints, R / DD);
+            return;
         }
 
-        int[] idata = jpegDecoder.getGdata();
+        ByteBuffer buf = in.readBuffer(dsLength - 5);
         if (bms.bitmap == null)
         {
-            // Check data length
-            if (idata.length != drs.nDataPoints)
+            // Check data length, values are only written if the sections agree
+            int length = drs.nDataPoints == gds.nDataPoints ? gds.nDataPoints : 0;
+            int nSamples = decodeJpeg2000(buf, drs.nBits, gds.nDataPoints, result, offset, length, R, EE, DD,
+                    in.getParallelDecoding());
+            if (nSamples != drs.nDataPoints || drs.nDataPoints != gds.nDataPoints)
             {
-                throw new NoValidGribException("Number of points in data section (" + idata.length +
+                throw new NoValidGribException("Number of points in data section (" + nSamples +
                         ") and in data representation section (" + drs.nDataPoints + ") do not match");
             }
-
-            for (int i = 0; i < drs.nDataPoints; i++)
-            {
-                result[i] = (R + idata[i] * EE) / DD;
-            }
         } else
         {
-            for (int i = 0, j = 0; i < drs.nDataPoints; i++)
-            {
-                if (isBitSet(bms.bitmap[i / 8], i % 8))
-                {
-                    if (j >= idata.length)
-                    {
-                        break;
-                    }
-                    int indata = idata[j];
-                    result[i] = (R + indata * EE) / DD;
-                    j++;
-                } else
-                {
-                    result[i] = drs.missingValue;
-                }
-            }
+            // Decode the values of the points present in the bitmap at the end of the array, then move them
+            // forward to their position
+            int nPoints = Math.min(gds.nDataPoints, bms.bitmap.size());
+            int nValues = bms.bitmap.cardinality(nPoints);
+            int packed = offset + nPoints - nValues;
+            int nSamples = decodeJpeg2000(buf, drs.nBits, gds.nDataPoints, result, packed, nValues, R, EE, DD,
+                    in.getParallelDecoding());
+            int n = Math.min(nValues, nSamples);
+            Arrays.fill(result, packed + n, offset + nPoints, drs.missingValue);
+            bms.bitmap.expand(result, offset, nPoints, drs.missingValue);
+            Arrays.fill(result, offset + nPoints, offset + gds.nDataPoints, drs.missingValue);
         }
-        return result;
     }
 
-    private static boolean isBitSet(int data, int iBit)
+    /**
+     * Decodes a JPEG2000 code stream into scaled values, decoding groups of tiles in parallel
+     * for large fields.
+     *
+     * @return the number of samples in the code stream
+     */
+    private static int decodeJpeg2000(ByteBuffer buf, int nBits, int nPoints, float[] dst, int offset, int length,
+                                      float R, float EE, float DD, ParallelDecoding parallelDecoding)
+            throws IOException
     {
-        return ((data & (1 << iBit)) != 0);
+        int[] nSamples = new int[1];
+        parallelDecoding.forEachRange(nPoints, Grib2JpegDecoder.getNumTiles(buf), 1, (from, to) ->
+        {
+            Grib2JpegDecoder jpegDecoder = JPEG_DECODER.get();
+            jpegDecoder.setRate(nBits);
+            nSamples[0] = jpegDecoder.decode(buf, dst, offset, length, R, EE, DD, from, to);
+        });
+        return nSamples[0];
     }
 }
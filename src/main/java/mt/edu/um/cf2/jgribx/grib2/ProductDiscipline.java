@@ -34,6 +34,11 @@ public class ProductDiscipline
         return categories;
     }
 
+    public int getValue()
+    {
+        return value;
+    }
+
     public static List<ProductDiscipline> getValues()
     {
         List<ProductDiscipline> list = new ArrayList<>();
@@ -8,6 +8,7 @@ import colorspace.ColorSpace;
 import colorspace.ColorSpaceException;
 import icc.ICCProfiler;
 import jj2000.j2k.codestream.HeaderInfo;
+import jj2000.j2k.codestream.Markers;
 import jj2000.j2k.codestream.reader.BitstreamReaderAgent;
 import jj2000.j2k.codestream.reader.HeaderDecoder;
 import jj2000.j2k.decoder.DecoderSpecs;
@@ -15,29 +16,29 @@ import jj2000.j2k.entropy.decoder.EntropyDecoder;
 import jj2000.j2k.fileformat.reader.FileFormatReader;
 import jj2000.j2k.image.BlkImgDataSrc;
 import jj2000.j2k.image.Coord;
-import jj2000.j2k.image.DataBlk;
 import jj2000.j2k.image.DataBlkInt;
 import jj2000.j2k.image.ImgDataConverter;
 import jj2000.j2k.image.invcomptransf.InvCompTransf;
-import jj2000.j2k.image.output.ImgWriter;
+import jj2000.j2k.io.EndianType;
 import jj2000.j2k.io.RandomAccessIO;
 import jj2000.j2k.quantization.dequantizer.Dequantizer;
 import jj2000.j2k.roi.ROIDeScaler;
-import jj2000.j2k.util.ISRandomAccessIO;
 import jj2000.j2k.util.ParameterList;
 import jj2000.j2k.util.StringFormatException;
 import jj2000.j2k.wavelet.synthesis.InverseWT;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Adaptation of jj2000.j2k.decoder.Decoder, in order to read input from memory.
+ * A decoder is not thread safe, but may be reused to decode any number of code streams.
  *
  * @author robb kambic
  * @author caron rewritten Aug 2014
@@ -46,8 +47,25 @@ public class Grib2JpegDecoder
 {
     private static final Logger logger = LoggerFactory.getLogger(Grib2JpegDecoder.class);
 
+    /**
+     * The default parameter list (with modules arguments), which is the same for every decoder
+     */
+    private static final ParameterList DEFAULT_PARAMETERS = new ParameterList();
+
+    static
+    {
+        String[][] param = Grib2JpegDecoder.getAllParameters();
+        for (int i = param.length - 1; i >= 0; i--)
+        {
+            if (param[i][3] != null)
+            {
+                DEFAULT_PARAMETERS.put(param[i][0], param[i][3]);
+            }
+        }
+    }
+
     private final boolean debug;
-    private final int rate;
+    private int rate;
 
     /**
      * Return the packBytes ie number bytes / number 1,2 or 4
@@ -93,21 +111,8 @@ public class Grib2JpegDecoder
         argv[4] = "-debug";
         argv[5] = "on";
 
-        // Initialize default parameters
-        // The default parameter list (with modules arguments)
-        ParameterList defpl = new ParameterList();
-        String[][] param = Grib2JpegDecoder.getAllParameters();
-
-        for (int i = param.length - 1; i >= 0; i--)
-        {
-          if (param[i][3] != null)
-          {
-            defpl.put(param[i][0], param[i][3]);
-          }
-        }
-
         // Create parameter list using defaults
-        pl = new ParameterList(defpl);
+        pl = new ParameterList(DEFAULT_PARAMETERS);
 
         // Parse arguments from argv
         try
@@ -119,6 +124,31 @@ public class Grib2JpegDecoder
         }
     }
 
+    /**
+     * Sets the number of bits per sample of the fields to be decoded, so that a decoder
+     * can be reused for fields with different numbers of bits.
+     *
+     * @param nbits number of bits per sample
+     */
+    public void setRate(int nbits)
+    {
+        this.rate = nbits;
+        pl.put("rate", Integer.toString(nbits));
+    }
+
+    /**
+     * Sets whether single-component code streams using the reversible wavelet filters, which
+     * is how GRIB fields are encoded, are decoded by a shorter chain. The shorter chain skips
+     * the file format reader, the data converter, the inverse component transformation and
+     * colour space mapping, and yields the same samples. It is enabled by default.
+     *
+     * @param lean true to use the shorter chain where possible
+     */
+    public void setLean(boolean lean)
+    {
+        this.lean = lean;
+    }
+
     /**
      * Returns the exit code of the class. This is only initialized after the
      * constructor and when the run method returns.
@@ -145,7 +175,124 @@ public class Grib2JpegDecoder
      */
     public void decode(byte[] buf) throws IOException
     {
-        boolean verbose = false;
+        BlkImgDataSrc image = open(ByteBuffer.wrap(buf));
+        if (image == null)
+        {
+            return;
+        }
+
+        int bitDepth = image.getNomRangeBits(0);
+        packBytes = bitDepth <= 8 ? 1 : bitDepth <= 16 ? 2 : 4;
+        data = new int[image.getCompImgWidth(0) * image.getCompImgHeight(0)];
+        readSamples(image, data, null, 0, data.length, 0, 0, 0, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Decodes a code stream into an array of samples. Only the first component of the image
+     * is decoded, and samples are written in row-major order.
+     *
+     * @param buf    code stream, from its position to its limit; the position is not modified
+     * @param dst    array to which the samples are written
+     * @param offset index at which the first sample is written
+     * @param length maximum number of samples to write
+     * @return the number of samples in the image, which may be more than were written
+     * @throws IOException if the code stream cannot be decoded
+     */
+    public int decode(ByteBuffer buf, int[] dst, int offset, int length) throws IOException
+    {
+        return readSamples(openOrFail(buf), dst, null, offset, length, 0, 0, 0, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Decodes a code stream and scales the samples as they are written, so that each sample
+     * {@code x} is written as {@code (R + x * EE) / DD}. Only the first component of the image
+     * is decoded, and samples are written in row-major order.
+     *
+     * @param buf    code stream, from its position to its limit; the position is not modified
+     * @param dst    array to which the scaled samples are written
+     * @param offset index at which the first sample is written
+     * @param length maximum number of samples to write
+     * @param R      reference value
+     * @param EE     binary scale factor
+     * @param DD     decimal scale factor
+     * @return the number of samples in the image, which may be more than were written
+     * @throws IOException if the code stream cannot be decoded
+     */
+    public int decode(ByteBuffer buf, float[] dst, int offset, int length, float R, float EE, float DD)
+            throws IOException
+    {
+        return decode(buf, dst, offset, length, R, EE, DD, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Decodes a range of the tiles of a code stream, and scales their samples as they are
+     * written. Tiles are numbered in raster order, and only the samples of the tiles in the
+     * range are written, so that different decoders may decode different ranges of the same
+     * code stream concurrently.
+     *
+     * @param buf      code stream, from its position to its limit; the position is not modified
+     * @param dst      array to which the scaled samples are written
+     * @param offset   index at which the first sample of the image is written
+     * @param length   maximum number of samples of the image to write
+     * @param R        reference value
+     * @param EE       binary scale factor
+     * @param DD       decimal scale factor
+     * @param fromTile index of the first tile to decode
+     * @param toTile   index following the last tile to decode
+     * @return the number of samples in the image
+     * @throws IOException if the code stream cannot be decoded
+     * @see #getNumTiles(ByteBuffer)
+     */
+    public int decode(ByteBuffer buf, float[] dst, int offset, int length, float R, float EE, float DD,
+                      int fromTile, int toTile) throws IOException
+    {
+        return readSamples(openOrFail(buf), null, dst, offset, length, R, EE, DD, fromTile, toTile);
+    }
+
+    /**
+     * Returns the number of tiles of a code stream, as given by its SIZ marker segment.
+     *
+     * @param buf code stream, from its position to its limit; the position is not modified
+     * @return the number of tiles, or 1 if the code stream does not start with a SIZ marker segment
+     */
+    public static int getNumTiles(ByteBuffer buf)
+    {
+        ByteBuffer siz = buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int pos = siz.position();
+        if (siz.remaining() < 42 || siz.getShort(pos) != Markers.SOC || siz.getShort(pos + 2) != Markers.SIZ)
+        {
+            return 1;
+        }
+        long width = (siz.getInt(pos + 8) & 0xFFFFFFFFL) - (siz.getInt(pos + 32) & 0xFFFFFFFFL);
+        long height = (siz.getInt(pos + 12) & 0xFFFFFFFFL) - (siz.getInt(pos + 36) & 0xFFFFFFFFL);
+        long tileWidth = siz.getInt(pos + 24) & 0xFFFFFFFFL;
+        long tileHeight = siz.getInt(pos + 28) & 0xFFFFFFFFL;
+        if (width <= 0 || height <= 0 || tileWidth == 0 || tileHeight == 0)
+        {
+            return 1;
+        }
+        long nTiles = ((width + tileWidth - 1) / tileWidth) * ((height + tileHeight - 1) / tileHeight);
+        return (int) Math.min(nTiles, Integer.MAX_VALUE);
+    }
+
+    private BlkImgDataSrc openOrFail(ByteBuffer buf) throws IOException
+    {
+        BlkImgDataSrc image = open(buf);
+        if (image == null)
+        {
+            throw new IOException("Cannot decode JPEG2000 code stream (exit code " + exitCode + ")");
+        }
+        return image;
+    }
+
+    /**
+     * Instantiates the decoding chain for a code stream and reads its main header. The samples
+     * are decoded as they are requested from the returned image.
+     *
+     * @return the last image in the decoding chain, or null if the chain cannot be instantiated
+     */
+    private BlkImgDataSrc open(ByteBuffer buf) throws IOException
+    {
         int res; // resolution level to reconstruct
         FileFormatReader ff;
         HeaderDecoder hd;
@@ -163,22 +310,29 @@ public class Grib2JpegDecoder
         int i;
         int[] depth;
 
+        exitCode = 0;
+        csMap = null;
         try
         {
-
-            // create a ByteArrayInputStream from byte array for ISRandomAccessIO
-            ByteArrayInputStream bais = new ByteArrayInputStream(buf);
-            RandomAccessIO in = new ISRandomAccessIO(bais, buf.length, 1, buf.length);
+            // read directly from the buffer, which may be a slice of a mapped file
+            RandomAccessIO in = new ByteBufferIO(buf);
 
             // **** File Format ****
             // If the codestream is wrapped in the jp2 fileformat, Read the
-            // file format wrapper
-            ff = new FileFormatReader(in);
-            ff.readFileFormat();
-            if (ff.JP2FFUsed)
+            // file format wrapper. GRIB code streams are raw, i.e. start with
+            // the SOC marker, so the wrapper is not looked for in that case.
+            boolean jp2FFUsed = false;
+            int pos = buf.position();
+            if (buf.remaining() < 2 || (short) (buf.get(pos) << 8 | buf.get(pos + 1) & 0xFF) != Markers.SOC)
             {
-                in.seek(ff.getFirstCodeStreamPos());
-                logger.warn("ff.JP2FFUsed is used"); // LOOK probably not
+                ff = new FileFormatReader(in);
+                ff.readFileFormat();
+                jp2FFUsed = ff.JP2FFUsed;
+                if (jp2FFUsed)
+                {
+                    in.seek(ff.getFirstCodeStreamPos());
+                    logger.warn("ff.JP2FFUsed is used"); // LOOK probably not
+                }
             }
 
             // +----------------------------+
@@ -220,7 +374,7 @@ public class Grib2JpegDecoder
             } catch (IllegalArgumentException e)
             {
                 error("Cannot instantiate entropy decoder", 2, e);
-                return;
+                return null;
             }
 
             // **** ROI de-scaler ****
@@ -230,7 +384,7 @@ public class Grib2JpegDecoder
             } catch (IllegalArgumentException e)
             {
                 error("Cannot instantiate roi de-scaler", 2, e);
-                return;
+                return null;
             }
 
             // **** Dequantizer ****
@@ -240,7 +394,7 @@ public class Grib2JpegDecoder
             } catch (IllegalArgumentException e)
             {
                 error("Cannot instantiate dequantizer", 2, e);
-                return;
+                return null;
             }
 
             // **** Inverse wavelet transform ***
@@ -251,137 +405,75 @@ public class Grib2JpegDecoder
             } catch (IllegalArgumentException e)
             {
                 error("Cannot instantiate inverse wavelet transform", 2, e);
-                return;
+                return null;
             }
 
             res = breader.getImgRes();
             invWT.setImgResLevel(res);
 
-            // **** Data converter **** (after inverse transform module)
-            converter = new ImgDataConverter(invWT, 0);
-
-            // **** Inverse component transformation ****
-            ictransf = new InvCompTransf(converter, decSpec, depth, pl);
-
-            // **** Color space mapping ****
-            String p = pl.getParameter("nocolorspace");
-            boolean nocolorspace = "off".equals(p); // LOOK not sure what default is here
-            if (ff.JP2FFUsed && nocolorspace)
+            BlkImgDataSrc decodedImage;
+            if (lean && !jp2FFUsed && nCompCod == 1 && isReversible(decSpec, hd.getNumTiles()))
             {
-                try
-                {
-                    csMap = new ColorSpace(in, hd, pl);
-                    channels = hd.createChannelDefinitionMapper(ictransf, csMap);
-                    resampled = hd.createResampler(channels, csMap);
-                    palettized = hd.createPalettizedColorSpaceMapper(resampled, csMap);
-                    color = hd.createColorSpaceMapper(palettized, csMap);
-                } catch (IllegalArgumentException e)
-                {
-                    error("Could not instantiate ICC profiler", 1, e);
-                    return;
-                } catch (ColorSpaceException e)
-                {
-                    error("error processing jp2 colorspace information", 1, e);
-                    return;
-                }
+                // The inverse wavelet transform already yields integer samples, and with a
+                // single component there is nothing left to transform, so the samples are
+                // read straight from it
+                decodedImage = invWT;
             } else
-            { // Skip colorspace mapping
-                color = ictransf;
-            }
-
-            // This is the last image in the decoding chain and should be
-            // assigned by the last transformation:
-            BlkImgDataSrc decodedImage = color;
-            if (color == null)
             {
-                decodedImage = ictransf;
-            }
-
-            int nCompImg = decodedImage.getNumComps();
+                // **** Data converter **** (after inverse transform module)
+                converter = new ImgDataConverter(invWT, 0);
 
-            // code to get data
-            // **** Decode and write/display result ****
+                // **** Inverse component transformation ****
+                ictransf = new InvCompTransf(converter, decSpec, depth, pl);
 
-            ImgWriter[] imwriter = new ImgWriter[nCompImg];
-
-            // Now write the image to the array (decodes as needed)
-            boolean isSigned;
-            for (i = 0; i < imwriter.length; i++)
-            {
-                try
+                // **** Color space mapping ****
+                String p = pl.getParameter("nocolorspace");
+                boolean nocolorspace = "off".equals(p); // LOOK not sure what default is here
+                if (jp2FFUsed && nocolorspace)
                 {
-                    if (csMap != null)
+                    try
                     {
-                        isSigned = csMap.isOutputSigned(i);
-                        imwriter[i] = new ImgWriterArray(decodedImage, i, csMap.isOutputSigned(i));
-                    } else
+                        csMap = new ColorSpace(in, hd, pl);
+                        channels = hd.createChannelDefinitionMapper(ictransf, csMap);
+                        resampled = hd.createResampler(channels, csMap);
+                        palettized = hd.createPalettizedColorSpaceMapper(resampled, csMap);
+                        color = hd.createColorSpaceMapper(palettized, csMap);
+                    } catch (IllegalArgumentException e)
                     {
-                        isSigned = hd.isOriginalSigned(i);
-                        imwriter[i] = new ImgWriterArray(decodedImage, i, hd.isOriginalSigned(i));
+                        error("Could not instantiate ICC profiler", 1, e);
+                        return null;
+                    } catch (ColorSpaceException e)
+                    {
+                        error("error processing jp2 colorspace information", 1, e);
+                        return null;
                     }
-                } catch (IOException e)
-                {
-                  if (debug)
-                  {
-                    e.printStackTrace();
-                  }
-                    return;
+                } else
+                { // Skip colorspace mapping
+                    color = ictransf;
                 }
 
-                try
+                // This is the last image in the decoding chain and should be
+                // assigned by the last transformation:
+                decodedImage = color;
+                if (color == null)
                 {
-                    imwriter[i].writeAll(); // write data to array
-                    ImgWriterArray iwa = (ImgWriterArray) imwriter[i];
-                    data = iwa.getGdata();
-                    // unSigned data processing here
-                    if (!isSigned)
-                    {
-                        // float unSignIt = (float) java.lang.Math.pow((double) 2.0, fnb - 1); // LOOK WTF ?
-                        int nb = depth[i];
-                        int levShift = 1 << (nb - 1); // check
-                      if (nb != rate)
-                      {
-                        hasSignedProblem = true;
-                      }
-
-                      for (int j = 0; j < data.length; j++)
-                      {
-                        data[j] += levShift;
-                      }
-                    }
-                    packBytes = iwa.getPackBytes();
-                } catch (IOException e)
-                {
-                  if (debug)
-                  {
-                    e.printStackTrace();
-                  }
-                    return;
+                    decodedImage = ictransf;
                 }
             }
 
-            // **** Print some resulting info ****
-            if (verbose)
+            boolean isSigned = csMap != null ? csMap.isOutputSigned(0) : hd.isOriginalSigned(0);
+            levelShift = 0;
+            if (!isSigned)
             {
-                // Print actually read bitrate
-                // if file format used add the read file format bytes
-                float bitrate = breader.getActualRate();
-                int numBytes = breader.getActualNbytes();
-                if (ff.JP2FFUsed)
+                // unSigned data processing here
+                int nb = depth[0];
+                levelShift = 1 << (nb - 1); // check
+                if (nb != rate)
                 {
-                    int imageSize = (int) ((8.0f * numBytes) / bitrate);
-                    numBytes += ff.getFirstCodeStreamPos();
-                    bitrate = (numBytes * 8.0f) / imageSize;
-                }
-
-                if (pl.getIntParameter("ncb_quit") == -1)
-                {
-                    logger.info("Actual bit rate = " + bitrate + " bpp (i.e. " + numBytes + " bytes)");
-                } else
-                {
-                    logger.info("Number of packet body bytes read = " + numBytes);
+                    hasSignedProblem = true;
                 }
             }
+            return decodedImage;
         } catch (IllegalArgumentException e)
         {
             error(e.getMessage(), 2);
@@ -389,6 +481,7 @@ public class Grib2JpegDecoder
           {
             e.printStackTrace();
           }
+            return null;
         } catch (RuntimeException e)
         {
             error("An uncaught runtime exception has occurred", 2, e);
@@ -399,6 +492,98 @@ public class Grib2JpegDecoder
         }
     }
 
+    /**
+     * Returns whether the first component of every tile uses the reversible wavelet filters,
+     * whose output is integer.
+     */
+    private static boolean isReversible(DecoderSpecs decSpec, int nTiles)
+    {
+        for (int t = 0; t < nTiles; t++)
+        {
+            if (!decSpec.wfs.isReversible(t, 0))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a range of the tiles of the first component of an image and writes their samples,
+     * with the level shift applied, either to {@code idst} or, scaled, to {@code fdst}.
+     *
+     * @return the number of samples in the image
+     */
+    private int readSamples(BlkImgDataSrc src, int[] idst, float[] fdst, int offset, int length,
+                            float R, float EE, float DD, int fromTile, int toTile) throws IOException
+    {
+        int c = 0;
+        int width = src.getCompImgWidth(c);
+        int height = src.getCompImgHeight(c);
+        int imgULX = (src.getImgULX() + src.getCompSubsX(c) - 1) / src.getCompSubsX(c);
+        int imgULY = (src.getImgULY() + src.getCompSubsY(c) - 1) / src.getCompSubsY(c);
+        int shift = levelShift;
+
+        try
+        {
+            // Write each tile to its place in the image
+            Coord nT = src.getNumTiles(null);
+            int nTiles = nT.x * nT.y;
+            for (int t = Math.max(fromTile, 0); t < Math.min(toTile, nTiles); t++)
+            {
+                src.setTile(t % nT.x, t / nT.x);
+                int tIdx = src.getTileIdx();
+                db.ulx = 0;
+                db.uly = 0;
+                db.w = src.getTileCompWidth(tIdx, c);
+                db.h = src.getTileCompHeight(tIdx, c);
+                if (db.data != null && db.data.length < db.w * db.h)
+                {
+                    // A new one will be allocated by getInternCompData()
+                    db.data = null;
+                }
+                // Request the data and make sure it is not progressive
+                do
+                {
+                    db = (DataBlkInt) src.getInternCompData(db, c);
+                } while (db.progressive);
+
+                int x0 = src.getCompULX(c) - imgULX;
+                int y0 = src.getCompULY(c) - imgULY;
+                int[] samples = db.data;
+                for (int y = 0; y < db.h; y++)
+                {
+                    int index = (y0 + y) * width + x0;
+                    int n = Math.min(db.w, length - index);
+                    int k = db.offset + y * db.scanw;
+                    int d = offset + index;
+                    if (fdst != null)
+                    {
+                        for (int x = 0; x < n; x++)
+                        {
+                            fdst[d + x] = (R + (samples[k + x] + shift) * EE) / DD;
+                        }
+                    } else
+                    {
+                        for (int x = 0; x < n; x++)
+                        {
+                            idst[d + x] = samples[k + x] + shift;
+                        }
+                    }
+                }
+            }
+        } catch (RuntimeException e)
+        {
+            error("An uncaught runtime exception has occurred", 2, e);
+            throw new IOException(e);
+        } catch (Error e)
+        {
+            // jj2000 reports I/O errors while decoding tiles as errors
+            throw new IOException(e);
+        }
+        return width * height;
+    }
+
     private void error(String msg, int code)
     {
         exitCode = code;
@@ -433,6 +618,21 @@ public class Grib2JpegDecoder
 
     private int[] data;
 
+    /**
+     * A DataBlk, just used to avoid allocating a new one for each tile
+     */
+    private DataBlkInt db = new DataBlkInt();
+
+    /**
+     * Whether the shorter decoding chain is used where possible
+     */
+    private boolean lean = true;
+
+    /**
+     * The level shift added to the samples of the last opened image
+     */
+    private int levelShift;
+
     /**
      * Returns all the parameters used in the decoding chain. It calls
      * parameter from each module and store them in one array (one row per
@@ -527,224 +727,153 @@ public class Grib2JpegDecoder
     }
 
     /**
-     * This class extends the ImgWriter abstract class for writing Array .
-     * <p/>
-     * <u>Data:</u> The image binary values appear one after the other (in raster
-     * order) immediately after the last header character ('\n') and are
-     * byte-aligned (they are packed into 1,2 or 4 bytes per sample, depending
-     * upon the bit-depth value).
-     * </p>
-     * <p/>
-     * <p>
-     * If the data is unsigned, level shifting is applied adding 2^(bit depth
-     * - 1)
-     * </p>
-     * <p/>
-     * <p>
-     * <u>NOTE</u>: This class is not thread safe, for reasons of internal
-     * buffering.
-     * </p>
-     *
-     * @see ImgWriter
-     * @see BlkImgDataSrc
+     * Reads a code stream from a byte buffer, without copying it. The position of the buffer
+     * given to the constructor is not modified.
      */
-    private static class ImgWriterArray extends ImgWriter
+    private static final class ByteBufferIO implements RandomAccessIO
     {
-        /**
-         * Whether the data must be signed when writing or not. In the latter
-         * case inverse level shifting must be applied
-         */
-        final boolean isSigned;
-
-        /**
-         * The bit-depth of the input file (must be between 1 and 31)
-         */
-        private final int bitDepth;
-
-        /**
-         * A DataBlk, just used to avoid allocating a new one each time it is
-         * needed
-         */
-        private DataBlkInt db = new DataBlkInt();
-
-        // The number of fractional bits in the source data */
-        // private int fb;
-
-        /**
-         * The index of the component from where to get the data
-         */
-        private final int c;
-
-        /**
-         * The pack length of one sample (in bytes, according to the output
-         * bit-depth
-         */
-        private final int packBytes;
-
-        /**
-         * Creates a new writer to the specified Array object, to write data from
-         * the specified component.
-         * <p/>
-         * <p>
-         * The size of the image that is written to the file is the size of the
-         * component from which to get the data, specified by b, not the size of
-         * the source image (they differ if there is some sub-sampling).
-         * </p>
-         *
-         * @param imgSrc   The source from where to get the image data to write.
-         * @param c        The index of the component from where to get the data.
-         * @param isSigned Whether the data are signed or not (needed only when
-         *                 writing header).
-         * @see DataBlk
-         */
-        ImgWriterArray(BlkImgDataSrc imgSrc, int c, boolean isSigned) throws IOException
-        {
-            // Initialize
-            this.c = c;
-            this.isSigned = isSigned;
-            src = imgSrc;
-            w = src.getImgWidth();
-            h = src.getImgHeight();
-
-            bitDepth = src.getNomRangeBits(this.c);
-            if ((bitDepth <= 0) || (bitDepth > 31))
-            {
-                throw new IOException("Array supports only bit-depth between 1 and 31");
-            }
-            if (bitDepth <= 8)
-            {
-                packBytes = 1;
-            } else if (bitDepth <= 16)
+        private final ByteBuffer buf;
+
+        ByteBufferIO(ByteBuffer buf)
+        {
+            this.buf = buf.slice().order(ByteOrder.BIG_ENDIAN);
+        }
+
+        private ByteBuffer require(int n) throws EOFException
+        {
+            if (buf.remaining() < n)
             {
-                packBytes = 2;
-            } else
-            { // <= 31
-                packBytes = 4;
+                throw new EOFException();
             }
-        } // end ImgWriterArray
+            return buf;
+        }
 
-        /**
-         * Closes the underlying file or network connection to where the data is
-         * written. Any call to other methods of the class become illegal after a
-         * call to this one.
-         */
         public void close()
         {
         }
 
-        /**
-         * Writes the data of the specified area to the file, coordinates are
-         * relative to the current tile of the source. Before writing, the
-         * coefficients are limited to the nominal range and packed into 1,2 or 4
-         * bytes (according to the bit-depth).
-         * <p/>
-         * <p>
-         * If the data is unisigned, level shifting is applied adding 2^(bit depth - 1)
-         * </p>
-         * <p/>
-         * <p>
-         * This method may not be called concurrently from different threads.
-         * </p>
-         * <p/>
-         * <p>
-         * If the data returned from the BlkImgDataSrc source is progressive,
-         * then it is requested over and over until it is not progressive
-         * anymore.
-         * </p>
-         *
-         * @param ulx The horizontal coordinate of the upper-left corner of the
-         *            area to write, relative to the current tile.
-         * @param uly The vertical coordinate of the upper-left corner of the area
-         *            to write, relative to the current tile.
-         * @param w   The width of the area to write.
-         * @param h   The height of the area to write.
-         */
-        public void write(int ulx, int uly, int w, int h)
-        {
-            // Initialize db
-            db.ulx = ulx;
-            db.uly = uly;
-            db.w = w;
-            db.h = h;
-            if (db.data != null && db.data.length < w * h)
-            {
-                // A new one will be allocated by getInternCompData()
-                db.data = null;
-            }
-            // Request the data and make sure it is not progressive
-            do
-            {
-                db = (DataBlkInt) src.getInternCompData(db, c);
-            } while (db.progressive);
+        public int getPos()
+        {
+            return buf.position();
         }
 
-        public void writeAll()
+        public int length()
         {
-            // Find the list of tile to decode.
-            Coord nT = src.getNumTiles(null);
+            return buf.limit();
+        }
 
-            for (int y = 0; y < nT.y; y++)
+        public void seek(int off) throws IOException
+        {
+            if (off < 0 || off > buf.limit())
             {
-                for (int x = 0; x < nT.x; x++)
-                {
-                    src.setTile(x, y);
-                    write(0, 0, src.getImgWidth(), src.getImgHeight());
-                }
+                throw new EOFException();
             }
+            buf.position(off);
         }
 
-        /**
-         * Writes the source's current tile to the output. The requests of data
-         * issued to the source BlkImgDataSrc object are done by strips, in order
-         * to reduce memory usage.
-         * <p/>
-         * <p>
-         * If the data returned from the BlkImgDataSrc source is progressive,
-         * then it is requested over and over until it is not progressive
-         * anymore.
-         * </p>
-         *
-         * @see DataBlk
-         */
-        public void write()
-        {
-            int i;
-            int tIdx = src.getTileIdx();
-            int tw = src.getTileCompWidth(tIdx, c); // Tile width
-            int th = src.getTileCompHeight(tIdx, c); // Tile height
-            // Write in strips
-            for (i = 0; i < th; i += DEF_STRIP_HEIGHT)
-            {
-                write(0, i, tw, Math.min(th - i, DEF_STRIP_HEIGHT));
-            }
+        public int read() throws IOException
+        {
+            return require(1).get() & 0xFF;
         }
 
-        /**
-         * The pack length of one sample (in bytes, according to the output bit-depth
-         */
-        int getPackBytes()
+        public void readFully(byte[] b, int off, int n) throws IOException
         {
-            return packBytes;
+            require(n).get(b, off, n);
         }
 
-        /**
-         * the jpeg data decoded into an int array
-         *
-         * @return a int[]
-         */
-        int[] getGdata()
+        public byte readByte() throws IOException
         {
-            return db.data;
+            return require(1).get();
         }
 
-        public void flush()
+        public int readUnsignedByte() throws IOException
+        {
+            return require(1).get() & 0xFF;
+        }
+
+        public short readShort() throws IOException
+        {
+            return require(2).getShort();
+        }
+
+        public int readUnsignedShort() throws IOException
+        {
+            return require(2).getShort() & 0xFFFF;
+        }
+
+        public int readInt() throws IOException
+        {
+            return require(4).getInt();
+        }
+
+        public long readUnsignedInt() throws IOException
+        {
+            return require(4).getInt() & 0xFFFFFFFFL;
+        }
+
+        public long readLong() throws IOException
         {
+            return require(8).getLong();
         }
 
-        @Override
-        public String toString()
+        public float readFloat() throws IOException
+        {
+            return require(4).getFloat();
+        }
+
+        public double readDouble() throws IOException
+        {
+            return require(8).getDouble();
+        }
+
+        public int getByteOrdering()
+        {
+            return EndianType.BIG_ENDIAN;
+        }
+
+        public int skipBytes(int n) throws IOException
+        {
+            require(n).position(buf.position() + n);
+            return n;
+        }
+
+        public void write(int b) throws IOException
+        {
+            throw new IOException("Read-only code stream");
+        }
+
+        public void writeByte(int v) throws IOException
+        {
+            throw new IOException("Read-only code stream");
+        }
+
+        public void writeShort(int v) throws IOException
+        {
+            throw new IOException("Read-only code stream");
+        }
+
+        public void writeInt(int v) throws IOException
+        {
+            throw new IOException("Read-only code stream");
+        }
+
+        public void writeLong(long v) throws IOException
+        {
+            throw new IOException("Read-only code stream");
+        }
+
+        public void writeFloat(float v) throws IOException
+        {
+            throw new IOException("Read-only code stream");
+        }
+
+        public void writeDouble(double v) throws IOException
+        {
+            throw new IOException("Read-only code stream");
+        }
+
+        public void flush()
         {
-            return "ImgWriterArray instance (isSigned: " + isSigned + ")";
         }
     }
 }
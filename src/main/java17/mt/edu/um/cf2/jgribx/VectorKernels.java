@@ -0,0 +1,113 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * SIMD versions of the inner loops of {@link Kernels} and {@link BitUnpacker}, written with
+ * the {@code jdk.incubator.vector} API. The operations are carried out in the same order as
+ * in the scalar loops (multiply, add, divide; no fused multiply-add), so that the results
+ * are bit-identical.
+ */
+final class VectorKernels
+{
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = FLOATS.length();
+
+    /**
+     * Species with as many lanes as {@link #FLOATS}, holding packed 8-bit and 16-bit values.
+     */
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED.withShape(
+            VectorShape.forBitSize(LANES * Byte.SIZE));
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED.withShape(
+            VectorShape.forBitSize(LANES * Short.SIZE));
+
+    private VectorKernels()
+    {
+    }
+
+    /**
+     * Returns whether the preferred vector shape is wide enough to be worth using.
+     */
+    static boolean isSupported()
+    {
+        return LANES >= 4 && INTS.length() == LANES;
+    }
+
+    /**
+     * Unpacks byte-aligned 8-bit or 16-bit unsigned values X, storing {@code ref + scale * X}.
+     */
+    static void unpack(ByteBuffer buffer, int byteOffset, int nBits, int count, float[] dst, int dstOffset,
+                       float ref, float scale)
+    {
+        int nBytes = nBits / 8;
+        FloatVector vRef = FloatVector.broadcast(FLOATS, ref);
+        FloatVector vScale = FloatVector.broadcast(FLOATS, scale);
+
+        // Vectors are only loaded while all their bytes lie within the buffer
+        int upper = Math.min(FLOATS.loopBound(count), (buffer.limit() - byteOffset) / nBytes / LANES * LANES);
+        int i = 0;
+        if (nBits == 8)
+        {
+            for (; i < upper; i += LANES)
+            {
+                IntVector x = (IntVector) ByteVector.fromByteBuffer(BYTES, buffer, byteOffset + i, ByteOrder.BIG_ENDIAN)
+                        .convertShape(VectorOperators.B2I, INTS, 0);
+                FloatVector f = (FloatVector) x.and(0xFF).convert(VectorOperators.I2F, 0);
+                f.mul(vScale).add(vRef).intoArray(dst, dstOffset + i);
+            }
+        } else
+        {
+            for (; i < upper; i += LANES)
+            {
+                IntVector x = (IntVector) ShortVector.fromByteBuffer(SHORTS, buffer, byteOffset + 2 * i,
+                        ByteOrder.BIG_ENDIAN).convertShape(VectorOperators.S2I, INTS, 0);
+                FloatVector f = (FloatVector) x.and(0xFFFF).convert(VectorOperators.I2F, 0);
+                f.mul(vScale).add(vRef).intoArray(dst, dstOffset + i);
+            }
+        }
+        for (; i < count; i++)
+        {
+            int index = byteOffset + i * nBytes;
+            int x = nBits == 8 ? buffer.get(index) & 0xFF : buffer.getShort(index) & 0xFFFF;
+            dst[dstOffset + i] = ref + scale * x;
+        }
+    }
+
+    static void scale(int[] src, int srcOffset, float[] dst, int dstOffset, int count, float R, float EE, float DD)
+    {
+        FloatVector vR = FloatVector.broadcast(FLOATS, R);
+        FloatVector vEE = FloatVector.broadcast(FLOATS, EE);
+        FloatVector vDD = FloatVector.broadcast(FLOATS, DD);
+        int upper = FLOATS.loopBound(count);
+        int i = 0;
+        for (; i < upper; i += LANES)
+        {
+            FloatVector f = (FloatVector) IntVector.fromArray(INTS, src, srcOffset + i).convert(VectorOperators.I2F, 0);
+            f.mul(vEE).add(vR).div(vDD).intoArray(dst, dstOffset + i);
+        }
+        for (; i < count; i++)
+        {
+            dst[dstOffset + i] = (R + src[srcOffset + i] * EE) / DD;
+        }
+    }
+}
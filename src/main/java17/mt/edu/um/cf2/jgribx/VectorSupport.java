@@ -0,0 +1,76 @@
+/*
+ * ============================================================================
+ * JGribX
+ * ============================================================================
+ * Written by Andrew Spiteri <andrew.spiteri@um.edu.mt>
+ * Adapted from JGRIB: http://jgrib.sourceforge.net/
+ *
+ * Licensed under MIT: https://github.com/spidru/JGribX/blob/master/LICENSE
+ * ============================================================================
+ */
+package mt.edu.um.cf2.jgribx;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hooks for SIMD versions of the inner loops of {@link Kernels} and {@link BitUnpacker},
+ * used on JDK 17 or later. The operations are delegated to {@link VectorKernels} if the
+ * {@code jdk.incubator.vector} module has been enabled, otherwise they are declined so
+ * that the scalar code is used. {@link VectorKernels} is only loaded once the module has
+ * been found.
+ */
+final class VectorSupport
+{
+    /**
+     * Arrays shorter than this are not worth setting up the vectors for.
+     */
+    private static final int MIN_LENGTH = 64;
+
+    private static final boolean AVAILABLE = probe();
+
+    private VectorSupport()
+    {
+    }
+
+    private static boolean probe()
+    {
+        if (!Boolean.parseBoolean(System.getProperty("jgribx.vector", "true")))
+        {
+            return false;
+        }
+        try
+        {
+            Class.forName("jdk.incubator.vector.FloatVector");
+            return VectorKernels.isSupported();
+        } catch (ClassNotFoundException | LinkageError e)
+        {
+            return false;
+        }
+    }
+
+    static boolean isAvailable()
+    {
+        return AVAILABLE;
+    }
+
+    static boolean unpack(ByteBuffer buffer, int byteOffset, int nBits, int count, float[] dst, int dstOffset,
+                          float ref, float scale)
+    {
+        if (!AVAILABLE || count < MIN_LENGTH || (nBits != 8 && nBits != 16))
+        {
+            return false;
+        }
+        VectorKernels.unpack(buffer, byteOffset, nBits, count, dst, dstOffset, ref, scale);
+        return true;
+    }
+
+    static boolean scale(int[] src, int srcOffset, float[] dst, int dstOffset, int count, float R, float EE, float DD)
+    {
+        if (!AVAILABLE || count < MIN_LENGTH)
+        {
+            return false;
+        }
+        VectorKernels.scale(src, srcOffset, dst, dstOffset, count, R, EE, DD);
+        return true;
+    }
+}
@@ -1,27 +1,63 @@
 package mt.edu.um.cf2.jgribx;
 
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import mt.edu.um.cf2.jgribx.grib1.Grib1Record;
+import mt.edu.um.cf2.jgribx.grib1.Grib1RecordBDS;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import ucar.nc2.grib.grib2.Grib2JpegDecoder;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.Random;
 import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeNotNull;
+import static org.junit.Assume.assumeTrue;
 
 public class GribTest
 {
@@ -59,6 +95,7 @@ public class GribTest
         final int[] GENERATING_PROCESSES = {81, 96};
 
         URL url = GribTest.class.getResource(FILENAME);
+        assumeNotNull(url);
         System.out.println("Path to file: " + url);
         GribFile gribFile = new GribFile(url.openStream());
 
@@ -78,12 +115,1345 @@ public class GribTest
         final int[] WEATHER_CENTRES = {7};
 
         URL url = GribTest.class.getResource(FILENAME);
+        assumeNotNull(url);
         GribFile file = new GribFile(url.openStream());
 
         assertEquals("GRIB edition", EDITION, file.getEdition());
         assertArrayEquals("Weather centres", WEATHER_CENTRES, file.getCentreIDs());
     }
 
+    @Test
+    public void testGrib2MappedFile() throws IOException, NoValidGribException, NotSupportedException
+    {
+        List<SyntheticGrib.Field> fields = syntheticFields();
+        byte[] bytes = SyntheticGrib.file(fields);
+        Path path = Files.createTempFile("jgribx", ".grb2");
+        try
+        {
+            Files.write(path, bytes);
+            GribFile streamed = new GribFile(new ByteArrayInputStream(bytes));
+            GribFile mapped = new GribFile(path);
+
+            assertEquals("Records read successfully", fields.size(), mapped.getRecordCount());
+            assertEquals("Parameter codes", streamed.getParameterCodes(), mapped.getParameterCodes());
+            for (int i = 0; i < fields.size(); i++)
+            {
+                // Unpack into a caller buffer before the values are cached by getValues()
+                GribRecord record = mapped.getRecords().get(i);
+                float[] dst = new float[record.getValueCount()];
+                assertEquals("Values written", dst.length, record.getValues(dst));
+
+                assertArrayEquals("Values of record " + i, fields.get(i).values, record.getValues(), 0.0f);
+                assertArrayEquals("Values of record " + i + " in caller buffer", record.getValues(), dst, 0.0f);
+                assertArrayEquals("Values of streamed record " + i, record.getValues(),
+                        streamed.getRecords().get(i).getValues(), 0.0f);
+            }
+        } finally
+        {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testGrib2PackedStorage() throws IOException, NoValidGribException, NotSupportedException
+    {
+        List<SyntheticGrib.Field> fields = syntheticFields();
+        byte[] bytes = SyntheticGrib.file(fields);
+        Path path = Files.createTempFile("jgribx", ".grb2");
+        try
+        {
+            Files.write(path, bytes);
+            GribFile file = new GribFile(new ByteArrayInputStream(bytes));
+
+            // Packed storage is an option of each file, reader and index, also when decoding in parallel
+            List<List<GribRecord>> packed = new ArrayList<>();
+            packed.add(new GribFile(new ByteArrayInputStream(bytes), true).getRecords());
+            packed.add(new GribFile(path, true).getRecords());
+            GribInputStream mapped = GribByteBufferInputStream.map(path);
+            mapped.setPackedStorage(true);
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try
+            {
+                packed.add(new GribFile(mapped, executor).getRecords());
+            } finally
+            {
+                executor.shutdownNow();
+            }
+            try (GribReader reader = new GribReader(new ByteArrayInputStream(bytes)))
+            {
+                reader.setPackedStorage(true);
+                List<GribRecord> records = new ArrayList<>();
+                reader.forEachRemaining(records::add);
+                packed.add(records);
+            }
+            GribIndex index = GribIndex.open(new ByteArrayGribSource(bytes));
+            index.setPackedStorage(true);
+            List<GribRecord> records = new ArrayList<>();
+            for (RecordLocator locator : index.getLocators())
+            {
+                records.add(index.readRecord(locator));
+            }
+            packed.add(records);
+
+            for (List<GribRecord> packedRecords : packed)
+            {
+                assertEquals("Records read", file.getRecordCount(), packedRecords.size());
+                for (int i = 0; i < file.getRecordCount(); i++)
+                {
+                    GribRecord record = file.getRecords().get(i);
+                    GribRecord packedRecord = packedRecords.get(i);
+                    assertArrayEquals("Values of record " + i, record.getValues(), packedRecord.getValues(), 0.0f);
+                    for (double latitude = 0; latitude <= 23; latitude += 5)
+                    {
+                        assertEquals("Value of record " + i + " at latitude " + latitude,
+                                record.getValue(latitude, 15), packedRecord.getValue(latitude, 15), 0.0);
+                    }
+
+                    // Only the values of simple-packed fields stored in their packed form are not retained
+                    boolean simple = fields.get(i).packing == SyntheticGrib.SIMPLE;
+                    assertSame("Values of record " + i + " retained", record.getValues(), record.getValues());
+                    assertEquals("Values of packed record " + i + " retained", !simple,
+                            packedRecord.getValues() == packedRecord.getValues());
+                }
+            }
+        } finally
+        {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testGrib1ValueRange() throws IOException, NoValidGribException, NotSupportedException
+    {
+        List<SyntheticGrib.Field> fields = syntheticFields();
+        byte[] bytes = SyntheticGrib.file(fields);
+        Path path = Files.createTempFile("jgribx", ".grb");
+        try
+        {
+            Files.write(path, bytes);
+            List<List<GribRecord>> files = new ArrayList<>();
+            files.add(new GribFile(new ByteArrayInputStream(bytes)).getRecords());
+            files.add(new GribFile(path).getRecords());
+            files.add(new GribFile(path, true).getRecords());
+            for (List<GribRecord> records : files)
+            {
+                for (int i = 0; i < fields.size(); i++)
+                {
+                    SyntheticGrib.Field field = fields.get(i);
+                    if (field.edition != 1)
+                    {
+                        continue;
+                    }
+                    float min = Float.MAX_VALUE;
+                    float max = -Float.MAX_VALUE;
+                    for (float value : field.values)
+                    {
+                        if (value != SyntheticGrib.GRIB1_MISSING)
+                        {
+                            min = Math.min(min, value);
+                            max = Math.max(max, value);
+                        }
+                    }
+
+                    // The range is found from the packed values and is not disturbed by concurrent unpacking
+                    Grib1RecordBDS bds = ((Grib1Record) records.get(i)).getBDS();
+                    Thread[] threads = new Thread[4];
+                    for (int t = 0; t < threads.length; t++)
+                    {
+                        threads[t] = new Thread(() -> bds.getValues(new float[bds.getNumValues()], 0));
+                        threads[t].start();
+                    }
+                    assertEquals("Minimum of record " + i, min, bds.getMinValue(), 0.0f);
+                    assertEquals("Maximum of record " + i, max, bds.getMaxValue(), 0.0f);
+                    for (Thread thread : threads)
+                    {
+                        try
+                        {
+                            thread.join();
+                        } catch (InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                            fail("Interrupted");
+                        }
+                    }
+                    assertEquals("Minimum of record " + i, min, bds.getMinValue(), 0.0f);
+                    assertEquals("Maximum of record " + i, max, bds.getMaxValue(), 0.0f);
+                }
+            }
+        } finally
+        {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testGrib2RecordsEndingMidByte() throws IOException, NoValidGribException, NotSupportedException
+    {
+        // 3x3 values of 13 bits leave the last byte of each data section partly used
+        List<SyntheticGrib.Field> fields = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+        {
+            SyntheticGrib.Field field = new SyntheticGrib.Field();
+            field.ni = 3;
+            field.nj = 3;
+            field.nBits = 13;
+            field.number = i;
+            field.forecastHour = 3 * i;
+            fields.add(field);
+        }
+        byte[] bytes = SyntheticGrib.file(fields);
+
+        // A plain stream unpacks each field as it is read, so it must skip to the next record itself
+        List<GribRecord> records = new ArrayList<>();
+        try (GribReader reader = new GribReader(new ByteArrayInputStream(bytes)))
+        {
+            reader.forEachRemaining(records::add);
+            assertEquals("Records skipped", 0, reader.getRecordsSkippedCount());
+        }
+        assertEquals("Records read", fields.size(), records.size());
+        for (int i = 0; i < fields.size(); i++)
+        {
+            assertEquals("Forecast hour of record " + i, 3 * i,
+                    (records.get(i).getForecastTime().getTimeInMillis()
+                            - records.get(i).getReferenceTime().getTimeInMillis()) / 3600000);
+            assertArrayEquals("Values of record " + i, fields.get(i).values, records.get(i).getValues(), 0.0f);
+        }
+    }
+
+    @Test
+    public void testGrib2Scanner() throws IOException, NoValidGribException
+    {
+        byte[] bytes = SyntheticGrib.file(syntheticFields());
+        Path path = Files.createTempFile("jgribx", ".grb2");
+        try
+        {
+            Files.write(path, bytes);
+            GribFile file = new GribFile(new ByteArrayInputStream(bytes));
+            List<RecordLocator> locators = GribScanner.scan(path);
+
+            assertEquals("Records scanned successfully", file.getRecordCount(), locators.size());
+            long offset = 0;
+            for (int i = 0; i < locators.size(); i++)
+            {
+                GribRecord record = file.getRecords().get(i);
+                RecordLocator locator = locators.get(i);
+                assertEquals("Offset of record " + i, offset, locator.getOffset());
+                assertEquals("Parameter of record " + i, record.getParameterCode(), locator.getParameterCode());
+                assertEquals("Level of record " + i, record.getLevelIdentifier(), locator.getLevelIdentifier());
+                assertEquals("Forecast time of record " + i, record.getForecastTime(), locator.getForecastTime());
+                offset += locator.getLength();
+            }
+            assertEquals("Records cover the file", bytes.length, offset);
+
+            // A locator without times can still be described
+            RecordLocator first = locators.get(0);
+            RecordLocator untimed = new RecordLocator(first.getOffset(), first.getLength(), first.getEdition(),
+                    first.getDiscipline(), first.getCentreId(), first.getProcessId(), first.getParameterCode(),
+                    first.getLevelCode(), first.getLevelIdentifier(), first.getLevelValues(), null, null);
+            assertTrue("Description of " + untimed, untimed.toString().startsWith("GRIB-"));
+        } finally
+        {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testGribReader() throws IOException
+    {
+        List<SyntheticGrib.Field> fields = syntheticFields();
+        byte[] bytes = SyntheticGrib.file(fields);
+
+        // Like a pipe, return a byte at a time and never report any bytes as available
+        InputStream pipe = new FilterInputStream(new ByteArrayInputStream(bytes))
+        {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                return super.read(b, off, Math.min(len, 1));
+            }
+
+            @Override
+            public int available()
+            {
+                return 0;
+            }
+        };
+        try (GribReader reader = new GribReader(pipe))
+        {
+            int nRecords = 0;
+            while (reader.hasNext())
+            {
+                assertArrayEquals("Values of record " + nRecords, fields.get(nRecords).values,
+                        reader.next().getValues(), 0);
+                nRecords++;
+            }
+            assertEquals("Records read", fields.size(), nRecords);
+            assertEquals("Records skipped", 0, reader.getRecordsSkippedCount());
+        }
+
+        try (GribReader reader = new GribReader(new ByteArrayInputStream(bytes)))
+        {
+            assertEquals("Records streamed", fields.size(), reader.stream().count());
+        }
+    }
+
+    @Test
+    public void testTruncatedFile() throws IOException, NoValidGribException, NotSupportedException
+    {
+        List<SyntheticGrib.Field> fields = syntheticFields();
+        byte[] bytes = SyntheticGrib.file(fields);
+
+        // Cut the last record short, in the middle of its data section
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 40);
+        Path path = Files.createTempFile("jgribx", ".grb2");
+        try
+        {
+            Files.write(path, truncated);
+            GribFile[] files = {
+                    new GribFile(path),
+                    new GribFile(path.toString()),
+                    new GribFile(new ByteArrayInputStream(truncated))
+            };
+            for (GribFile file : files)
+            {
+                assertEquals("Records read", fields.size() - 1, file.getRecordCount());
+                assertEquals("Records skipped", 1, file.getRecordsSkippedCount());
+            }
+
+            for (GribReader reader : new GribReader[] {new GribReader(path), new GribReader(new ByteArrayInputStream(truncated))})
+            {
+                try
+                {
+                    int nRecords = 0;
+                    while (reader.hasNext())
+                    {
+                        assertArrayEquals("Values of record " + nRecords, fields.get(nRecords).values,
+                                reader.next().getValues(), 0);
+                        nRecords++;
+                    }
+                    assertEquals("Records read", fields.size() - 1, nRecords);
+                    assertEquals("Records skipped", 1, reader.getRecordsSkippedCount());
+                } finally
+                {
+                    reader.close();
+                }
+            }
+        } finally
+        {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testParallelGribFile() throws IOException, NoValidGribException, NotSupportedException
+    {
+        List<SyntheticGrib.Field> fields = syntheticFields();
+        byte[] bytes = SyntheticGrib.file(fields);
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 40);
+        Path path = Files.createTempFile("jgribx", ".grb2");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            for (byte[] content : new byte[][] {bytes, truncated})
+            {
+                Files.write(path, content);
+                GribFile sequential = new GribFile(path);
+                GribFile[] files = {
+                        new GribFile(path, executor),
+                        new GribFile(new GribInputStream(new BufferedInputStream(new ByteArrayInputStream(content))),
+                                executor)
+                };
+                for (GribFile file : files)
+                {
+                    // Records decoded in parallel are kept in file order
+                    assertEquals("Records read", sequential.getRecordCount(), file.getRecordCount());
+                    assertEquals("Records skipped", sequential.getRecordsSkippedCount(),
+                            file.getRecordsSkippedCount());
+                    for (int i = 0; i < file.getRecordCount(); i++)
+                    {
+                        GribRecord expected = sequential.getRecords().get(i);
+                        GribRecord record = file.getRecords().get(i);
+                        assertEquals("Parameter of record " + i, expected.getParameterCode(), record.getParameterCode());
+                        assertEquals("Level of record " + i, expected.getLevelIdentifier(), record.getLevelIdentifier());
+                        assertEquals("Forecast time of record " + i, expected.getForecastTime(),
+                                record.getForecastTime());
+                        assertArrayEquals("Values of record " + i, fields.get(i).values, record.getValues(), 0.0f);
+                    }
+                }
+            }
+        } finally
+        {
+            executor.shutdownNow();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testGrib2Index() throws IOException, NoValidGribException, NotSupportedException
+    {
+        byte[] bytes = SyntheticGrib.file(syntheticFields());
+        Path dir = Files.createTempDirectory("jgribx");
+        Path path = Files.write(dir.resolve("example.grb2"), bytes);
+        try
+        {
+            GribIndex scanned = GribIndex.open(path);
+            assertTrue("Index file written", Files.exists(GribIndex.getIndexPath(path)));
+
+            GribIndex loaded = GribIndex.read(path);
+            assertNotNull("Index file loaded", loaded);
+            assertEquals("Records loaded", scanned.getLocators().size(), loaded.getLocators().size());
+            for (int i = 0; i < loaded.getLocators().size(); i++)
+            {
+                assertEquals("Record " + i, scanned.getLocators().get(i).toString(), loaded.getLocators().get(i).toString());
+            }
+
+            GribFile file = new GribFile(new ByteArrayInputStream(bytes));
+            GribRecord record = loaded.readRecord(loaded.getLocators().get(0));
+            assertArrayEquals("Values of first record", file.getRecords().get(0).getValues(), record.getValues(), 0);
+
+            // Records are looked up as in the GRIB file
+            assertEquals("Parameter codes", file.getParameterCodes(), loaded.getParameterCodes());
+            for (String parameterCode : file.getParameterCodes())
+            {
+                List<String> identifiers = new ArrayList<>();
+                List<String> descriptions = new ArrayList<>();
+                for (GribRecord parameterRecord : file.getRecords())
+                {
+                    if (parameterRecord.getParameterCode().equals(parameterCode)
+                            && !identifiers.contains(parameterRecord.getLevelIdentifier()))
+                    {
+                        identifiers.add(parameterRecord.getLevelIdentifier());
+                        descriptions.add(parameterRecord.getLevelDescription());
+                    }
+                }
+                assertEquals("Levels of " + parameterCode, identifiers, file.getParameterLevelIdentifiers(parameterCode));
+                assertEquals("Level descriptions of " + parameterCode, descriptions,
+                        file.getParameterLevelDescriptions(parameterCode));
+            }
+            assertEquals("Level descriptions of unknown parameter", 0, file.getParameterLevelDescriptions("XYZ").size());
+            for (int i = 0; i < loaded.getLocators().size(); i++)
+            {
+                RecordLocator locator = loaded.getLocators().get(i);
+                String level = locator.getLevelCode() + ":" + Math.round(locator.getLevelValues()[0]);
+                for (String levelCode : new String[] {locator.getLevelCode(), level})
+                {
+                    GribRecord expected = file.getRecord(locator.getForecastTime(), locator.getParameterCode(), levelCode);
+                    RecordLocator found = loaded.getRecord(locator.getForecastTime(), locator.getParameterCode(), levelCode);
+                    assertNotNull("Record at " + levelCode, found);
+                    assertEquals("Record at " + levelCode, file.getRecords().indexOf(expected),
+                            loaded.getLocators().indexOf(found));
+                }
+            }
+            assertNull("No record at unknown level",
+                    loaded.getRecord(loaded.getLocators().get(0).getForecastTime(), "TMP", "XYZ:1"));
+
+            double[] latitudes = {0, 5.5, 12.3, 23};
+            double[] longitudes = {0, 14.5, 20, 35};
+            double[][] points = loaded.getValues(loaded.getLocators(), latitudes, longitudes);
+            for (int i = 0; i < points.length; i++)
+            {
+                for (int j = 0; j < latitudes.length; j++)
+                {
+                    assertEquals("Point " + j + " of record " + i, file.getRecords().get(i).getValue(latitudes[j], longitudes[j]),
+                            points[i][j], 0);
+                }
+            }
+
+            // Records are read again on each call, and for each occurrence of their locator
+            List<RecordLocator> repeated = Arrays.asList(loaded.getLocators().get(1), loaded.getLocators().get(1));
+            double[][] repeatedPoints = loaded.getValues(repeated, latitudes, longitudes);
+            assertArrayEquals("Points of repeated record", points[1], repeatedPoints[0], 0);
+            assertArrayEquals("Points of repeated record", points[1], repeatedPoints[1], 0);
+            assertNotSame("Record read again", loaded.readRecord(repeated.get(0)), loaded.readRecord(repeated.get(0)));
+            assertEquals("Points of no records", 0,
+                    loaded.getValues(Collections.emptyList(), latitudes, longitudes).length);
+
+            GribQuery query = new GribQuery().editions(2).parameters(file.getRecords().get(0).getParameterCode());
+            try (GribSource source = new MappedGribSource(path))
+            {
+                GribFile selected = GribFile.open(source, query);
+                int nMatching = 0;
+                for (int i = 0; i < loaded.getLocators().size(); i++)
+                {
+                    if (query.test(loaded.getLocators().get(i)))
+                    {
+                        assertArrayEquals("Values of selected record " + i, file.getRecords().get(i).getValues(),
+                                selected.getRecords().get(nMatching++).getValues(), 0);
+                    }
+                }
+                assertEquals("Records selected", nMatching, selected.getRecordCount());
+                assertEquals("GRIB-1 records selected", 2,
+                        GribFile.open(source, new GribQuery().editions(1)).getRecordCount());
+                assertEquals("No records selected", 0,
+                        GribFile.open(source, new GribQuery().centres(98)).getRecordCount());
+            }
+
+            // A record without times only matches queries without a time range
+            RecordLocator first = loaded.getLocators().get(0);
+            RecordLocator untimed = new RecordLocator(first.getOffset(), first.getLength(), first.getEdition(),
+                    first.getDiscipline(), first.getCentreId(), first.getProcessId(), first.getParameterCode(),
+                    first.getLevelCode(), first.getLevelIdentifier(), first.getLevelValues(), null, null);
+            String level = first.getLevelCode() + ":" + Math.round(first.getLevelValues()[0]);
+            assertTrue("Untimed record at " + level, new GribQuery().levels(level).test(untimed));
+            assertFalse("Untimed record in forecast time range",
+                    new GribQuery().forecastTimes(first.getForecastTime(), null).test(untimed));
+            assertFalse("Untimed record in reference time range",
+                    new GribQuery().referenceTimes(null, first.getReferenceTime()).test(untimed));
+
+            // A truncated or corrupt index file is ignored and written again
+            Path indexPath = GribIndex.getIndexPath(path);
+            byte[] indexBytes = Files.readAllBytes(indexPath);
+            for (int length : new int[] {0, 3, 21, 27, indexBytes.length / 2, indexBytes.length - 1})
+            {
+                Files.write(indexPath, Arrays.copyOf(indexBytes, length));
+                assertNull("Index file truncated to " + length + " bytes", GribIndex.read(path));
+            }
+            byte[] corrupt = indexBytes.clone();
+            ByteBuffer.wrap(corrupt).putInt(20, Integer.MAX_VALUE);
+            Files.write(indexPath, corrupt);
+            assertNull("Index file with corrupt string count", GribIndex.read(path));
+            assertEquals("Records scanned again", scanned.getLocators().size(), GribIndex.open(path).getLocators().size());
+            assertArrayEquals("Index file written again", indexBytes, Files.readAllBytes(indexPath));
+
+            // Any change to the GRIB file invalidates the index, which is then not written again
+            Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 1000));
+            assertNull("Index file out of date", GribIndex.read(path));
+            try
+            {
+                scanned.write();
+                fail("Index of a changed file was written");
+            } catch (IOException e)
+            {
+                assertNull("Index file not written", GribIndex.read(path));
+            }
+        } finally
+        {
+            Files.deleteIfExists(GribIndex.getIndexPath(path));
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testLazyDecoding() throws IOException, NoValidGribException, NotSupportedException, InterruptedException
+    {
+        List<SyntheticGrib.Field> fields = syntheticFields();
+        byte[] bytes = SyntheticGrib.file(fields);
+        Path path = Files.write(Files.createTempFile("jgribx", ".grb2"), bytes);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            GribFile mapped = new GribFile(path);
+            for (int i = 0; i < fields.size(); i++)
+            {
+                GribRecord record = mapped.getRecords().get(i);
+
+                // Concurrent first requests decode the values once
+                List<Future<float[]>> futures = new ArrayList<>();
+                for (int j = 0; j < 4; j++)
+                {
+                    futures.add(executor.submit(() -> record.getValues()));
+                }
+                float[] values = futures.get(0).get();
+                for (Future<float[]> future : futures)
+                {
+                    assertSame("Values of record " + i + " decoded once", values, future.get());
+                }
+                assertArrayEquals("Values of record " + i, fields.get(i).values, values, 0.0f);
+                assertSame("Values of record " + i + " kept", values, record.getValues());
+
+                // Released values are decoded again from the packed data
+                record.releaseValues();
+                float[] decoded = record.getValues();
+                assertNotSame("Values of record " + i + " released", values, decoded);
+                assertArrayEquals("Values of record " + i + " decoded again", values, decoded, 0.0f);
+            }
+
+            // Records read from a stream cannot be decoded again, so they keep their values
+            GribRecord streamed = new GribFile(new ByteArrayInputStream(bytes)).getRecords().get(0);
+            float[] values = streamed.getValues();
+            streamed.releaseValues();
+            assertSame("Values of streamed record kept", values, streamed.getValues());
+        } catch (ExecutionException e)
+        {
+            throw new AssertionError(e.getCause());
+        } finally
+        {
+            executor.shutdownNow();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testResynchronisation() throws IOException, NoValidGribException, NotSupportedException
+    {
+        List<SyntheticGrib.Field> fields = syntheticFields();
+
+        // Follow each record with junk: a WMO bulletin header, or runs of "GRI" longer than
+        // the search buffer which only fail to match on the last byte
+        byte[] header = "\u0001\r\r\n123\r\r\nTTAA00 LMLT 120000\r\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] near = new byte[20001];
+        for (int i = 0; i < near.length; i++)
+        {
+            near[i] = (byte) "GRI".charAt(i % 3);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<Long> offsets = new ArrayList<>();
+        for (int i = 0; i < fields.size(); i++)
+        {
+            offsets.add((long) out.size());
+            out.write(SyntheticGrib.record(fields.get(i)));
+            out.write(i % 2 == 0 ? header : near);
+        }
+        // Fewer bytes than the length of the pattern are left at the end
+        out.write("GR".getBytes(StandardCharsets.US_ASCII));
+        byte[] bytes = out.toByteArray();
+
+        Path path = Files.write(Files.createTempFile("jgribx", ".grb2"), bytes);
+        try
+        {
+            GribFile[] files = {new GribFile(path), new GribFile(new ByteArrayInputStream(bytes))};
+            for (GribFile file : files)
+            {
+                assertEquals("Records read", fields.size(), file.getRecordCount());
+                for (int i = 0; i < fields.size(); i++)
+                {
+                    assertArrayEquals("Values of record " + i, fields.get(i).values,
+                            file.getRecords().get(i).getValues(), 0.0f);
+                }
+            }
+
+            List<RecordLocator> locators = GribScanner.scan(path);
+            assertEquals("Records scanned", fields.size(), locators.size());
+            for (int i = 0; i < fields.size(); i++)
+            {
+                assertEquals("Offset of record " + i, (long) offsets.get(i), locators.get(i).getOffset());
+            }
+        } finally
+        {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testAsyncReader() throws IOException, InterruptedException
+    {
+        List<SyntheticGrib.Field> fields = syntheticFields();
+        byte[] bytes = SyntheticGrib.file(fields);
+        Path path = Files.write(Files.createTempFile("jgribx", ".grb2"), bytes);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (GribAsyncReader reader = new GribAsyncReader(path, executor))
+        {
+            // Records read concurrently are returned in the order of their locators
+            List<RecordLocator> locators = new ArrayList<>(GribScanner.scan(path));
+            Collections.reverse(locators);
+            List<GribRecord> records = reader.read(locators).get();
+            assertEquals("Records read", fields.size(), records.size());
+            for (int i = 0; i < records.size(); i++)
+            {
+                SyntheticGrib.Field field = fields.get(fields.size() - 1 - i);
+                assertEquals("Parameter of record " + i, locators.get(i).getParameterCode(),
+                        records.get(i).getParameterCode());
+                assertArrayEquals("Values of record " + i, field.values, records.get(i).getValues(), 0.0f);
+            }
+
+            // A record extending beyond the end of the file is not read
+            RecordLocator last = locators.get(0);
+            RecordLocator[] beyond = {
+                    new RecordLocator(bytes.length + 100, last.getLength(), last.getEdition(), last.getDiscipline(),
+                            last.getCentreId(), last.getProcessId(), last.getParameterCode(), last.getLevelCode(),
+                            last.getLevelIdentifier(), last.getLevelValues(), last.getReferenceTime(),
+                            last.getForecastTime()),
+                    new RecordLocator(last.getOffset(), last.getLength() + 100, last.getEdition(),
+                            last.getDiscipline(), last.getCentreId(), last.getProcessId(), last.getParameterCode(),
+                            last.getLevelCode(), last.getLevelIdentifier(), last.getLevelValues(),
+                            last.getReferenceTime(), last.getForecastTime())
+            };
+            for (RecordLocator locator : beyond)
+            {
+                try
+                {
+                    reader.read(locator).get();
+                    fail("Record beyond the end of the file was read");
+                } catch (ExecutionException e)
+                {
+                    assertTrue("Cause " + e.getCause(), e.getCause() instanceof EOFException);
+                }
+            }
+            try
+            {
+                reader.read(Arrays.asList(locators.get(1), beyond[0])).get();
+                fail("Records beyond the end of the file were read");
+            } catch (ExecutionException e)
+            {
+                assertTrue("Cause " + e.getCause(), e.getCause() instanceof EOFException);
+            }
+        } catch (ExecutionException e)
+        {
+            throw new AssertionError(e.getCause());
+        } finally
+        {
+            executor.shutdownNow();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testIeeePacking() throws IOException, NoValidGribException
+    {
+        // 128-bit precision is not supported
+        SyntheticGrib.Field quadruple = new SyntheticGrib.Field();
+        quadruple.packing = SyntheticGrib.IEEE;
+        quadruple.precision = 3;
+        byte[] unsupported = SyntheticGrib.grib2(quadruple);
+        try
+        {
+            GribRecord.readFromStream(new GribInputStream(new ByteArrayInputStream(unsupported)));
+            fail("128-bit precision is not supported");
+        } catch (NotSupportedException e)
+        {
+            assertTrue("Message names the precision: " + e.getMessage(), e.getMessage().contains("precision 3"));
+        }
+
+        // 32-bit and 64-bit precision, with and without a bit map, around an unsupported record
+        List<SyntheticGrib.Field> fields = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int precision : new int[] {1, 2})
+        {
+            for (boolean bitmap : new boolean[] {false, true})
+            {
+                SyntheticGrib.Field field = new SyntheticGrib.Field();
+                field.packing = SyntheticGrib.IEEE;
+                field.precision = precision;
+                field.number = fields.size();
+                field.values = SyntheticGrib.randomWalk(field.ni * field.nj, fields.size());
+                field.values[0] = Float.MAX_VALUE;
+                field.values[1] = -Float.MIN_VALUE;
+                if (bitmap)
+                {
+                    field.withBitmap(fields.size());
+                    field.mask[0] = true;
+                    field.mask[1] = true;
+                }
+                out.write(SyntheticGrib.grib2(field));
+                fields.add(field);
+            }
+            if (precision == 1)
+            {
+                out.write(unsupported);
+            }
+        }
+        byte[] bytes = out.toByteArray();
+
+        GribFile file = new GribFile(new ByteArrayInputStream(bytes));
+        GribFile mapped = new GribFile(new GribByteBufferInputStream(ByteBuffer.wrap(bytes)));
+        for (GribFile f : new GribFile[] {file, mapped})
+        {
+            assertEquals("Records read", fields.size(), f.getRecordCount());
+            assertEquals("Records skipped", 1, f.getRecordsSkippedCount());
+        }
+        for (int i = 0; i < fields.size(); i++)
+        {
+            float[] values = fields.get(i).values;
+            assertArrayEquals("Values of record " + i, values, file.getRecords().get(i).getValues(), 0);
+
+            // Unpack into a caller buffer before the values are cached by getValues()
+            GribRecord record = mapped.getRecords().get(i);
+            float[] dst = new float[values.length + 1];
+            assertEquals("Values written", values.length, record.getValues(dst, 1));
+            assertArrayEquals("Values of mapped record " + i, values, Arrays.copyOfRange(dst, 1, dst.length), 0);
+        }
+    }
+
+    @Test
+    public void testComplexPacking() throws IOException, NoValidGribException, NotSupportedException
+    {
+        List<SyntheticGrib.Field> fields = new ArrayList<>();
+        for (int mvm : new int[] {0, 1, 2})
+        {
+            for (int order : new int[] {1, 2})
+            {
+                for (boolean bitmap : new boolean[] {false, true})
+                {
+                    // Fields of alternating sizes, so that scratch buffers are reused when larger
+                    SyntheticGrib.Field field = new SyntheticGrib.Field();
+                    field.packing = SyntheticGrib.COMPLEX;
+                    field.ni = fields.size() % 2 == 0 ? 36 : 12;
+                    field.spatialOrder = order;
+                    field.missingValueManagement = mvm;
+                    field.number = fields.size();
+                    field.values = SyntheticGrib.randomWalk(field.ni * field.nj, fields.size());
+
+                    // A constant run, which packs into groups of zero width
+                    Arrays.fill(field.values, 100, 130, field.values[100]);
+                    if (mvm != 0)
+                    {
+                        // Scattered missing values, and groups holding missing values only
+                        for (int i = 3; i < field.values.length; i += 11)
+                        {
+                            field.values[i] = Float.NaN;
+                        }
+                        Arrays.fill(field.values, 140, 170, Float.NaN);
+                    }
+                    if (bitmap)
+                    {
+                        field.withBitmap(fields.size());
+                    }
+                    fields.add(field);
+                }
+            }
+        }
+        byte[] bytes = SyntheticGrib.file(fields);
+
+        GribFile file = new GribFile(new ByteArrayInputStream(bytes));
+        GribIndex index = GribIndex.open(new ByteArrayGribSource(bytes));
+        assertEquals("Records read", fields.size(), file.getRecordCount());
+        for (int i = 0; i < fields.size(); i++)
+        {
+            float[] values = fields.get(i).values;
+            assertArrayEquals("Values of record " + i, values, file.getRecords().get(i).getValues(), 0);
+
+            GribRecord record = index.readRecord(index.getLocators().get(i));
+            float[] dst = new float[record.getValueCount()];
+            record.getValues(dst);
+            assertArrayEquals("Values of record " + i + " in caller buffer", values, dst, 0);
+        }
+
+        // The substitutes of missing values are those of the data representation section
+        float[] values = file.getRecords().get(fields.size() - 2).getValues();
+        assertEquals("Primary missing value", SyntheticGrib.PRIMARY_MISSING, values[3], 0);
+        assertEquals("Secondary missing value", SyntheticGrib.SECONDARY_MISSING, values[14], 0);
+    }
+
+    @Test
+    public void testJpeg2000LeanChain() throws IOException
+    {
+        // Images of several sizes, including tiled ones, and bit depths
+        int[][] shapes = {{36, 24, 0}, {97, 61, 0}, {97, 61, 32}, {128, 96, 40}};
+        Random random = new Random(40);
+        for (int nBits : new int[] {8, 12, 16, 20})
+        {
+            for (int[] shape : shapes)
+            {
+                int width = shape[0];
+                int height = shape[1];
+                String name = nBits + " bits, " + width + "x" + height + " in tiles of " + shape[2];
+
+                // A smooth field with some noise, as meteorological fields are
+                int[] samples = new int[width * height];
+                int max = (1 << nBits) - 1;
+                for (int i = 0; i < samples.length; i++)
+                {
+                    double smooth = (Math.sin(i % width / 9.0) + Math.cos(i / width / 7.0) + 2) / 4;
+                    samples[i] = Math.min(max, (int) (smooth * max) + random.nextInt(4));
+                }
+                ByteBuffer codestream = ByteBuffer.wrap(SyntheticGrib.jpeg2000(samples, width, height, nBits, shape[2]));
+
+                Grib2JpegDecoder decoder = new Grib2JpegDecoder(nBits, false);
+                int[] lean = new int[samples.length];
+                float[] leanScaled = new float[samples.length];
+                assertEquals("Samples of " + name, samples.length, decoder.decode(codestream, lean, 0, lean.length));
+                decoder.decode(codestream, leanScaled, 0, leanScaled.length, 250.5f, 0.25f, 10);
+                decoder.setLean(false);
+                int[] full = new int[samples.length];
+                float[] fullScaled = new float[samples.length];
+                decoder.decode(codestream, full, 0, full.length);
+                decoder.decode(codestream, fullScaled, 0, fullScaled.length, 250.5f, 0.25f, 10);
+
+                assertArrayEquals("Samples of " + name, samples, lean);
+                assertArrayEquals("Samples of " + name + " from the full chain", full, lean);
+                assertArrayEquals("Scaled samples of " + name + " from the full chain", fullScaled, leanScaled, 0);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelComplexPacking() throws IOException, NoValidGribException, NotSupportedException
+    {
+        // Fields large enough to be scanned in several parts of 65536 values
+        List<SyntheticGrib.Field> fields = new ArrayList<>();
+        for (int order : new int[] {1, 2})
+        {
+            for (int mvm : new int[] {1, 2})
+            {
+                for (boolean bitmap : new boolean[] {false, true})
+                {
+                    SyntheticGrib.Field field = new SyntheticGrib.Field();
+                    field.packing = SyntheticGrib.COMPLEX;
+                    field.ni = 480;
+                    field.nj = 420;
+                    field.spatialOrder = order;
+                    field.missingValueManagement = mvm;
+                    field.number = fields.size();
+                    field.values = SyntheticGrib.randomWalk(field.ni * field.nj, fields.size());
+                    for (int i = 0; i < field.values.length; i += 97)
+                    {
+                        field.values[i] = Float.NaN;
+                    }
+                    Arrays.fill(field.values, 70000, 70100, Float.NaN);
+                    if (bitmap)
+                    {
+                        field.withBitmap(fields.size());
+                    }
+                    fields.add(field);
+                }
+            }
+        }
+        byte[] bytes = SyntheticGrib.file(fields);
+
+        GribFile sequential = new GribFile(new ByteArrayInputStream(bytes));
+        List<float[]> parallel = new ArrayList<>();
+        ParallelDecoding parallelDecoding = new ParallelDecoding(ForkJoinPool.commonPool(), 1, 4);
+
+        // Values are unpacked both while reading a stream and into a caller buffer
+        try (GribReader reader = new GribReader(new ByteArrayInputStream(bytes)))
+        {
+            reader.setParallelDecoding(parallelDecoding);
+            reader.forEachRemaining(record -> parallel.add(record.getValues()));
+        }
+        GribIndex index = GribIndex.open(new ByteArrayGribSource(bytes));
+        index.setParallelDecoding(parallelDecoding);
+        for (RecordLocator locator : index.getLocators())
+        {
+            GribRecord record = index.readRecord(locator);
+            float[] dst = new float[record.getValueCount()];
+            record.getValues(dst);
+            parallel.add(dst);
+        }
+
+        assertEquals("Records read", 2 * fields.size(), parallel.size());
+        for (int i = 0; i < fields.size(); i++)
+        {
+            float[] values = sequential.getRecords().get(i).getValues();
+            assertArrayEquals("Values of record " + i, fields.get(i).values, values, 0);
+            assertArrayEquals("Values of parallel record " + i, values, parallel.get(i), 0);
+            assertArrayEquals("Values of parallel record " + i + " in caller buffer", values,
+                    parallel.get(fields.size() + i), 0);
+        }
+    }
+
+    @Test
+    public void testParallelRangeDecoding() throws IOException, NoValidGribException, NotSupportedException
+    {
+        // Simple-packed fields are unpacked in ranges of values and JPEG2000 fields in groups of tiles
+        List<SyntheticGrib.Field> fields = new ArrayList<>();
+        for (int edition : new int[] {1, 2})
+        {
+            for (boolean bitmap : new boolean[] {false, true})
+            {
+                SyntheticGrib.Field field = new SyntheticGrib.Field();
+                field.edition = edition;
+                field.ni = 300;
+                field.nj = 200;
+                field.number = fields.size();
+                if (bitmap)
+                {
+                    field.withBitmap(fields.size());
+                }
+                fields.add(field);
+            }
+        }
+        SyntheticGrib.Field tiled = new SyntheticGrib.Field();
+        tiled.packing = SyntheticGrib.JPEG2000;
+        tiled.ni = 200;
+        tiled.nj = 150;
+        tiled.tileSize = 64;
+        tiled.number = fields.size();
+        fields.add(tiled);
+        byte[] bytes = SyntheticGrib.file(fields);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicInteger nTasks = new AtomicInteger();
+        Executor counting = task ->
+        {
+            nTasks.incrementAndGet();
+            executor.execute(task);
+        };
+        List<float[]> sequential = new ArrayList<>();
+        List<float[]> parallel = new ArrayList<>();
+        try
+        {
+            // Each file, reader and index decodes as configured, whatever the others do
+            ParallelDecoding parallelDecoding = new ParallelDecoding(counting, 1, 4);
+            GribIndex index = GribIndex.open(new ByteArrayGribSource(bytes));
+            index.setParallelDecoding(parallelDecoding);
+            try (GribReader reader = new GribReader(new ByteArrayInputStream(bytes)))
+            {
+                reader.setParallelDecoding(ParallelDecoding.SEQUENTIAL);
+                reader.forEachRemaining(record -> sequential.add(record.getValues()));
+            }
+            assertEquals("Parts decoded in parallel sequentially", 0, nTasks.get());
+
+            int nPresent = 0;
+            for (boolean present : fields.get(1).mask)
+            {
+                nPresent += present ? 1 : 0;
+            }
+            assertTrue("Simple packing split", parallelDecoding.getNumParts(nPresent, nPresent, 4096) > 1);
+            assertEquals("Simple packing split by default", 1,
+                    ParallelDecoding.DEFAULT.getNumParts(nPresent, nPresent, 4096));
+
+            // Values are unpacked both while reading a stream and into a caller buffer
+            try (GribReader reader = new GribReader(new ByteArrayInputStream(bytes)))
+            {
+                reader.setParallelDecoding(parallelDecoding);
+                reader.forEachRemaining(record -> parallel.add(record.getValues()));
+            }
+            for (RecordLocator locator : index.getLocators())
+            {
+                GribRecord record = index.readRecord(locator);
+                float[] dst = new float[record.getValueCount()];
+                record.getValues(dst);
+                parallel.add(dst);
+            }
+            assertTrue("Parts decoded in parallel", nTasks.get() > 0);
+        } finally
+        {
+            executor.shutdownNow();
+        }
+
+        // The JPEG2000 code stream starts with SOC and SIZ markers
+        int codeStream = 0;
+        while (!(bytes[codeStream] == (byte) 0xFF && bytes[codeStream + 1] == 0x4F
+                && bytes[codeStream + 2] == (byte) 0xFF && bytes[codeStream + 3] == 0x51))
+        {
+            codeStream++;
+        }
+        assertEquals("Tiles", 12, Grib2JpegDecoder.getNumTiles(ByteBuffer.wrap(bytes, codeStream,
+                bytes.length - codeStream)));
+
+        assertEquals("Records read", 2 * fields.size(), parallel.size());
+        for (int i = 0; i < fields.size(); i++)
+        {
+            assertArrayEquals("Values of record " + i, fields.get(i).values, sequential.get(i), 0);
+            assertArrayEquals("Values of parallel record " + i, sequential.get(i), parallel.get(i), 0);
+            assertArrayEquals("Values of parallel record " + i + " in caller buffer", sequential.get(i),
+                    parallel.get(fields.size() + i), 0);
+        }
+    }
+
+    @Test
+    public void testVectorKernels()
+    {
+        // The SIMD kernels are only available from the JDK 17 classes with the Vector API enabled
+        if (Boolean.getBoolean("jgribx.test.vector"))
+        {
+            assertTrue("Vector API available", VectorSupport.isAvailable());
+        }
+        assumeTrue(VectorSupport.isAvailable());
+
+        Random random = new Random(17);
+        float ref = -273.15f;
+        float scale = 0.0123f;
+        for (int nBits : new int[] {8, 16})
+        {
+            for (int count : new int[] {1000, 1003})
+            {
+                // The packed values end at the end of the buffer, so the last vector cannot be loaded
+                int byteOffset = 3;
+                byte[] bytes = new byte[byteOffset + count * nBits / 8];
+                random.nextBytes(bytes);
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                float[] expected = new float[count + 2];
+                for (int i = 0; i < count; i++)
+                {
+                    int index = byteOffset + i * nBits / 8;
+                    int x = nBits == 8 ? bytes[index] & 0xFF : buffer.getShort(index) & 0xFFFF;
+                    expected[i + 2] = ref + scale * x;
+                }
+                float[] values = new float[count + 2];
+                assertTrue("Vector unpack of " + nBits + " bits",
+                        VectorSupport.unpack(buffer, byteOffset, nBits, count, values, 2, ref, scale));
+                assertArrayEquals("Values of " + count + " x " + nBits + " bits", expected, values, 0.0f);
+            }
+        }
+
+        float R = 1234.5f;
+        float EE = 0.25f;
+        float DD = 10.0f;
+        for (int count : new int[] {1000, 1003})
+        {
+            int[] src = new int[count + 1];
+            for (int i = 0; i < src.length; i++)
+            {
+                src[i] = random.nextInt(1 << 20) - (1 << 19);
+            }
+            float[] expected = new float[count];
+            for (int i = 0; i < count; i++)
+            {
+                expected[i] = (R + src[i + 1] * EE) / DD;
+            }
+            float[] values = new float[count];
+            assertTrue("Vector scale", VectorSupport.scale(src, 1, values, 0, count, R, EE, DD));
+            assertArrayEquals("Scaled values of " + count, expected, values, 0.0f);
+        }
+    }
+
+    @Test
+    public void testWriteSubset() throws IOException
+    {
+        byte[] bytes = SyntheticGrib.file(syntheticFields());
+        Path dir = Files.createTempDirectory("jgribx");
+        Path path = Files.write(dir.resolve("example.grb2"), bytes);
+        Path subset = dir.resolve("subset.grb2");
+        Path copied = dir.resolve("copied.grb2");
+        try
+        {
+            GribIndex index = GribIndex.open(path);
+            List<RecordLocator> locators = index.getLocators();
+
+            // Both single records and a run of adjacent records
+            GribQuery query = new GribQuery().parameters(locators.get(0).getParameterCode(),
+                    locators.get(3).getParameterCode(), locators.get(locators.size() - 1).getParameterCode());
+            int nWritten = index.writeSubset(query, subset);
+            assertTrue("Some records written", nWritten > 0 && nWritten < locators.size());
+
+            List<RecordLocator> written = GribScanner.scan(subset);
+            byte[] subsetBytes = Files.readAllBytes(subset);
+            assertEquals("Records written", nWritten, written.size());
+            int j = 0;
+            for (RecordLocator locator : locators)
+            {
+                if (!query.test(locator))
+                {
+                    continue;
+                }
+                RecordLocator copy = written.get(j++);
+                assertTrue("Record " + j + " matches query", query.test(copy));
+                assertEquals("Parameter of record " + j, locator.getParameterCode(), copy.getParameterCode());
+                assertEquals("Forecast time of record " + j, locator.getForecastTime(), copy.getForecastTime());
+                assertArrayEquals("Bytes of record " + j,
+                        Arrays.copyOfRange(bytes, (int) locator.getOffset(), (int) (locator.getOffset() + locator.getLength())),
+                        Arrays.copyOfRange(subsetBytes, (int) copy.getOffset(), (int) (copy.getOffset() + copy.getLength())));
+            }
+            assertEquals("Records matching query", j, nWritten);
+
+            // Records of a source which is not a file are copied through buffers
+            assertEquals("Records copied", nWritten,
+                    GribIndex.open(new ByteArrayGribSource(bytes)).writeSubset(query, copied));
+            assertArrayEquals("Copied file", subsetBytes, Files.readAllBytes(copied));
+        } finally
+        {
+            Files.deleteIfExists(GribIndex.getIndexPath(path));
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(subset);
+            Files.deleteIfExists(copied);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testBitUnpacker() throws IOException
+    {
+        byte[] bytes = new byte[4099];
+        new Random(42).nextBytes(bytes);
+        for (int nBits = 1; nBits <= BitUnpacker.MAX_BITS; nBits++)
+        {
+            for (int skipBits : new int[] {0, 3, 8})
+            {
+                int count = (bytes.length * 8 - skipBits) / nBits;
+
+                // Reference: values read one at a time
+                GribInputStream in = new GribInputStream(new ByteArrayInputStream(bytes));
+                in.readUBits(skipBits);
+                int[] expected = new int[count];
+                float[] expectedScaled = new float[count];
+                for (int i = 0; i < count; i++)
+                {
+                    long value = in.readUBits(nBits);
+                    expected[i] = (int) value;
+                    expectedScaled[i] = 0.5f + 0.01f * value;
+                }
+
+                int[] values = new int[count];
+                float[] scaled = new float[count];
+                BitUnpacker.unpack(ByteBuffer.wrap(bytes), skipBits, nBits, count, values, 0);
+                BitUnpacker.unpack(ByteBuffer.wrap(bytes), skipBits, nBits, count, scaled, 0, 0.5f, 0.01f);
+                assertArrayEquals(nBits + " bits", expected, values);
+                assertArrayEquals(nBits + " bits", expectedScaled, scaled, 0);
+            }
+        }
+
+        // Values wider than the bulk methods support are read one at a time
+        for (int nBits : new int[] {33, 47, 64})
+        {
+            int count = bytes.length * 8 / nBits;
+            GribInputStream in = new GribInputStream(new ByteArrayInputStream(bytes));
+            float[] expected = new float[count];
+            for (int i = 0; i < count; i++)
+            {
+                expected[i] = 1 + 2f * in.readUBits(nBits);
+            }
+            float[] values = new float[count];
+            new GribInputStream(new ByteArrayInputStream(bytes)).readUBits(nBits, count, values, 0, 1, 2);
+            assertArrayEquals(nBits + " bits", expected, values, 0);
+        }
+
+        // Unsigned 32-bit values of at least 2^31
+        byte[] ones = {-1, -1, -1, -1, -128, 0, 0, 0};
+        float[] values = new float[2];
+        new GribInputStream(new ByteArrayInputStream(ones)).readUBits(32, 2, values, 0, 0, 1);
+        assertArrayEquals("32 bits", new float[] {4294967295f, 2147483648f}, values, 0);
+    }
+
+    @Test
+    public void testBitmap()
+    {
+        // Random octets, followed by runs of octets with all bits set or clear
+        byte[] bytes = new byte[300];
+        Random random = new Random(7);
+        random.nextBytes(bytes);
+        for (int i = 100; i < bytes.length; i++)
+        {
+            bytes[i] = (byte) (i / 40 % 2 == 0 ? 0xFF : 0);
+        }
+
+        int nPoints = bytes.length * 8 - 5;
+        Bitmap bitmap = Bitmap.fromBytes(bytes, 0, nPoints);
+        float[] values = new float[nPoints];
+        int nValues = 0;
+        for (int i = 0; i < nPoints; i++)
+        {
+            if ((bytes[i / 8] & (0x80 >> (i % 8))) != 0)
+            {
+                nValues++;
+            }
+        }
+        for (int i = 0; i < nValues; i++)
+        {
+            values[nPoints - nValues + i] = i;
+        }
+        assertEquals("Cardinality", nValues, bitmap.cardinality());
+
+        bitmap.expand(values, 0, nPoints, -1);
+        for (int i = 0, j = 0; i < nPoints; i++)
+        {
+            boolean set = (bytes[i / 8] & (0x80 >> (i % 8))) != 0;
+            assertEquals("Bit " + i, set, bitmap.get(i));
+            assertEquals("Rank " + i, j, bitmap.rank(i));
+            assertEquals("Value " + i, set ? j++ : -1, values[i], 0);
+        }
+        assertEquals("Rank at end", nValues, bitmap.rank(nPoints));
+    }
+
+    @Test
+    public void testHttpSource() throws IOException, NoValidGribException
+    {
+        byte[] data = new byte[100000];
+        new Random(0).nextBytes(data);
+        List<SyntheticGrib.Field> fields = syntheticFields();
+        byte[] grib = SyntheticGrib.file(fields);
+
+        // Stub server honouring single range requests; failures are recorded on its thread and checked below
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/data.grb2", rangeHandler(data, failures));
+        server.createContext("/synthetic.grb2", rangeHandler(grib, failures));
+        server.start();
+        try
+        {
+            String base = "http://127.0.0.1:" + server.getAddress().getPort();
+            GribSource source = new HttpGribSource(new URL(base + "/data.grb2"));
+            GribSource expected = new ByteArrayGribSource(data);
+            assertEquals("Size", expected.size(), source.size());
+            for (long offset : new long[]{0, 1, 4095, 99000})
+            {
+                assertEquals("Range at " + offset, expected.read(offset, 1000), source.read(offset, 1000));
+            }
+            assertEquals("Read at end of source", -1, source.read(data.length, ByteBuffer.allocate(10)));
+
+            // Records are found and read through range requests
+            GribSource remote = new HttpGribSource(new URL(base + "/synthetic.grb2"));
+            List<RecordLocator> locators = GribScanner.scan(remote);
+            List<RecordLocator> expectedLocators = GribScanner.scan(new ByteArrayGribSource(grib));
+            assertEquals("Records scanned", expectedLocators.size(), locators.size());
+            for (int i = 0; i < locators.size(); i++)
+            {
+                assertEquals("Offset of record " + i, expectedLocators.get(i).getOffset(), locators.get(i).getOffset());
+                assertEquals("Length of record " + i, expectedLocators.get(i).getLength(), locators.get(i).getLength());
+                assertEquals("Parameter of record " + i, expectedLocators.get(i).getParameterCode(),
+                        locators.get(i).getParameterCode());
+            }
+            GribFile file = GribFile.open(remote, new GribQuery().editions(1));
+            assertEquals("Records read", 2, file.getRecordCount());
+            for (int i = 0; i < file.getRecordCount(); i++)
+            {
+                assertArrayEquals("Values of record " + i, fields.get(fields.size() - 2 + i).values,
+                        file.getRecords().get(i).getValues(), 0.0f);
+            }
+        } finally
+        {
+            server.stop(0);
+        }
+        assertTrue("Server failures: " + failures, failures.isEmpty());
+    }
+
+    /**
+     * Returns a handler serving single range requests for the given content. Failures,
+     * including assertion errors, are answered with status 500 and added to the given list.
+     */
+    private static HttpHandler rangeHandler(byte[] data, List<Throwable> failures)
+    {
+        return exchange ->
+        {
+            try
+            {
+                Matcher matcher = Pattern.compile("bytes=(\\d+)-(\\d+)").matcher(exchange.getRequestHeaders().getFirst("Range"));
+                assertTrue("Range request", matcher.matches());
+                int first = Integer.parseInt(matcher.group(1));
+                int last = Math.min(Integer.parseInt(matcher.group(2)), data.length - 1);
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + first + "-" + last + "/" + data.length);
+                exchange.sendResponseHeaders(206, last - first + 1);
+                exchange.getResponseBody().write(data, first, last - first + 1);
+            } catch (Throwable e)
+            {
+                failures.add(e);
+                exchange.sendResponseHeaders(500, -1);
+            } finally
+            {
+                exchange.close();
+            }
+        };
+    }
+
+    /**
+     * Returns fields of both editions, packed in every supported way, with and without a bit map.
+     */
+    private static List<SyntheticGrib.Field> syntheticFields()
+    {
+        List<SyntheticGrib.Field> fields = new ArrayList<>();
+        for (int packing : new int[] {SyntheticGrib.SIMPLE, SyntheticGrib.COMPLEX, SyntheticGrib.IEEE,
+                SyntheticGrib.JPEG2000})
+        {
+            for (boolean bitmap : new boolean[] {false, true})
+            {
+                SyntheticGrib.Field field = new SyntheticGrib.Field();
+                field.packing = packing;
+                field.number = fields.size();
+                field.forecastHour = 3 * fields.size();
+                field.levelValue = bitmap ? 85000 : 50000;
+                field.processId = bitmap ? 96 : 81;
+                if (bitmap)
+                {
+                    field.withBitmap(fields.size());
+                }
+                fields.add(field);
+            }
+        }
+        for (boolean bitmap : new boolean[] {false, true})
+        {
+            SyntheticGrib.Field field = new SyntheticGrib.Field();
+            field.edition = 1;
+            field.forecastHour = 3 * fields.size();
+            if (bitmap)
+            {
+                field.withBitmap(fields.size());
+            }
+            fields.add(field);
+        }
+        return fields;
+    }
+
     private static float getMaxValue(float[] values)
     {
         float max = values[0];
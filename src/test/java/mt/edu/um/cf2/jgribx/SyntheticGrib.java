@@ -0,0 +1,922 @@
+package mt.edu.um.cf2.jgribx;
+
+import jj2000.j2k.encoder.Encoder;
+import jj2000.j2k.util.ParameterList;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds small GRIB records in memory for the tests, together with the values a decoder is
+ * expected to obtain from them.
+ * <p>
+ * GRIB-2 records hold a product definition (template 4.0) on a regular latitude/longitude grid
+ * (template 3.0) whose points are 1 degree apart, starting at 0N 0E, with the data packed
+ * using simple packing (5.0), complex packing and spatial differencing (5.3), IEEE
+ * floating-point (5.4) or JPEG2000 (5.40). GRIB-1 records hold temperature at 500 hPa on the
+ * same grid, using simple packing.
+ */
+final class SyntheticGrib
+{
+    static final int SIMPLE = 0;
+    static final int COMPLEX = 3;
+    static final int IEEE = 4;
+    static final int JPEG2000 = 40;
+
+    /**
+     * Substitute values of missing values with complex packing.
+     */
+    static final float PRIMARY_MISSING = 9.999e20f;
+    static final float SECONDARY_MISSING = -9.999e20f;
+
+    /**
+     * Value of missing points of GRIB-1 records.
+     */
+    static final float GRIB1_MISSING = 99999e20f;
+
+    /**
+     * Description of a field. The fields are set before building a record, except for
+     * {@link #values} which may either be set, or left null to use a random walk, and is
+     * replaced by the values expected after decoding.
+     */
+    static final class Field
+    {
+        int edition = 2;
+        int centre = 7;
+        int processId = 81;
+        int category = 0;
+        int number = 0;
+        int levelType = 100;
+        int levelValue = 50000;
+        int forecastHour = 0;
+        int ni = 36;
+        int nj = 24;
+
+        int packing = SIMPLE;
+        int nBits = 12;
+        int binaryScale = 0;
+        int decimalScale = 1;
+
+        /**
+         * Points at which a value is defined, or null for no bit map. With complex packing and
+         * missing value management, points whose value is NaN are encoded as missing instead.
+         */
+        boolean[] mask;
+
+        /**
+         * Complex packing: order of spatial differencing (1 or 2), missing value management
+         * and group length.
+         */
+        int spatialOrder = 2;
+        int missingValueManagement = 0;
+        int groupLength = 7;
+
+        /**
+         * IEEE packing: 1 for 32-bit and 2 for 64-bit precision.
+         */
+        int precision = 1;
+
+        /**
+         * JPEG2000 packing: size of the tiles, or 0 for a single tile.
+         */
+        int tileSize = 0;
+
+        float[] values;
+
+        /**
+         * Sets a random bit map in which about three points out of four are defined.
+         */
+        Field withBitmap(long seed)
+        {
+            Random random = new Random(seed);
+            mask = new boolean[ni * nj];
+            for (int i = 0; i < mask.length; i++)
+            {
+                mask[i] = random.nextInt(4) != 0;
+            }
+            return this;
+        }
+    }
+
+    private SyntheticGrib()
+    {
+    }
+
+    /**
+     * Returns a random walk, which is smooth enough for spatial differencing to pay off.
+     */
+    static float[] randomWalk(int n, long seed)
+    {
+        Random random = new Random(seed);
+        float[] values = new float[n];
+        double value = 250;
+        for (int i = 0; i < n; i++)
+        {
+            value += random.nextGaussian() * 0.7;
+            values[i] = (float) value;
+        }
+        return values;
+    }
+
+    /**
+     * Builds a file holding a record for each field, in order.
+     */
+    static byte[] file(List<Field> fields) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Field f : fields)
+        {
+            out.write(record(f));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Builds a record of the edition of a field.
+     */
+    static byte[] record(Field f) throws IOException
+    {
+        return f.edition == 1 ? grib1(f) : grib2(f);
+    }
+
+    /**
+     * Builds a GRIB-2 record.
+     */
+    static byte[] grib2(Field f) throws IOException
+    {
+        int n = f.ni * f.nj;
+        if (f.values == null)
+        {
+            f.values = randomWalk(n, 42 + f.number + 7L * f.forecastHour + f.levelValue);
+        }
+        float[] present = present(f);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        // Identification section: reference time 12/05/2017 00:00 UTC
+        ByteArrayOutputStream ids = new ByteArrayOutputStream();
+        put(ids, f.centre, 2);
+        put(ids, 0, 2);
+        put(ids, 2, 1);
+        put(ids, 1, 1);
+        put(ids, 1, 1);
+        put(ids, 2017, 2);
+        put(ids, 5, 1);
+        put(ids, 12, 1);
+        put(ids, 0, 4);
+        put(ids, 1, 1);
+        body.write(section(1, ids.toByteArray()));
+
+        // Grid definition section, template 3.0
+        ByteArrayOutputStream gds = new ByteArrayOutputStream();
+        put(gds, 0, 1);
+        put(gds, n, 4);
+        put(gds, 0, 2);
+        put(gds, 0, 2);
+        put(gds, 6, 1);
+        put(gds, 0, 15);
+        put(gds, f.ni, 4);
+        put(gds, f.nj, 4);
+        put(gds, 0, 4);
+        put(gds, 0xFFFFFFFFL, 4);
+        putSigned(gds, 0, 4);
+        putSigned(gds, 0, 4);
+        put(gds, 0x30, 1);
+        putSigned(gds, (f.nj - 1) * 1000000L, 4);
+        putSigned(gds, (f.ni - 1) * 1000000L, 4);
+        put(gds, 1000000, 4);
+        put(gds, 1000000, 4);
+        put(gds, 0x40, 1);
+        body.write(section(3, gds.toByteArray()));
+
+        // Product definition section, template 4.0
+        ByteArrayOutputStream pds = new ByteArrayOutputStream();
+        put(pds, 0, 2);
+        put(pds, 0, 2);
+        put(pds, f.category, 1);
+        put(pds, f.number, 1);
+        put(pds, 2, 1);
+        put(pds, 0, 1);
+        put(pds, f.processId, 1);
+        put(pds, 0, 3);
+        put(pds, 1, 1);
+        put(pds, f.forecastHour, 4);
+        put(pds, f.levelType, 1);
+        put(pds, 0, 1);
+        put(pds, f.levelValue, 4);
+        put(pds, 255, 1);
+        put(pds, 0, 5);
+        body.write(section(4, pds.toByteArray()));
+
+        ByteArrayOutputStream drs = new ByteArrayOutputStream();
+        byte[] data;
+        float[] decoded;
+        switch (f.packing)
+        {
+            case SIMPLE:
+            {
+                float ref = reference(f, present);
+                int[] x = quantise(f, present, ref);
+                putSimpleDrs(drs, present.length, 0, f, ref);
+                data = pack(x, f.nBits);
+                decoded = scale(f, x, ref);
+                break;
+            }
+            case JPEG2000:
+            {
+                float ref = reference(f, present);
+                int[] x = quantise(f, present, ref);
+                putSimpleDrs(drs, present.length, 40, f, ref);
+                put(drs, 0, 1);
+                put(drs, 255, 1);
+                boolean grid = f.mask == null;
+                data = jpeg2000(x, grid ? f.ni : x.length, grid ? f.nj : 1, f.nBits, f.tileSize);
+                decoded = scale(f, x, ref);
+                break;
+            }
+            case IEEE:
+            {
+                put(drs, present.length, 4);
+                put(drs, 4, 2);
+                put(drs, f.precision, 1);
+                ByteBuffer buffer = ByteBuffer.allocate(present.length * (f.precision == 1 ? 4 : 8));
+                for (float value : present)
+                {
+                    if (f.precision == 1)
+                    {
+                        buffer.putFloat(value);
+                    } else
+                    {
+                        buffer.putDouble(value);
+                    }
+                }
+                data = buffer.array();
+                decoded = present.clone();
+                break;
+            }
+            case COMPLEX:
+            {
+                decoded = new float[present.length];
+                data = complex(f, present, drs, decoded);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Packing " + f.packing);
+        }
+        body.write(section(5, drs.toByteArray()));
+
+        if (f.mask != null)
+        {
+            Bits bits = new Bits();
+            bits.put(0, 8);
+            for (boolean defined : f.mask)
+            {
+                bits.put(defined ? 1 : 0, 1);
+            }
+            body.write(section(6, bits.toByteArray()));
+        } else
+        {
+            body.write(section(6, new byte[] {(byte) 255}));
+        }
+        body.write(section(7, data));
+        f.values = expand(f, decoded, missingValue(f));
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        record.write("GRIB".getBytes(StandardCharsets.US_ASCII));
+        put(record, 0, 3);
+        put(record, 2, 1);
+        put(record, 16 + body.size() + 4, 8);
+        body.writeTo(record);
+        record.write("7777".getBytes(StandardCharsets.US_ASCII));
+        return record.toByteArray();
+    }
+
+    /**
+     * Builds a GRIB-1 record holding temperature at 500 hPa, using simple packing. Points
+     * missing from the bit map are expected to be {@link #GRIB1_MISSING}.
+     */
+    static byte[] grib1(Field f) throws IOException
+    {
+        int n = f.ni * f.nj;
+        if (f.values == null)
+        {
+            f.values = randomWalk(n, 7 + f.forecastHour);
+        }
+        float[] present = present(f);
+
+        ByteArrayOutputStream pds = new ByteArrayOutputStream();
+        put(pds, 28, 3);
+        put(pds, 2, 1);
+        put(pds, f.centre, 1);
+        put(pds, f.processId, 1);
+        put(pds, 255, 1);
+        put(pds, 0x80 | (f.mask != null ? 0x40 : 0), 1);
+        put(pds, 11, 1);
+        put(pds, 100, 1);
+        put(pds, 500, 2);
+        put(pds, 17, 1);
+        put(pds, 5, 1);
+        put(pds, 12, 1);
+        put(pds, 0, 2);
+        put(pds, 1, 1);
+        put(pds, f.forecastHour, 1);
+        put(pds, 0, 5);
+        put(pds, 21, 1);
+        put(pds, 0, 1);
+        putSigned(pds, f.decimalScale, 2);
+
+        ByteArrayOutputStream gds = new ByteArrayOutputStream();
+        put(gds, 32, 3);
+        put(gds, 0, 1);
+        put(gds, 255, 1);
+        put(gds, 0, 1);
+        put(gds, f.ni, 2);
+        put(gds, f.nj, 2);
+        putSigned(gds, 0, 3);
+        putSigned(gds, 0, 3);
+        put(gds, 0x80, 1);
+        putSigned(gds, (f.nj - 1) * 1000L, 3);
+        putSigned(gds, (f.ni - 1) * 1000L, 3);
+        putSigned(gds, 1000, 2);
+        putSigned(gds, 1000, 2);
+        put(gds, 0x40, 1);
+        put(gds, 0, 4);
+
+        ByteArrayOutputStream bms = new ByteArrayOutputStream();
+        if (f.mask != null)
+        {
+            Bits bits = new Bits();
+            for (boolean defined : f.mask)
+            {
+                bits.put(defined ? 1 : 0, 1);
+            }
+            byte[] bitmap = bits.toByteArray();
+            put(bms, 6 + bitmap.length, 3);
+            put(bms, bitmap.length * 8 - n, 1);
+            put(bms, 0, 2);
+            bms.write(bitmap);
+        }
+
+        // An integral reference value is exactly representable as an IBM float
+        double decimal = Math.pow(10, f.decimalScale);
+        double binary = Math.pow(2, f.binaryScale);
+        double min = Double.MAX_VALUE;
+        for (float value : present)
+        {
+            min = Math.min(min, value);
+        }
+        long ref = (long) Math.floor(min * decimal);
+        int[] x = new int[present.length];
+        long max = (1L << f.nBits) - 1;
+        for (int i = 0; i < x.length; i++)
+        {
+            x[i] = (int) Math.max(0, Math.min(max, Math.round((present[i] * decimal - ref) / binary)));
+        }
+        byte[] data = pack(x, f.nBits);
+        int unusedBits = data.length * 8 - x.length * f.nBits;
+        if ((data.length + 11) % 2 == 1)
+        {
+            data = Arrays.copyOf(data, data.length + 1);
+            unusedBits += 8;
+        }
+        ByteArrayOutputStream bds = new ByteArrayOutputStream();
+        put(bds, 11 + data.length, 3);
+        put(bds, unusedBits & 15, 1);
+        putSigned(bds, f.binaryScale, 2);
+        put(bds, ibm(ref), 4);
+        put(bds, f.nBits, 1);
+        bds.write(data);
+
+        float refValue = (float) (Math.pow(10.0, -f.decimalScale) * ref);
+        float scale = (float) (Math.pow(10.0, -f.decimalScale) * binary);
+        float[] decoded = new float[x.length];
+        for (int i = 0; i < x.length; i++)
+        {
+            decoded[i] = refValue + scale * x[i];
+        }
+        f.values = expand(f, decoded, GRIB1_MISSING);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        pds.writeTo(body);
+        gds.writeTo(body);
+        bms.writeTo(body);
+        bds.writeTo(body);
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        record.write("GRIB".getBytes(StandardCharsets.US_ASCII));
+        put(record, 8 + body.size() + 4, 3);
+        put(record, 1, 1);
+        body.writeTo(record);
+        record.write("7777".getBytes(StandardCharsets.US_ASCII));
+        return record.toByteArray();
+    }
+
+    /**
+     * Encodes integer samples as a raw JPEG2000 code stream, losslessly. The decoder reads at
+     * most the number of bits per sample of the code stream, so images must be large enough
+     * for the headers to fit in that budget.
+     */
+    static byte[] jpeg2000(int[] samples, int width, int height, int nBits, int tileSize) throws IOException
+    {
+        Path image = Files.createTempFile("jgribx", ".pgx");
+        Path codestream = Files.createTempFile("jgribx", ".j2k");
+        try
+        {
+            ByteArrayOutputStream pgx = new ByteArrayOutputStream();
+            pgx.write(("PG ML + " + nBits + " " + width + " " + height + "\n").getBytes(StandardCharsets.US_ASCII));
+            DataOutputStream out = new DataOutputStream(pgx);
+            for (int sample : samples)
+            {
+                if (nBits <= 8)
+                {
+                    out.write(sample);
+                } else if (nBits <= 16)
+                {
+                    out.writeShort(sample);
+                } else
+                {
+                    out.writeInt(sample);
+                }
+            }
+            Files.write(image, pgx.toByteArray());
+
+            ParameterList defaults = new ParameterList();
+            String[][] parameters = Encoder.getAllParameters();
+            for (int i = parameters.length - 1; i >= 0; i--)
+            {
+                if (parameters[i][3] != null)
+                {
+                    defaults.put(parameters[i][0], parameters[i][3]);
+                }
+            }
+            ParameterList pl = new ParameterList(defaults);
+            pl.put("i", image.toString());
+            pl.put("o", codestream.toString());
+            pl.put("lossless", "on");
+            pl.put("file_format", "off");
+            pl.put("verbose", "off");
+            if (tileSize > 0)
+            {
+                pl.put("tiles", tileSize + " " + tileSize);
+            }
+            // The encoder loses samples when it decomposes any tile below a single pixel
+            int size = Math.min(width, height);
+            if (tileSize > 0)
+            {
+                size = Math.min(size, tileSize);
+                size = width % tileSize == 0 ? size : Math.min(size, width % tileSize);
+                size = height % tileSize == 0 ? size : Math.min(size, height % tileSize);
+            }
+            int levels = 5;
+            while (levels > 0 && (1 << levels) > size)
+            {
+                levels--;
+            }
+            pl.put("Wlev", Integer.toString(levels));
+            Encoder encoder = new Encoder(pl);
+            encoder.run();
+            if (encoder.getExitCode() != 0)
+            {
+                throw new IOException("JPEG2000 encoder failed with exit code " + encoder.getExitCode());
+            }
+            return Files.readAllBytes(codestream);
+        } finally
+        {
+            Files.deleteIfExists(image);
+            Files.deleteIfExists(codestream);
+        }
+    }
+
+    /**
+     * Returns the values of the points defined in the bit map, if any.
+     */
+    private static float[] present(Field f)
+    {
+        if (f.mask == null)
+        {
+            return f.values;
+        }
+        int count = 0;
+        for (boolean defined : f.mask)
+        {
+            count += defined ? 1 : 0;
+        }
+        float[] present = new float[count];
+        for (int i = 0, j = 0; i < f.mask.length; i++)
+        {
+            if (f.mask[i])
+            {
+                present[j++] = f.values[i];
+            }
+        }
+        return present;
+    }
+
+    /**
+     * Returns the value of GRIB-2 points missing from the bit map. The decoder only defines a
+     * missing value with complex packing, as the substitute selected by the missing value
+     * management, or NaN without it.
+     */
+    private static float missingValue(Field f)
+    {
+        if (f.packing != COMPLEX)
+        {
+            return 0;
+        }
+        switch (f.missingValueManagement)
+        {
+            case 1:
+                return PRIMARY_MISSING;
+            case 2:
+                return SECONDARY_MISSING;
+            default:
+                return Float.NaN;
+        }
+    }
+
+    /**
+     * Places decoded values at the points defined in the bit map, if any.
+     */
+    private static float[] expand(Field f, float[] decoded, float missing)
+    {
+        if (f.mask == null)
+        {
+            return decoded;
+        }
+        float[] values = new float[f.mask.length];
+        for (int i = 0, j = 0; i < values.length; i++)
+        {
+            values[i] = f.mask[i] ? decoded[j++] : missing;
+        }
+        return values;
+    }
+
+    private static float reference(Field f, float[] values)
+    {
+        float min = Float.MAX_VALUE;
+        for (float value : values)
+        {
+            min = Math.min(min, value);
+        }
+        return (float) (min * Math.pow(10, f.decimalScale));
+    }
+
+    /**
+     * Quantises values for simple packing, {@code X = (Y * 10^D - R) / 2^E}.
+     */
+    private static int[] quantise(Field f, float[] values, float ref)
+    {
+        double decimal = Math.pow(10, f.decimalScale);
+        double binary = Math.pow(2, f.binaryScale);
+        long max = (1L << f.nBits) - 1;
+        int[] x = new int[values.length];
+        for (int i = 0; i < values.length; i++)
+        {
+            x[i] = (int) Math.max(0, Math.min(max, Math.round((values[i] * decimal - ref) / binary)));
+        }
+        return x;
+    }
+
+    /**
+     * Returns the values obtained by the decoder from quantised values,
+     * {@code Y = (R + X * 2^E) / 10^D}, computed the same way as the decoder does.
+     */
+    private static float[] scale(Field f, int[] x, float ref)
+    {
+        float[] values = new float[x.length];
+        if (f.packing == JPEG2000)
+        {
+            float binary = (float) Math.pow(2, f.binaryScale);
+            float decimal = (float) Math.pow(10, f.decimalScale);
+            for (int i = 0; i < x.length; i++)
+            {
+                values[i] = (ref + x[i] * binary) / decimal;
+            }
+        } else
+        {
+            float r = (float) (Math.pow(10, -f.decimalScale) * ref);
+            float s = (float) (Math.pow(10, -f.decimalScale) * Math.pow(2, f.binaryScale));
+            for (int i = 0; i < x.length; i++)
+            {
+                values[i] = r + s * x[i];
+            }
+        }
+        return values;
+    }
+
+    private static void putSimpleDrs(ByteArrayOutputStream drs, int nValues, int template, Field f, float ref)
+    {
+        put(drs, nValues, 4);
+        put(drs, template, 2);
+        put(drs, Float.floatToIntBits(ref) & 0xFFFFFFFFL, 4);
+        putSigned(drs, f.binaryScale, 2);
+        putSigned(drs, f.decimalScale, 2);
+        put(drs, f.nBits, 1);
+        put(drs, 0, 1);
+    }
+
+    /**
+     * Encodes values using complex packing and spatial differencing (template 5.3), with groups
+     * of a fixed length, writing the DRS and returning the data. With missing value management,
+     * NaN values are encoded as primary missing values, except for every other one which is
+     * secondary with management 2.
+     */
+    private static byte[] complex(Field f, float[] values, ByteArrayOutputStream drs, float[] decoded)
+    {
+        int n = values.length;
+        int mvm = f.missingValueManagement;
+        float decimal = (float) Math.pow(10, f.decimalScale);
+        float binary = (float) Math.pow(2, f.binaryScale);
+
+        // 0 for present values, 1 for primary and 2 for secondary missing values
+        byte[] kind = new byte[n];
+        int nPresent = 0;
+        for (int i = 0; i < n; i++)
+        {
+            if (mvm != 0 && Float.isNaN(values[i]))
+            {
+                kind[i] = (byte) (mvm == 2 && i % 2 == 0 ? 2 : 1);
+            } else
+            {
+                nPresent++;
+            }
+        }
+        long[] q = new long[nPresent];
+        for (int i = 0, j = 0; i < n; i++)
+        {
+            if (kind[i] == 0)
+            {
+                q[j++] = Math.round(values[i] * (double) decimal / binary);
+            }
+        }
+
+        // Spatial differences of the values which are present
+        int order = f.spatialOrder;
+        long[] differences = new long[nPresent];
+        for (int i = order; i < nPresent; i++)
+        {
+            differences[i] = order == 1 ? q[i] - q[i - 1] : q[i] - 2 * q[i - 1] + q[i - 2];
+        }
+        long minDifference = 0;
+        if (nPresent > order)
+        {
+            minDifference = Long.MAX_VALUE;
+            for (int i = order; i < nPresent; i++)
+            {
+                minDifference = Math.min(minDifference, differences[i]);
+            }
+            for (int i = order; i < nPresent; i++)
+            {
+                differences[i] -= minDifference;
+            }
+        }
+        long[] z = new long[n];
+        for (int i = 0, j = 0; i < n; i++)
+        {
+            if (kind[i] == 0)
+            {
+                z[i] = differences[j++];
+            }
+        }
+
+        // Groups of a fixed length, whose widths leave room for the missing values
+        int length = f.groupLength;
+        int nGroups = (n + length - 1) / length;
+        int lastLength = n - (nGroups - 1) * length;
+        long[] refs = new long[nGroups];
+        int[] widths = new int[nGroups];
+        boolean[] allMissing = new boolean[nGroups];
+        for (int g = 0; g < nGroups; g++)
+        {
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            boolean anyMissing = false;
+            for (int i = g * length; i < Math.min(n, g * length + length); i++)
+            {
+                if (kind[i] != 0)
+                {
+                    anyMissing = true;
+                    continue;
+                }
+                min = Math.min(min, z[i]);
+                max = Math.max(max, z[i]);
+            }
+            if (min == Long.MAX_VALUE)
+            {
+                allMissing[g] = true;
+                continue;
+            }
+            refs[g] = min;
+            long range = max - min;
+            widths[g] = range == 0 && !anyMissing ? 0 : 64 - Long.numberOfLeadingZeros(range + mvm);
+        }
+        long maxRef = 0;
+        for (int g = 0; g < nGroups; g++)
+        {
+            if (!allMissing[g])
+            {
+                maxRef = Math.max(maxRef, refs[g]);
+            }
+        }
+        int refBits = Math.max(1, 64 - Long.numberOfLeadingZeros(maxRef + mvm));
+
+        // A group of missing values only is constant, so all its values are of the same kind
+        for (int g = 0; g < nGroups; g++)
+        {
+            if (allMissing[g])
+            {
+                boolean allSecondary = true;
+                for (int i = g * length; i < Math.min(n, g * length + length); i++)
+                {
+                    allSecondary &= kind[i] == 2;
+                }
+                refs[g] = (1L << refBits) - (allSecondary ? 2 : 1);
+                for (int i = g * length; i < Math.min(n, g * length + length); i++)
+                {
+                    kind[i] = (byte) (allSecondary ? 2 : 1);
+                }
+            }
+        }
+        int maxWidth = 0;
+        for (int width : widths)
+        {
+            maxWidth = Math.max(maxWidth, width);
+        }
+        int widthBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(maxWidth));
+
+        put(drs, n, 4);
+        put(drs, 3, 2);
+        put(drs, 0, 4);
+        putSigned(drs, f.binaryScale, 2);
+        putSigned(drs, f.decimalScale, 2);
+        put(drs, refBits, 1);
+        put(drs, 0, 1);
+        put(drs, 1, 1);
+        put(drs, mvm, 1);
+        put(drs, Float.floatToIntBits(PRIMARY_MISSING) & 0xFFFFFFFFL, 4);
+        put(drs, Float.floatToIntBits(SECONDARY_MISSING) & 0xFFFFFFFFL, 4);
+        put(drs, nGroups, 4);
+        put(drs, 0, 1);
+        put(drs, widthBits, 1);
+        put(drs, length, 4);
+        put(drs, 1, 1);
+        put(drs, lastLength, 4);
+        put(drs, 0, 1);
+        put(drs, order, 1);
+        put(drs, 4, 1);
+
+        Bits bits = new Bits();
+        ByteArrayOutputStream descriptors = new ByteArrayOutputStream();
+        putSigned(descriptors, nPresent > 0 ? q[0] : 0, 4);
+        if (order == 2)
+        {
+            putSigned(descriptors, nPresent > 1 ? q[1] : 0, 4);
+        }
+        putSigned(descriptors, minDifference, 4);
+        for (byte b : descriptors.toByteArray())
+        {
+            bits.put(b & 0xFF, 8);
+        }
+        for (long ref : refs)
+        {
+            bits.put(ref, refBits);
+        }
+        bits.align();
+        for (int width : widths)
+        {
+            bits.put(width, widthBits);
+        }
+        bits.align();
+        for (int g = 0; g < nGroups; g++)
+        {
+            if (widths[g] == 0)
+            {
+                continue;
+            }
+            for (int i = g * length; i < Math.min(n, g * length + length); i++)
+            {
+                long x = kind[i] == 0 ? z[i] - refs[g] : (1L << widths[g]) - kind[i];
+                bits.put(x, widths[g]);
+            }
+        }
+
+        for (int i = 0, j = 0; i < n; i++)
+        {
+            decoded[i] = kind[i] == 1 ? PRIMARY_MISSING : kind[i] == 2 ? SECONDARY_MISSING : q[j++] * binary / decimal;
+        }
+        return bits.toByteArray();
+    }
+
+    private static byte[] pack(int[] x, int nBits)
+    {
+        Bits bits = new Bits();
+        for (int value : x)
+        {
+            bits.put(value, nBits);
+        }
+        return bits.toByteArray();
+    }
+
+    private static byte[] section(int number, byte[] content)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        put(out, content.length + 5, 4);
+        out.write(number);
+        out.write(content, 0, content.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes an unsigned big-endian integer.
+     */
+    private static void put(ByteArrayOutputStream out, long value, int nBytes)
+    {
+        for (int i = nBytes - 1; i >= 0; i--)
+        {
+            out.write((int) (value >>> (8 * i)) & 0xFF);
+        }
+    }
+
+    /**
+     * Writes a sign and magnitude integer, as GRIB does.
+     */
+    private static void putSigned(ByteArrayOutputStream out, long value, int nBytes)
+    {
+        long magnitude = Math.abs(value);
+        if (value < 0)
+        {
+            magnitude |= 1L << (8 * nBytes - 1);
+        }
+        put(out, magnitude, nBytes);
+    }
+
+    /**
+     * Returns an integer as an IBM single precision float.
+     */
+    private static long ibm(long value)
+    {
+        if (value == 0)
+        {
+            return 0;
+        }
+        long sign = value < 0 ? 0x80000000L : 0;
+        long mantissa = Math.abs(value);
+        int exponent = 64 + 6;
+        while (mantissa >= 1 << 24)
+        {
+            mantissa >>= 4;
+            exponent++;
+        }
+        while (mantissa < 1 << 20)
+        {
+            mantissa <<= 4;
+            exponent--;
+        }
+        return sign | (long) exponent << 24 | mantissa;
+    }
+
+    /**
+     * Writes values bit by bit, starting with the most significant bit.
+     */
+    private static final class Bits
+    {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int current;
+        private int nBits;
+
+        void put(long value, int width)
+        {
+            for (int i = width - 1; i >= 0; i--)
+            {
+                current = current << 1 | (int) (value >>> i & 1);
+                if (++nBits == 8)
+                {
+                    out.write(current);
+                    current = 0;
+                    nBits = 0;
+                }
+            }
+        }
+
+        void align()
+        {
+            while (nBits != 0)
+            {
+                put(0, 1);
+            }
+        }
+
+        byte[] toByteArray()
+        {
+            align();
+            return out.toByteArray();
+        }
+    }
+}